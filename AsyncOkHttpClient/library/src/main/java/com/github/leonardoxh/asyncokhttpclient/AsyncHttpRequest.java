@@ -15,66 +15,693 @@
  */
 package com.github.leonardoxh.asyncokhttpclient;
 
+import com.github.leonardoxh.asyncokhttpclient.utils.ContentDecoder;
+import com.github.leonardoxh.asyncokhttpclient.utils.CountingInputStream;
 import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
 import com.squareup.okhttp.OkHttpClient;
 
+import android.os.Message;
+
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.util.Map;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles the the messages for start/success/error/end of the incomming requests
  * @author Leonardo Rossetto <leonardoxh@gmail.com>
  */
-public class AsyncHttpRequest implements Runnable {
+public class AsyncHttpRequest implements Runnable, Call {
+
+    /** The request running on the current thread, used to drop the callbacks of canceled calls */
+	private static final ThreadLocal<AsyncHttpRequest> sCurrentRequest = new ThreadLocal<AsyncHttpRequest>();
 
     /** The callback response */
 	private final AsyncHttpResponse mResponse;
 
-    /** Client to execute the request */
-	private final HttpURLConnection mClient;
+    /** Client to open the connection for the request */
+	private final OkHttpClient mClient;
+
+    /** The immutable request that contains the method, URL, headers and parameters */
+	private final Request mRequest;
+
+    /** Connection of the current request, read by other threads on cancel */
+	private volatile HttpURLConnection mConnection;
+
+    /** Dispatcher that queued this request or null */
+	private volatile Dispatcher mDispatcher;
+
+	private volatile boolean mCanceled;
+
+	private volatile boolean mDone;
+
+    /** Counts the response body bytes read from the network */
+	private volatile CountingInputStream mReceived;
+
+    /** Counts the response body bytes after the decompression */
+	private volatile CountingInputStream mDecoded;
+
+    /** The cache of the GET responses or null */
+	private HttpCache mCache;
+
+    /** Store the response body on the cache while the handler read it, or null */
+	private HttpCache.BodyWriter mCacheWriter;
+
+    /** The memory cache of the decoded results or null */
+	private ObjectCache mObjectCache;
+
+    /** The key of the result of this request on the memory cache */
+	private String mObjectCacheKey;
+
+    /** The message that deliver a result to store on the memory cache */
+	private int mCacheableMessage;
+
+    /** True if this request only refresh the memory cache and never call the handler */
+	private boolean mRefresh;
+
+    /** The client retry policy, used when the request has no policy, or null */
+	private RetryPolicy mRetryPolicy;
+
+    /** The number of retries already executed */
+	private volatile int mRetryCount;
+
+    /**
+     * The delay before retry the current attempt or -1, used only by the running thread
+     * and by the dispatcher on that thread once the attempt ended
+     */
+	private long mRetryDelay = -1;
+
+    /** The retry waiting its delay or null */
+	private volatile Future<?> mRetry;
+
+    /** The policy that hedge the slow requests or null */
+	private HedgePolicy mHedgePolicy;
+
+    /** The race of this request with its hedged request or null */
+	private volatile Hedge mHedge;
+
+    /** The request this hedged request race with, null if this is not a hedged request */
+	private AsyncHttpRequest mPrimary;
+
+    /** True if the other attempt of a hedged request won, the messages of this attempt are dropped */
+	private volatile boolean mLost;
+
+    /** Listen the phases of this request or null */
+	private EventListener mEventListener;
+
+    /** The shared request this call is waiting or null */
+	private volatile SingleFlight.Flight mFlight;
+
+    /** The metrics of the client or null */
+	private Metrics mMetrics;
+
+    /** The executor of the callbacks of the client or null */
+	private CallbackExecutor mCallbackExecutor;
 
-    /** The request parameters for the request */
-	private final RequestParams mRequestParams;
+    /** The pool that decode the bodies of the expensive handlers or null */
+	private DecodePool mDecodePool;
 
-    /** The model that contains the request method and request headers */
-	private final RequestModel mRequest;
+    /** True if the response of the current attempt was queued on the decode pool */
+	private boolean mOffloaded;
+
+    /** True while the decode pool run the handler of this request */
+	private boolean mDecoding;
+
+    /** The response code of the current attempt or -1, used only by the running thread */
+	private int mResponseCode = -1;
+
+    /** The request body bytes sent by the current attempt, used only by the running thread */
+	private long mBytesSent;
 
     /**
      * Constructs a new instance of AsyncHttpRequest
      * @param client the client to execute the given request
      * @param responseHandler the callback for fire responses like success and error
-     * @param params the request parameters for GET, POST...
-     * @param request the model that contains the request method and headers
+     * @param request the immutable request to execute
      */
-	public AsyncHttpRequest(OkHttpClient client, AsyncHttpResponse responseHandler, 
-			RequestParams params, RequestModel request) {
+	public AsyncHttpRequest(OkHttpClient client, AsyncHttpResponse responseHandler, Request request) {
 		mResponse = responseHandler;
-		mClient = client.open(request.getURL());
+		mClient = client;
 		mRequest = request;
-		mRequestParams = params;
+	}
+
+    /**
+     * @return the request running on the current thread or null
+     */
+	static AsyncHttpRequest currentRequest() {
+		return sCurrentRequest.get();
+	}
+
+	@Override
+	public Request getRequest() {
+		return mRequest;
+	}
+
+	@Override
+	public void cancel() {
+		if(mCanceled) return;
+		mCanceled = true;
+		Dispatcher dispatcher = mDispatcher;
+		if(dispatcher != null && dispatcher.remove(this)) mDone = true;
+		SingleFlight.Flight flight = mFlight;
+		if(flight != null && flight.leave(this)) mDone = true;
+		Future<?> retry = mRetry;
+		if(retry != null && retry.cancel(false)) mDone = true;
+		Hedge hedge = mHedge;
+		if(hedge != null && mPrimary == null) {
+			hedge.cancel();
+			AsyncHttpRequest secondary = hedge.getSecondary();
+			if(mLost && (secondary == null || secondary.mDone)) mDone = true;
+		}
+		HttpURLConnection connection = mConnection;
+		if(connection != null) connection.disconnect();
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return mDone;
+	}
+
+	@Override
+	public long getReceivedBytes() {
+		CountingInputStream received = mReceived;
+		return received == null ? 0 : received.getCount();
+	}
+
+	@Override
+	public long getDecodedBytes() {
+		CountingInputStream decoded = mDecoded;
+		return decoded == null ? 0 : decoded.getCount();
+	}
+
+    /**
+     * Wrap the response body to decode its Content-Encoding
+     * and count the received and decoded bytes of this request
+     * @param connection the connection of the response
+     * @param body the raw response body
+     * @return the decoded response body
+     * @throws IOException if the encoding header can't be read
+     */
+	InputStream wrapResponseStream(HttpURLConnection connection, InputStream body) throws IOException {
+		HttpCache.BodyWriter cacheWriter = mCacheWriter;
+		if(cacheWriter != null) {
+			mCacheWriter = null;
+			body = cacheWriter.wrap(body);
+		}
+		CountingInputStream received = new CountingInputStream(body);
+		mReceived = received;
+		CountingInputStream decoded = new CountingInputStream(
+				ContentDecoder.decode(received, connection.getContentEncoding()));
+		mDecoded = decoded;
+		EventListener listener = mEventListener;
+		if(listener == null) return decoded;
+		listener.responseBodyStart(this, System.nanoTime());
+		return new BodyEventStream(decoded, listener);
+	}
+
+    /**
+     * Set the listener of the phases of this request
+     * @param listener the listener or null
+     */
+	void setEventListener(EventListener listener) {
+		mEventListener = listener;
+	}
+
+    /**
+     * @return the listener of the phases of this request or null
+     */
+	EventListener getEventListener() {
+		return mEventListener;
+	}
+
+    /**
+     * Set the metrics that record the attempts of this request
+     * @param metrics the metrics of the client or null
+     */
+	void setMetrics(Metrics metrics) {
+		mMetrics = metrics;
+	}
+
+    /**
+     * Set the thread where the callbacks of this request are called
+     * when the response has no executor
+     * @param executor the executor of the client or null
+     */
+	void setCallbackExecutor(CallbackExecutor executor) {
+		mCallbackExecutor = executor;
+	}
+
+    /**
+     * @return the executor of the callbacks of the client or null
+     */
+	CallbackExecutor getCallbackExecutor() {
+		return mCallbackExecutor;
+	}
+
+    /**
+     * Set the pool that decode the bodies of the expensive handlers
+     * @param decodePool the decode pool of the client or null to decode on the request thread
+     */
+	void setDecodePool(DecodePool decodePool) {
+		mDecodePool = decodePool;
+	}
+
+    /**
+     * @return true if the handler of this request is running on the decode pool
+     */
+	boolean isDecoding() {
+		return mDecoding;
+	}
+
+    /**
+     * Run the handler on the buffered response, called by the decode pool,
+     * the handler receive the result and the finish callbacks on the decode thread
+     * @param replay the buffered response body
+     */
+	void decode(HttpURLConnection replay) {
+		AsyncHttpRequest previous = sCurrentRequest.get();
+		sCurrentRequest.set(this);
+		mDecoding = true;
+		boolean ended = false;
+		try {
+			mResponse.sendResponseMessage(replay);
+			ended = true;
+			mResponse.sendEndMessage();
+		} catch(RuntimeException e) {
+			if(ended) throw e;
+			mResponse.sendFailMessage(e, null);
+			mResponse.sendEndMessage();
+		} finally {
+			mDecoding = false;
+			replay.disconnect();
+			sCurrentRequest.set(previous);
+			finish();
+		}
+	}
+
+    /**
+     * Send the response to the handler, or buffer it for the decode pool when the handler is expensive
+     * @param connection the connection with the response
+     * @throws IOException if the body can't be buffered
+     */
+	private void deliverResponse(HttpURLConnection connection) throws IOException {
+		DecodePool decodePool = mDecodePool;
+		if(decodePool == null || !mResponse.isDecodeOffloaded()) {
+			mResponse.sendResponseMessage(connection);
+			return;
+		}
+		HttpURLConnection replay = decodePool.buffer(this, mResponse, connection);
+		mOffloaded = true;
+		decodePool.decode(this, replay);
+	}
+
+    /**
+     * Set the cache used by this request
+     * @param cache the cache of the GET responses or null
+     */
+	void setCache(HttpCache cache) {
+		mCache = cache;
+	}
+
+    /**
+     * Store the decoded result of this request on the memory cache
+     * @param cache the memory cache of the decoded results
+     * @param key the key of the result
+     * @param refresh true to refresh a stale result without call the handler
+     */
+	void setObjectCache(ObjectCache cache, String key, boolean refresh) {
+		mObjectCache = cache;
+		mObjectCacheKey = key;
+		mCacheableMessage = mResponse.getCacheableMessage();
+		mRefresh = refresh;
+	}
+
+    /**
+     * Called before a message of this request is sent to the handler
+     * @param message the message to send
+     * @return false to drop the message
+     */
+	boolean onMessage(Message message) {
+		if(mObjectCacheKey != null && message.what == mCacheableMessage) {
+			mObjectCache.put(mObjectCacheKey, message.what, message.obj, getDecodedBytes());
+		}
+		if(mRefresh || mLost) return false;
+		EventListener listener = mEventListener;
+		if(listener != null && AsyncHttpResponse.isResultMessage(message.what)) {
+			listener.parseEnd(this, System.nanoTime());
+		}
+		return true;
+	}
+
+    /**
+     * Deliver a result of the memory cache without execute this request,
+     * the handler receive the start, result and finish callbacks on the caller thread
+     * @param what the message that deliver the result
+     * @param result the cached result
+     */
+	void deliverCached(int what, Object result) {
+		AsyncHttpRequest previous = sCurrentRequest.get();
+		sCurrentRequest.set(this);
+		EventListener listener = mEventListener;
+		if(listener != null) listener.callStart(this, System.nanoTime());
+		try {
+			mResponse.sendStartMessage();
+			mResponse.sendMessage(mResponse.obtainMessage(what, result));
+			mResponse.sendEndMessage();
+			if(listener != null) listener.callEnd(this, System.nanoTime());
+		} finally {
+			sCurrentRequest.set(previous);
+			mDone = true;
+		}
+	}
+
+    /**
+     * Set the retry policy used when the request doesn't have one
+     * @param retryPolicy the retry policy of the client or null to never retry
+     */
+	void setRetryPolicy(RetryPolicy retryPolicy) {
+		mRetryPolicy = retryPolicy;
+	}
+
+    /**
+     * Set the policy that hedge the slow requests
+     * @param hedgePolicy the hedge policy of the client or null to never hedge
+     */
+	void setHedgePolicy(HedgePolicy hedgePolicy) {
+		mHedgePolicy = hedgePolicy;
+	}
+
+    /**
+     * Create the hedged request of this request, it never send the start
+     * message and finish this request when it deliver the response
+     * @param hedge the race between this request and the hedged one
+     * @return the new hedged request
+     */
+	AsyncHttpRequest newHedgedRequest(Hedge hedge) {
+		AsyncHttpRequest secondary = new AsyncHttpRequest(mClient, mResponse, mRequest);
+		secondary.mPrimary = this;
+		secondary.mHedge = hedge;
+		secondary.mCache = mCache;
+		secondary.mRetryPolicy = mRetryPolicy;
+		secondary.mObjectCache = mObjectCache;
+		secondary.mObjectCacheKey = mObjectCacheKey;
+		secondary.mCacheableMessage = mCacheableMessage;
+		secondary.mRefresh = mRefresh;
+		secondary.mEventListener = mEventListener;
+		secondary.mMetrics = mMetrics;
+		secondary.mCallbackExecutor = mCallbackExecutor;
+		secondary.mDecodePool = mDecodePool;
+		return secondary;
+	}
+
+    /** Drop this attempt because the other attempt of the hedged request won */
+	void lose() {
+		mLost = true;
+		Dispatcher dispatcher = mDispatcher;
+		if(dispatcher != null && dispatcher.remove(this)) mDone = true;
+		HttpURLConnection connection = mConnection;
+		if(connection != null) connection.disconnect();
+	}
+
+    /** Mark this request and the request it hedge as done */
+	private void finish() {
+		if(mRefresh) mObjectCache.finishRefresh(mObjectCacheKey);
+		mDone = true;
+		if(mPrimary != null) mPrimary.mDone = true;
+	}
+
+    /**
+     * Start the race with a hedged request if the policy hedge this request
+     * @return the race or null if this request is not hedged
+     */
+	private Hedge startHedge() {
+		HedgePolicy hedgePolicy = mHedgePolicy;
+		if(hedgePolicy == null || mDispatcher == null || !hedgePolicy.isHedgeable(mRequest)) return null;
+		Hedge hedge = new Hedge(this, hedgePolicy, mDispatcher);
+		hedge.schedule();
+		return hedge;
+	}
+
+    /**
+     * Set the shared request that execute this call
+     * @param flight the handler of the shared request
+     */
+	void setFlight(SingleFlight.Flight flight) {
+		mFlight = flight;
+	}
+
+    /**
+     * Deliver the response of the shared request that executed this call,
+     * the handler receive the start, result and finish callbacks on the shared request thread
+     * @param connection the replay of the shared response or null if it failed
+     * @param error the failure of the shared request or null
+     */
+	void deliverShared(HttpURLConnection connection, Throwable error) {
+		AsyncHttpRequest previous = sCurrentRequest.get();
+		sCurrentRequest.set(this);
+		mConnection = connection;
+		EventListener listener = mEventListener;
+		if(listener != null) listener.callStart(this, System.nanoTime());
+		try {
+			mResponse.sendStartMessage();
+			if(connection != null) {
+				mResponse.sendResponseMessage(connection);
+			} else {
+				mResponse.sendFailMessage(error, null);
+			}
+			mResponse.sendEndMessage();
+			if(listener != null) listener.callEnd(this, System.nanoTime());
+		} finally {
+			disconnect();
+			if(mRefresh) mObjectCache.finishRefresh(mObjectCacheKey);
+			sCurrentRequest.set(previous);
+			mDone = true;
+		}
+	}
+
+    /**
+     * Set the dispatcher that queued this request
+     * @param dispatcher the dispatcher that will run this request
+     */
+	void setDispatcher(Dispatcher dispatcher) {
+		mDispatcher = dispatcher;
 	}
 	
 	/** Run the current request yaaa! */
 	@Override
 	public void run() {
 		if(mResponse == null) throw new NullPointerException("response can't be null");
+		AsyncHttpRequest previous = sCurrentRequest.get();
+		sCurrentRequest.set(this);
+		mRetryDelay = -1;
+		mOffloaded = false;
+		mResponseCode = -1;
+		mBytesSent = 0;
+		mReceived = null;
+		mDecoded = null;
+		Metrics metrics = mMetrics;
+		long startNanos = metrics != null ? System.nanoTime() : 0;
+		IOException failure = null;
+		boolean ended = false;
+		EventListener listener = mEventListener;
+		if(listener != null) listener.callStart(this, System.nanoTime());
 		try {
-			mResponse.sendStartMessage();
+			if(mPrimary == null) {
+				if(mRetryCount == 0) mResponse.sendStartMessage();
+				mHedge = mRetryCount == 0 && !mCanceled ? startHedge() : null;
+			}
 			makeRequest();
-			mResponse.sendEndMessage();
+			if(mRetryDelay < 0 && !mLost && !mOffloaded) {
+				ended = true;
+				mResponse.sendEndMessage();
+			}
+			if(listener != null) listener.callEnd(this, System.nanoTime());
 		} catch(IOException e) {
-			mResponse.sendFailMessage(e, null);
-			mResponse.sendEndMessage();
+			failure = e;
+			if(listener != null) listener.callFailed(this, e, System.nanoTime());
+			Hedge hedge = mHedge;
+			if(hedge != null && !hedge.fail(this)) {
+				mLost = true;
+			} else {
+				mRetryDelay = getRetryDelay(-1, null, e);
+				if(mRetryDelay < 0) {
+					mResponse.sendFailMessage(e, null);
+					mResponse.sendEndMessage();
+				}
+			}
+		} catch(RuntimeException e) {
+			/* A handler or a decoder failed, deliver it like any failure but never retry it */
+			if(ended || mOffloaded) throw e;
+			if(listener != null) listener.callFailed(this, e, System.nanoTime());
+			mRetryDelay = -1;
+			Hedge hedge = mHedge;
+			if(hedge != null && !hedge.fail(this)) {
+				mLost = true;
+			} else {
+				mResponse.sendFailMessage(e, null);
+				mResponse.sendEndMessage();
+			}
 		} finally {
+			if(mCacheWriter != null) {
+				mCacheWriter.abort();
+				mCacheWriter = null;
+			}
 			disconnect();
+			sCurrentRequest.set(previous);
+			if(metrics != null && !mLost && (mResponseCode != -1 || failure != null)) {
+				metrics.record(mRequest, mResponseCode, failure,
+						System.nanoTime() - startNanos, mBytesSent, getReceivedBytes());
+			}
+			if(mRetryDelay >= 0 && !mCanceled) {
+				/* The dispatcher queue the retry once this attempt left its running requests */
+				mRetryCount++;
+			} else {
+				mRetryDelay = -1;
+				if(!mLost && !mOffloaded) finish();
+			}
+		}
+	}
+
+    /**
+     * Queue the retry of the attempt that just ended, called by the dispatcher after
+     * the attempt left the running requests so the retry never runs beside it
+     */
+	void scheduleRetry() {
+		long retryDelay = mRetryDelay;
+		if(retryDelay < 0) return;
+		mRetryDelay = -1;
+		if(mCanceled) {
+			finish();
+		} else {
+			mRetry = mDispatcher.enqueueDelayed(this, retryDelay);
 		}
 	}
+
+    /**
+     * @param responseCode the response code or -1 if the request failed with an exception
+     * @param retryAfter the Retry-After header of the response or null
+     * @param error the failure of the request or null
+     * @return the delay before retry this request or -1 to deliver the failure
+     * @see com.github.leonardoxh.asyncokhttpclient.RetryPolicy
+     */
+	private long getRetryDelay(int responseCode, String retryAfter, IOException error) {
+		RetryPolicy retryPolicy = mRequest.getRetryPolicy() != null ? mRequest.getRetryPolicy() : mRetryPolicy;
+		if(retryPolicy == null || mDispatcher == null || mCanceled || Thread.currentThread().isInterrupted()) {
+			return -1;
+		}
+		return retryPolicy.getRetryDelay(mRequest, mRetryCount, responseCode, retryAfter, error);
+	}
 	
+    /**
+     * Fail this request without execute it, the response receive
+     * the start, error and finish callbacks like a normal failed request
+     * @param error the reason this request was not executed
+     */
+	public void reject(Throwable error) {
+		Hedge hedge = mHedge;
+		if(hedge != null && !hedge.fail(this)) {
+			mLost = true;
+			return;
+		}
+		if(!mRefresh && mResponse != null && !mCanceled) {
+			if(mRetryCount == 0 && mPrimary == null) mResponse.sendStartMessage();
+			mResponse.sendFailMessage(error, null);
+			mResponse.sendEndMessage();
+		}
+		finish();
+	}
+
+    /**
+     * Write the body on the connection on streaming mode, the bodies
+     * with known length use the fixed length mode and the others the chunked mode
+     * @param body the body to send
+     * @throws IOException if the body can't be written
+     */
+	private void writeBody(RequestBody body) throws IOException {
+		mConnection.setDoOutput(true);
+		String contentType = body.getContentType();
+		if(contentType != null && mConnection.getRequestProperty("Content-Type") == null) {
+			mConnection.setRequestProperty("Content-Type", contentType);
+		}
+		long contentLength = body.getContentLength();
+		if(contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+			mConnection.setFixedLengthStreamingMode((int)contentLength);
+		} else {
+			mConnection.setChunkedStreamingMode(0);
+		}
+		EventListener listener = mEventListener;
+		if(listener != null) connect(listener);
+		ProgressTracker tracker = new ProgressTracker(mResponse, true, contentLength);
+		OutputStream output = new ProgressTracker.Output(mConnection.getOutputStream(), tracker);
+		if(listener != null) listener.requestBodyStart(this, System.nanoTime());
+		body.writeTo(output);
+		output.close();
+		mBytesSent = tracker.getCount();
+		if(listener != null) listener.requestBodyEnd(this, mBytesSent, System.nanoTime());
+	}
+
+    /**
+     * Connect explicitly to measure the connection, without
+     * a listener the connection is opened when the request is sent
+     * @param listener the listener of the phases of this request
+     * @throws IOException if the connection failed
+     */
+	private void connect(EventListener listener) throws IOException {
+		listener.connectStart(this, System.nanoTime());
+		mConnection.connect();
+		listener.connectEnd(this, System.nanoTime());
+	}
+
+    /**
+     * Resolve the host before connect to measure the resolution, the
+     * connection then use the address cached by the system resolver
+     * @param listener the listener of the phases of this request
+     */
+	private void resolveHost(EventListener listener) {
+		String host = mRequest.getUrl().getHost();
+		listener.dnsStart(this, host, System.nanoTime());
+		try {
+			InetAddress.getAllByName(host);
+		} catch(UnknownHostException e) {
+			// Reported by the connection
+		}
+		listener.dnsEnd(this, host, System.nanoTime());
+	}
+
+    /**
+     * Replace the connection by the cached response if the server
+     * answered 304 Not Modified, otherwise start to store the response
+     * @param cache the cache of the GET responses
+     * @param cached the stale response sent for revalidation or null
+     * @param sentMillis the time the request was sent
+     * @return false if the server answered 304 but the cached body can't be replayed
+     * @throws IOException if the response can't be read
+     */
+	private boolean cacheResponse(HttpCache cache, HttpCache.Entry cached, long sentMillis) throws IOException {
+		if(cached != null && mConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			HttpURLConnection connection = cache.update(cached, mRequest, mConnection, sentMillis);
+			if(connection == null) return false;
+			mConnection.disconnect();
+			mConnection = connection;
+			return true;
+		}
+		mCacheWriter = cache.put(mRequest, mConnection, sentMillis);
+		return true;
+	}
+
 	/** Disconnect the current request after send the end message */
 	protected void disconnect() {
-		mClient.disconnect();
+		if(mConnection != null) mConnection.disconnect();
 	}
 
     /**
@@ -85,24 +712,122 @@ public class AsyncHttpRequest implements Runnable {
      * @see com.github.leonardoxh.asyncokhttpclient.RequestParams
      */
 	private void makeRequest() throws IOException {
+		HttpCache.Entry cached = null;
 		try {
-			if(!Thread.currentThread().isInterrupted() 
+			if(!isCanceled() && !Thread.currentThread().isInterrupted() 
 					&& mResponse != null) {
-				mClient.setRequestMethod(mRequest.getRequestMethod());
-				for(Map.Entry<String, String> entry : mRequest.getHeaders().entrySet()) {
-					mClient.setRequestProperty(entry.getKey(), entry.getValue());
+				HttpCache cache = mCache;
+				cached = cache != null ? cache.get(mRequest) : null;
+				if(cached != null) {
+					HttpURLConnection connection = cache.openIfFresh(cached, mRequest);
+					if(connection != null) {
+						mConnection = connection;
+						Hedge hedge = mHedge;
+						if(hedge != null && !hedge.win(this, -1)) {
+							mLost = true;
+							return;
+						}
+						deliverResponse(connection);
+						return;
+					}
 				}
-				if(mRequestParams != null && 
-						!RequestMethod.GET.equals(mRequest.getRequestMethod())) {
-					OutputStream params = mClient.getOutputStream();
-					mRequestParams.writeTo(params);
-					params.close();
+				EventListener listener = mEventListener;
+				if(listener != null && mClient.getProxy() == null) resolveHost(listener);
+				long openNanos = System.nanoTime();
+				while(true) {
+					mConnection = mClient.open(mRequest.getUrl());
+					if(mCanceled || mLost) return;
+					mConnection.setRequestMethod(mRequest.getMethod());
+					for(int i = 0, size = mRequest.getHeaderCount(); i < size; i++) {
+						mConnection.addRequestProperty(mRequest.getHeaderName(i), mRequest.getHeaderValue(i));
+					}
+					mResponse.prepareConnection(mConnection);
+					/* A partial response is never stored and must not be revalidated against the full one */
+					if(cache != null && mConnection.getRequestProperty("Range") != null) {
+						cache = null;
+						if(cached != null) cached.close();
+						cached = null;
+					}
+					if(cached != null) cache.addConditions(cached, mConnection);
+					long sentMillis = System.currentTimeMillis();
+					RequestBody body = mRequest.getBody();
+					boolean sendBody = body != null && !RequestMethod.GET.equals(mRequest.getMethod());
+					if(sendBody) writeBody(body);
+					if(listener != null) {
+						if(!sendBody) connect(listener);
+						listener.responseHeadersStart(this, System.nanoTime());
+					}
+					int responseCode = mConnection.getResponseCode();
+					mResponseCode = responseCode;
+					if(listener != null) listener.responseHeadersEnd(this, responseCode, System.nanoTime());
+					if(mCanceled) return;
+					Hedge hedge = mHedge;
+					if(hedge != null && !hedge.win(this, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openNanos))) {
+						mLost = true;
+						return;
+					}
+					mRetryDelay = getRetryDelay(responseCode,
+							mConnection.getHeaderField("Retry-After"), null);
+					if(mRetryDelay >= 0) return;
+					if(cache != null && !cacheResponse(cache, cached, sentMillis)) {
+						/* The cached body is gone, ask the full response again without the validators */
+						mConnection.disconnect();
+						cached.close();
+						cached = null;
+						continue;
+					}
+					deliverResponse(mConnection);
+					return;
 				}
-				mResponse.sendResponseMessage(mClient);
 			}
 		} catch(IOException e) {
-			if(!Thread.currentThread().isInterrupted()) throw e;
+			if(!mCanceled && !mLost && !Thread.currentThread().isInterrupted()) throw e;
+		} catch(RuntimeException e) {
+			/* The JVM connections can fail unchecked when disconnected by another thread */
+			if(!mCanceled && !mLost) throw e;
+		} finally {
+			if(cached != null) cached.close();
 		}
 	}
 	
+    /** Report the end of the response body to the listener on the first EOF or close */
+	private final class BodyEventStream extends FilterInputStream {
+
+		private final EventListener mListener;
+
+		private boolean mEnded;
+
+		BodyEventStream(InputStream source, EventListener listener) {
+			super(source);
+			mListener = listener;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if(result == -1) end();
+			return result;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int result = super.read(buffer, offset, count);
+			if(result == -1) end();
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			end();
+			super.close();
+		}
+
+		private void end() {
+			if(mEnded) return;
+			mEnded = true;
+			mListener.responseBodyEnd(AsyncHttpRequest.this, getReceivedBytes(), System.nanoTime());
+		}
+
+	}
+
 }
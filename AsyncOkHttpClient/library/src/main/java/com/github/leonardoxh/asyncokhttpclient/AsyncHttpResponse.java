@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.net.HttpRetryException;
 import java.net.HttpURLConnection;
 
+import com.github.leonardoxh.asyncokhttpclient.utils.ContentDecoder;
 import com.github.leonardoxh.asyncokhttpclient.utils.Util;
 
 import android.os.Handler;
@@ -49,12 +50,36 @@ public class AsyncHttpResponse implements Handler.Callback {
     /** Indicate the response has finished (after onSuccess or onError) */
 	protected static final int FINISH = 3;
 
+    /** Indicate a progress of the request body upload */
+	protected static final int UPLOAD_PROGRESS = 13;
+
+    /** Indicate a progress of the response body download */
+	protected static final int DOWNLOAD_PROGRESS = 14;
+
+    /** The default min time between two progress messages in milliseconds */
+	private static final long DEFAULT_PROGRESS_INTERVAL = 100;
+
+    /** The default min bytes between two progress messages */
+	private static final long DEFAULT_PROGRESS_THRESHOLD = 1024 * 8;
+
+    /** The boxed status codes from 100 to 599, filled on demand */
+	private static final Integer[] sStatusCodes = new Integer[500];
+
     /** Handler used to pass the messages over the threads */
 	private Handler mHandler;
 
+    /** The executor of the callbacks of this response or null to use the one of the client */
+	private volatile CallbackExecutor mCallbackExecutor;
+
+	private volatile long mProgressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+	private volatile long mProgressThreshold = DEFAULT_PROGRESS_THRESHOLD;
+
     /** Construct a new instance of AsyncHttpResponse */
 	public AsyncHttpResponse() {
-		if(Looper.myLooper() != null) mHandler = new Handler(this);
+		if(Looper.myLooper() != null) {
+			mHandler = new Handler(this);
+		}
 	}
 
     /** Callback that indicate the request has started */
@@ -79,13 +104,73 @@ public class AsyncHttpResponse implements Handler.Callback {
      */
 	public void onError(Throwable error, String content) { }
 
+    /**
+     * Callback that indicate the progress of the request body upload
+     * @param bytesWritten the bytes of the body written so far
+     * @param total the length of the body or -1 if unknown
+     * @see #setProgressThrottle(long, long)
+     */
+	public void onUploadProgress(long bytesWritten, long total) { }
+
+    /**
+     * Callback that indicate the progress of the response body download,
+     * for compressed responses the bytes are counted before the decompression
+     * @param bytesRead the bytes of the body read so far
+     * @param total the Content-Length of the response or -1 if unknown
+     * @see #setProgressThrottle(long, long)
+     */
+	public void onDownloadProgress(long bytesRead, long total) { }
+
+    /**
+     * Set how often the progress callbacks are called, a progress is sent only when
+     * both the interval and the threshold have passed since the last one,
+     * the end of a transfer is always sent
+     * @param intervalMillis the min time between two progress callbacks, 100ms by default
+     * @param thresholdBytes the min bytes between two progress callbacks, 8KB by default
+     */
+	public void setProgressThrottle(long intervalMillis, long thresholdBytes) {
+		mProgressInterval = intervalMillis;
+		mProgressThreshold = thresholdBytes;
+	}
+
+    /**
+     * @return the min time between two progress callbacks in milliseconds
+     */
+	public long getProgressInterval() {
+		return mProgressInterval;
+	}
+
+    /**
+     * @return the min bytes between two progress callbacks
+     */
+	public long getProgressThreshold() {
+		return mProgressThreshold;
+	}
+
+    /**
+     * Set the thread where the callbacks of this response are called,
+     * overriding the executor of the client
+     * @param executor the executor of the callbacks or null to use the one of the client
+     * @see AsyncOkHttpClient#setCallbackExecutor(CallbackExecutor)
+     */
+	public void setCallbackExecutor(CallbackExecutor executor) {
+		mCallbackExecutor = executor;
+	}
+
+    /**
+     * @return the executor of the callbacks of this response or null
+     */
+	public CallbackExecutor getCallbackExecutor() {
+		return mCallbackExecutor;
+	}
+
     /**
      * Send the success message to the handler
      * @param statusCode the success request status code (normally 200 or 202)
      * @param responseBody the response body of the request (if any) or null
      */
 	protected void sendSuccessMessage(int statusCode, String responseBody) {
-		sendMessage(obtainMessage(SUCCESS, new Object[] {Integer.valueOf(statusCode), responseBody}));
+		sendMessage(obtainMessage(SUCCESS, new Object[] {statusCode(statusCode), responseBody}));
 	}
 
     /**
@@ -97,6 +182,24 @@ public class AsyncHttpResponse implements Handler.Callback {
 		sendMessage(obtainMessage(FAIL, new Object[] {error, content}));
 	}
 
+    /**
+     * Send the upload progress message to the handler
+     * @param bytesWritten the bytes of the body written so far
+     * @param total the length of the body or -1 if unknown
+     */
+	protected void sendUploadProgressMessage(long bytesWritten, long total) {
+		sendMessage(obtainMessage(UPLOAD_PROGRESS, new long[] {bytesWritten, total}));
+	}
+
+    /**
+     * Send the download progress message to the handler
+     * @param bytesRead the bytes of the body read so far
+     * @param total the length of the body or -1 if unknown
+     */
+	protected void sendDownloadProgressMessage(long bytesRead, long total) {
+		sendMessage(obtainMessage(DOWNLOAD_PROGRESS, new long[] {bytesRead, total}));
+	}
+
     /**
      * Send the handle message that indicate the request has started
      */
@@ -148,23 +251,158 @@ public class AsyncHttpResponse implements Handler.Callback {
 				Object[] failResponse = (Object[])message.obj;
 				handleFailMessage((Throwable)failResponse[0], (String)failResponse[1]);
 				return true;
+			case UPLOAD_PROGRESS:
+				long[] uploadProgress = (long[])message.obj;
+				onUploadProgress(uploadProgress[0], uploadProgress[1]);
+				return true;
+			case DOWNLOAD_PROGRESS:
+				long[] downloadProgress = (long[])message.obj;
+				onDownloadProgress(downloadProgress[0], downloadProgress[1]);
+				return true;
 		}
 		return false;
 	}
 
     /**
      * Send a message over the handler,
-     * if the handler is null no problems it will recreate it
+     * if the handler is null no problems it will recreate it,
+     * messages of canceled requests and background refreshes are never delivered
      * @param message the message for send, can't be null
+     * @see #setCallbackExecutor(CallbackExecutor)
      */
 	protected void sendMessage(Message message) {
-		if(mHandler != null) {
+		AsyncHttpRequest request = AsyncHttpRequest.currentRequest();
+		if(request != null && (request.isCanceled() || !request.onMessage(message))) return;
+		CallbackExecutor executor = mCallbackExecutor;
+		if(executor == null && request != null) executor = request.getCallbackExecutor();
+		if(executor != null) {
+			executor.execute(Delivery.obtain(this, request, message));
+		} else if(mHandler == null) {
+			dispatchMessage(request, message);
+		} else if(request == null) {
 			mHandler.sendMessage(message);
 		} else {
+			mHandler.post(Delivery.obtain(this, request, message));
+		}
+	}
+
+    /**
+     * Deliver a message of a request on the callback thread, the message is dropped
+     * if the request was canceled after it was sent. The deliveries and
+     * their messages are recycled after the dispatch
+     */
+	static final class Delivery implements Runnable {
+
+		private static final int MAX_POOL_SIZE = 64;
+
+		private static final Object sPoolLock = new Object();
+
+		private static Delivery sPool;
+
+		private static int sPoolSize;
+
+		private AsyncHttpResponse mResponse;
+
+		private AsyncHttpRequest mRequest;
+
+		private Message mMessage;
+
+        /** The next delivery on the pool */
+		private Delivery mNext;
+
+		private Delivery() { }
+
+        /**
+         * @param response the handler of the message
+         * @param request the request that sent the message or null
+         * @param message the message to deliver
+         * @return a delivery from the pool or a new one
+         */
+		static Delivery obtain(AsyncHttpResponse response, AsyncHttpRequest request, Message message) {
+			Delivery delivery = null;
+			synchronized(sPoolLock) {
+				if(sPool != null) {
+					delivery = sPool;
+					sPool = delivery.mNext;
+					delivery.mNext = null;
+					sPoolSize--;
+				}
+			}
+			if(delivery == null) delivery = new Delivery();
+			delivery.mResponse = response;
+			delivery.mRequest = request;
+			delivery.mMessage = message;
+			return delivery;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if(mRequest == null || !mRequest.isCanceled()) mResponse.dispatchMessage(mRequest, mMessage);
+			} finally {
+				mMessage.recycle();
+				recycle();
+			}
+		}
+
+		private void recycle() {
+			mResponse = null;
+			mRequest = null;
+			mMessage = null;
+			synchronized(sPoolLock) {
+				if(sPoolSize < MAX_POOL_SIZE) {
+					mNext = sPool;
+					sPool = this;
+					sPoolSize++;
+				}
+			}
+		}
+
+	}
+
+    /**
+     * Handle the message reporting the result callback to the event listener of the request
+     * @param request the request of the message or null
+     * @param message the message to handle
+     */
+	private void dispatchMessage(AsyncHttpRequest request, Message message) {
+		EventListener listener = request != null ? request.getEventListener() : null;
+		if(listener == null || !isResultMessage(message.what)) {
+			handleMessage(message);
+			return;
+		}
+		listener.callbackStart(request, System.nanoTime());
+		try {
 			handleMessage(message);
+		} finally {
+			listener.callbackEnd(request, System.nanoTime());
 		}
 	}
 
+    /**
+     * @param what the message code
+     * @return true if the message deliver the result of a request, like a success or a failure
+     */
+	static boolean isResultMessage(int what) {
+		return what != START && what != FINISH && what != UPLOAD_PROGRESS && what != DOWNLOAD_PROGRESS;
+	}
+
+    /**
+     * Box a status code without allocate for the usual status codes
+     * @param statusCode the status code of a response
+     * @return the boxed status code
+     */
+	static Integer statusCode(int statusCode) {
+		int index = statusCode - 100;
+		if(index < 0 || index >= sStatusCodes.length) return Integer.valueOf(statusCode);
+		Integer boxed = sStatusCodes[index];
+		if(boxed == null) {
+			boxed = Integer.valueOf(statusCode);
+			sStatusCodes[index] = boxed;
+		}
+		return boxed;
+	}
+
     /**
      * Obtain a handler thread message to verify the results
      * this method will always return a valid message
@@ -184,6 +422,93 @@ public class AsyncHttpResponse implements Handler.Callback {
 		return message;
 	}
 
+    /**
+     * Decode the response body with the charset of the response Content-Type
+     * @param connection the connection of the response
+     * @param response the response body
+     * @return the response body decoded
+     * @throws IOException if the response body can't be read
+     */
+	static String readResponseBody(HttpURLConnection connection, InputStream response) throws IOException {
+		return Util.inputStreamToString(response, Util.getCharset(connection.getContentType()),
+				getContentLength(connection));
+	}
+
+    /**
+     * Open the response body decoding its Content-Encoding,
+     * the download progress of the success body is reported to this response,
+     * every handler must read the body from this stream. The bodies buffered for
+     * the {@link DecodePool} were already decoded and counted by the request thread
+     * @param connection the connection of the response
+     * @param error true to open the error stream
+     * @return the decoded response body or null if the response has no body
+     * @throws IOException if the response body can't be opened
+     */
+	InputStream openResponseStream(HttpURLConnection connection, boolean error) throws IOException {
+		InputStream body = error ? connection.getErrorStream() : connection.getInputStream();
+		if(body == null) return null;
+		AsyncHttpRequest request = AsyncHttpRequest.currentRequest();
+		if(request != null && request.isDecoding()) return body;
+		if(!error) {
+			ProgressTracker tracker = new ProgressTracker(this, false,
+					parseContentLength(connection.getHeaderField("Content-Length")));
+			body = new ProgressTracker.Input(body, tracker);
+		}
+		if(request != null) return request.wrapResponseStream(connection, body);
+		return ContentDecoder.decode(body, connection.getContentEncoding());
+	}
+
+    /**
+     * @param connection the connection of the response
+     * @return the length of the decoded response body or -1 if unknown
+     */
+	static long getContentLength(HttpURLConnection connection) {
+		if(ContentDecoder.isSupported(connection.getContentEncoding())) return -1;
+		return parseContentLength(connection.getHeaderField("Content-Length"));
+	}
+
+	private static long parseContentLength(String length) {
+		if(length == null) return -1;
+		try {
+			return Long.parseLong(length.trim());
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+    /**
+     * @return the message that deliver the decoded success of this handler,
+     * the message object is stored by the {@link ObjectCache}, or -1 if the
+     * success of this handler can't be cached
+     */
+	int getCacheableMessage() {
+		return SUCCESS;
+	}
+
+    /**
+     * @return the kind of result of this handler, handlers of the same kind share
+     * the results of the {@link ObjectCache}, or null if the success can't be cached
+     */
+	String getObjectCacheKind() {
+		int what = getCacheableMessage();
+		return what == -1 ? null : String.valueOf(what);
+	}
+
+    /**
+     * @return true if the decode of the body is expensive enough to run on the {@link DecodePool},
+     * the body is read into memory by the request thread and decoded by the pool
+     */
+	boolean isDecodeOffloaded() {
+		return false;
+	}
+
+    /**
+     * Called on the request thread before the request is sent,
+     * subclasses can add the headers they need to handle the response
+     * @param connection the connection not yet connected
+     */
+	void prepareConnection(HttpURLConnection connection) { }
+
     /**
      * Perform the connection with the given client
      * and return the response to the relative callback
@@ -195,13 +520,13 @@ public class AsyncHttpResponse implements Handler.Callback {
 		try {
 			int responseCode = connection.getResponseCode();
 			if(responseCode >= 300) {
-				response = connection.getErrorStream();
-				if(response != null) responseBody = Util.inputStreamToString(response);
+				response = openResponseStream(connection, true);
+				if(response != null) responseBody = readResponseBody(connection, response);
                 sendFailMessage(new HttpRetryException(connection.getResponseMessage(),
                         responseCode), responseBody);
 			} else {
-				response = connection.getInputStream();
-				if(response != null) responseBody = Util.inputStreamToString(response);
+				response = openResponseStream(connection, false);
+				if(response != null) responseBody = readResponseBody(connection, response);
 				sendSuccessMessage(responseCode, responseBody);
 			}
 		} catch(IOException e) {
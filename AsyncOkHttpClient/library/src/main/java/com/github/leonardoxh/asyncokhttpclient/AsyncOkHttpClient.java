@@ -17,10 +17,13 @@ package com.github.leonardoxh.asyncokhttpclient;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.github.leonardoxh.asyncokhttpclient.utils.ContentDecoder;
 import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
 import com.github.leonardoxh.asyncokhttpclient.utils.Util;
 import com.squareup.okhttp.OkHttpClient;
@@ -37,11 +40,49 @@ public class AsyncOkHttpClient {
 	/** The default connect timeout in seconds */
 	private static final long DEFAULT_CONNECT_TIMEOUT = 15;
 	
-    /** The executor that will execute the request on a separated thread*/
-	private ThreadPoolExecutor mThreadPool = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+    /** Execute the requests on separated threads respecting the concurrency limits */
+	private final Dispatcher mDispatcher = new Dispatcher();
 
-    /** The request model for internal usage will make the headers more easy to set */
-	private final RequestModel mRequest = new RequestModel();
+    /**
+     * The default headers of every request, this map is never mutated
+     * it is replaced by a new copy on every change so the requests can read it without locks
+     */
+	private volatile Map<String, String> mHeaders = Collections.emptyMap();
+
+    /** Negotiate gzip and deflate on the requests that don't set Accept-Encoding */
+	private volatile boolean mCompressionEnabled;
+
+    /** The cache of the GET responses or null */
+	private volatile HttpCache mCache;
+
+    /** The memory cache of the decoded GET results or null */
+	private volatile ObjectCache mObjectCache;
+
+    /** Share one network request between the identical GET requests in flight */
+	private volatile boolean mCoalescingEnabled;
+
+	private final SingleFlight mSingleFlight = new SingleFlight();
+
+    /** The retry policy of the requests without one or null */
+	private volatile RetryPolicy mRetryPolicy;
+
+    /** The policy that hedge the slow requests or null */
+	private volatile HedgePolicy mHedgePolicy;
+
+    /** Listen the phases of the requests or null */
+	private volatile EventListener mEventListener;
+
+    /** The metrics of the requests or null */
+	private volatile Metrics mMetrics;
+
+    /** The executor of the callbacks or null to call them on the looper of the responses */
+	private volatile CallbackExecutor mCallbackExecutor;
+
+    /** The pool that decode the expensive responses or null to decode on the request threads */
+	private volatile DecodePool mDecodePool;
+
+    /** True if the requests run on virtual threads */
+	private volatile boolean mVirtualThreadsEnabled;
 
     /** The main actor of this library tanks to Square Inc. */
 	private final OkHttpClient mClient = new OkHttpClient();
@@ -68,18 +109,271 @@ public class AsyncOkHttpClient {
      * @param key the header name
      * @param value the header value
      */
-	public void addHeader(String key, String value) {
-		mRequest.addHeader(key, value);
+	public synchronized void addHeader(String key, String value) {
+		if(key == null || value == null) return;
+		Map<String, String> headers = new LinkedHashMap<String, String>(mHeaders);
+		headers.put(key, value);
+		mHeaders = Collections.unmodifiableMap(headers);
+	}
+
+    /**
+     * Remove a header previously added by {@link #addHeader(String, String)}
+     * @param key the header name
+     */
+	public synchronized void removeHeader(String key) {
+		if(!mHeaders.containsKey(key)) return;
+		Map<String, String> headers = new LinkedHashMap<String, String>(mHeaders);
+		headers.remove(key);
+		mHeaders = Collections.unmodifiableMap(headers);
+	}
+
+    /**
+     * Enable the negotiation of compressed responses, when enabled the requests
+     * without an Accept-Encoding header are sent with Accept-Encoding: gzip, deflate
+     * and the response body is decompressed as a stream before reach the handlers
+     * @param enabled true to request compressed responses, disabled by default
+     * @see com.github.leonardoxh.asyncokhttpclient.Call#getReceivedBytes()
+     * @see com.github.leonardoxh.asyncokhttpclient.Call#getDecodedBytes()
+     */
+	public void setCompressionEnabled(boolean enabled) {
+		mCompressionEnabled = enabled;
+	}
+
+    /**
+     * @return true if the requests negotiate compressed responses
+     * @see #setCompressionEnabled(boolean)
+     */
+	public boolean isCompressionEnabled() {
+		return mCompressionEnabled;
+	}
+
+    /**
+     * Set the disk cache of the GET responses, the cache
+     * is disabled by default
+     * @param cache the cache to use or null to disable the cache
+     * @see com.github.leonardoxh.asyncokhttpclient.HttpCache
+     */
+	public void setCache(HttpCache cache) {
+		mCache = cache;
+	}
+
+    /**
+     * @return the disk cache of the GET responses or null if disabled
+     */
+	public HttpCache getCache() {
+		return mCache;
+	}
+
+    /**
+     * Set the memory cache of the decoded GET results, a cached result
+     * is delivered without execute the request, the cache is disabled by default
+     * @param cache the cache to use or null to disable the cache
+     * @see com.github.leonardoxh.asyncokhttpclient.ObjectCache
+     */
+	public void setObjectCache(ObjectCache cache) {
+		mObjectCache = cache;
+	}
+
+    /**
+     * @return the memory cache of the decoded GET results or null if disabled
+     */
+	public ObjectCache getObjectCache() {
+		return mObjectCache;
+	}
+
+    /**
+     * Enable the coalescing of the identical GET requests in flight, the requests
+     * with the same URL and headers share one network request and one body read,
+     * the response is delivered to every handler and canceling a request don't cancel
+     * the others. The handlers that stream the body, like the file downloads, are never coalesced
+     * @param enabled true to coalesce the identical requests, disabled by default
+     */
+	public void setCoalescingEnabled(boolean enabled) {
+		mCoalescingEnabled = enabled;
+	}
+
+    /**
+     * @return true if the identical GET requests in flight are coalesced
+     * @see #setCoalescingEnabled(boolean)
+     */
+	public boolean isCoalescingEnabled() {
+		return mCoalescingEnabled;
+	}
+
+    /**
+     * Set the retry policy of the requests that don't have their own policy,
+     * the requests are never retried by default
+     * @param retryPolicy the retry policy or null to disable the retries
+     * @see com.github.leonardoxh.asyncokhttpclient.Request.Builder#retryPolicy(RetryPolicy)
+     */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		mRetryPolicy = retryPolicy;
+	}
+
+    /**
+     * @return the retry policy of the requests without one or null if disabled
+     */
+	public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+    /**
+     * Set the policy that hedge the slow requests, a request without response
+     * after the delay of the policy is sent again, the first response wins and
+     * the other request is canceled, the handler receive the callbacks only once.
+     * The requests are never hedged by default
+     * @param hedgePolicy the hedge policy or null to disable the hedged requests
+     * @see com.github.leonardoxh.asyncokhttpclient.HedgePolicy
+     */
+	public void setHedgePolicy(HedgePolicy hedgePolicy) {
+		mHedgePolicy = hedgePolicy;
+	}
+
+    /**
+     * @return the policy that hedge the slow requests or null if disabled
+     */
+	public HedgePolicy getHedgePolicy() {
+		return mHedgePolicy;
+	}
+
+    /**
+     * Set the listener of the phases of the requests, like the time waiting
+     * on the queue, the connection, the time to the first byte and the parse.
+     * Without a listener the requests don't measure anything
+     * @param listener the listener or null to remove it
+     * @see com.github.leonardoxh.asyncokhttpclient.EventListener
+     */
+	public void setEventListener(EventListener listener) {
+		mEventListener = listener;
+	}
+
+    /**
+     * @return the listener of the phases of the requests or null
+     */
+	public EventListener getEventListener() {
+		return mEventListener;
+	}
+
+    /**
+     * Set the metrics that record the counters and the latencies of the requests,
+     * per host and per route template. Without metrics nothing is recorded
+     * @param metrics the metrics or null to stop recording
+     * @see com.github.leonardoxh.asyncokhttpclient.Metrics
+     * @see com.github.leonardoxh.asyncokhttpclient.Request.Builder#route(String)
+     */
+	public void setMetrics(Metrics metrics) {
+		mMetrics = metrics;
+	}
+
+    /**
+     * @return the metrics of the requests or null
+     */
+	public Metrics getMetrics() {
+		return mMetrics;
+	}
+
+    /**
+     * Set the thread where the callbacks of the responses are called, like
+     * {@link CallbackExecutor#inline()} for background jobs that must never touch
+     * the main thread. The responses can override it with their own executor
+     * @param executor the executor of the callbacks or null to call them on the
+     * looper of the thread that constructed each response
+     * @see com.github.leonardoxh.asyncokhttpclient.CallbackExecutor
+     * @see AsyncHttpResponse#setCallbackExecutor(CallbackExecutor)
+     */
+	public void setCallbackExecutor(CallbackExecutor executor) {
+		mCallbackExecutor = executor;
+	}
+
+    /**
+     * @return the executor of the callbacks or null
+     */
+	public CallbackExecutor getCallbackExecutor() {
+		return mCallbackExecutor;
+	}
+
+    /**
+     * Set the pool that decode the expensive responses, like the JSON ones, apart from
+     * the request threads. The request threads only read the bodies and the pool, sized to
+     * the cores by default, parse them, so the large parses don't hold the connections
+     * @param decodePool the decode pool or null to decode on the request threads
+     * @see com.github.leonardoxh.asyncokhttpclient.DecodePool
+     */
+	public void setDecodePool(DecodePool decodePool) {
+		mDecodePool = decodePool;
+	}
+
+    /**
+     * @return the pool that decode the expensive responses or null
+     */
+	public DecodePool getDecodePool() {
+		return mDecodePool;
 	}
 
     /**
      * Set the executor to execute the requests
      * on the most use cases this is not necessary
-     * but is a good choice for make unit tests
+     * but is a good choice for make unit tests,
+     * the limits of the dispatcher still apply to the given executor
      * @param threadPool a new thread pool for execute the incoming requests
+     * @see #getDispatcher()
      */
 	public void setThreadPool(ThreadPoolExecutor threadPool) {
-		mThreadPool = threadPool;
+		mDispatcher.setExecutor(threadPool);
+	}
+
+    /**
+     * Run every request on its own virtual thread instead of the thread pool, for the
+     * JVM deployments on Java 21 or later. A request waiting on the network doesn't hold
+     * a platform thread, so the limits of the dispatcher still at their defaults are raised
+     * to {@link Dispatcher#DEFAULT_MAX_VIRTUAL_REQUESTS} and
+     * {@link Dispatcher#DEFAULT_MAX_VIRTUAL_REQUESTS_PER_HOST}, and set back when the virtual
+     * threads are disabled, the limits set by the caller are kept. Every request in flight
+     * holds a socket so keep the limits under the file limit of the process.
+     * The concurrency is still bound by the CPU that open the connections, on one CPU the
+     * load test of the sources (gradle loadTest) had about 7000 of 10000 requests waiting
+     * on a slow server at once, on 16 platform threads
+     * @param enabled true to run the requests on virtual threads
+     * @throws UnsupportedOperationException if enabled and the JVM has no virtual threads
+     * @see Dispatcher#newVirtualThreadFactory()
+     */
+	public void setVirtualThreadsEnabled(boolean enabled) {
+		mDispatcher.setThreadFactory(enabled ? Dispatcher.newVirtualThreadFactory() : null);
+		if(enabled != mVirtualThreadsEnabled) {
+			if(enabled) {
+				replaceLimits(Dispatcher.DEFAULT_MAX_REQUESTS, Dispatcher.DEFAULT_MAX_REQUESTS_PER_HOST,
+						Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS, Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS_PER_HOST);
+			} else {
+				replaceLimits(Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS, Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS_PER_HOST,
+						Dispatcher.DEFAULT_MAX_REQUESTS, Dispatcher.DEFAULT_MAX_REQUESTS_PER_HOST);
+			}
+		}
+		mVirtualThreadsEnabled = enabled;
+	}
+
+    /** Replace the limits of the dispatcher that are still the given defaults */
+	private void replaceLimits(int maxRequests, int maxRequestsPerHost, int newMaxRequests, int newMaxRequestsPerHost) {
+		if(mDispatcher.getMaxRequests() == maxRequests) mDispatcher.setMaxRequests(newMaxRequests);
+		if(mDispatcher.getMaxRequestsPerHost() == maxRequestsPerHost) {
+			mDispatcher.setMaxRequestsPerHost(newMaxRequestsPerHost);
+		}
+	}
+
+    /**
+     * @return true if the requests run on virtual threads
+     */
+	public boolean isVirtualThreadsEnabled() {
+		return mVirtualThreadsEnabled;
+	}
+
+    /**
+     * Return the dispatcher of this client, use it to change the
+     * limit of requests in flight, the queue size and the overflow policy
+     * @return the dispatcher used by this client
+     * @see com.github.leonardoxh.asyncokhttpclient.Dispatcher
+     */
+	public Dispatcher getDispatcher() {
+		return mDispatcher;
 	}
 
     /**
@@ -111,27 +405,127 @@ public class AsyncOkHttpClient {
      * @param response the response handler for this request
      * @param params the request parameters null parameters means no parameters
      * @param requestMethod the request method for requests
+     * @return the handle of the request or null if the url is malformed
      * @see com.github.leonardoxh.asyncokhttpclient.AsyncHttpRequest
      * @see com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod
      */
-	protected void sendRequest(OkHttpClient client, String url, AsyncHttpResponse response, 
+	protected Call sendRequest(OkHttpClient client, String url, AsyncHttpResponse response, 
 			RequestParams params, String requestMethod) {
 		try {
-			mRequest.setRequestMethod(requestMethod);
-			mRequest.setUrl(new URL(url));
-			mThreadPool.submit(new AsyncHttpRequest(client, response, params, mRequest));
+			Request request = new Request.Builder()
+					.url(new URL(url))
+					.method(requestMethod, params)
+					.headers(mHeaders)
+					.build();
+			return enqueue(client, request, response);
 		} catch(MalformedURLException e) {
 			e.printStackTrace(); //TODO
+			return null;
 		}
 	}
 
+    /**
+     * Execute the given request, the default headers of this client
+     * are merged on it, the headers of the request always win
+     * @param request the immutable request to execute
+     * @param response the response handler to manage the results
+     * @return the handle of the request
+     * @see com.github.leonardoxh.asyncokhttpclient.Request.Builder
+     */
+	public Call execute(Request request, AsyncHttpResponse response) {
+		return enqueue(mClient, request.withDefaultHeaders(mHeaders), response);
+	}
+
+    /**
+     * Add the Accept-Encoding header if the compression is enabled
+     * and queue the request on the dispatcher, the GET requests with
+     * a result on the memory cache are delivered without be queued
+     * @param client the client for execute the request
+     * @param request the request with the default headers already merged
+     * @param response the response handler to manage the results
+     * @return the handle of the request
+     */
+	private Call enqueue(OkHttpClient client, Request request, AsyncHttpResponse response) {
+		if(mCompressionEnabled && request.getHeader("Accept-Encoding") == null) {
+			request = request.newBuilder()
+					.header("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING)
+					.build();
+		}
+		AsyncHttpRequest call = new AsyncHttpRequest(client, response, request);
+		configure(call);
+		ObjectCache objectCache = mObjectCache;
+		String kind = objectCache != null && RequestMethod.GET.equals(request.getMethod())
+				? response.getObjectCacheKind() : null;
+		if(kind != null) {
+			String key = objectCache.key(request, kind);
+			ObjectCache.Entry cached = objectCache.get(key);
+			if(cached != null) {
+				if(objectCache.startRefresh(cached)) {
+					AsyncHttpRequest refresh = new AsyncHttpRequest(client, response, request);
+					configure(refresh);
+					refresh.setObjectCache(objectCache, key, true);
+					dispatch(client, refresh, response);
+				}
+				call.deliverCached(cached.mWhat, cached.mResult);
+				return call;
+			}
+			call.setObjectCache(objectCache, key, false);
+		}
+		dispatch(client, call, response);
+		return call;
+	}
+
+    /**
+     * Queue the request on the dispatcher or join it to an identical request in flight
+     * @param client the client for execute the request
+     * @param call the request to execute
+     * @param response the response handler of the request
+     */
+	private void dispatch(OkHttpClient client, AsyncHttpRequest call, AsyncHttpResponse response) {
+		if(mCoalescingEnabled && RequestMethod.GET.equals(call.getRequest().getMethod())
+				&& response.getCacheableMessage() != -1) {
+			AsyncHttpRequest shared = mSingleFlight.join(client, call);
+			if(shared != null) {
+				configure(shared);
+				mDispatcher.enqueue(shared);
+			}
+			return;
+		}
+		mDispatcher.enqueue(call);
+	}
+
+    /**
+     * Apply the cache, the policies, the listener, the metrics, the callback settings and the decode pool of this client to a request
+     * @param call the request to configure
+     */
+	private void configure(AsyncHttpRequest call) {
+		call.setCache(mCache);
+		call.setRetryPolicy(mRetryPolicy);
+		call.setHedgePolicy(mHedgePolicy);
+		call.setEventListener(mEventListener);
+		call.setMetrics(mMetrics);
+		call.setCallbackExecutor(mCallbackExecutor);
+		call.setDecodePool(mDecodePool);
+	}
+
+    /**
+     * Cancel all the queued and running requests with the given tag
+     * @param tag the tag of the requests to cancel, can't be null
+     * @see com.github.leonardoxh.asyncokhttpclient.Request.Builder#tag(Object)
+     */
+	public void cancelAll(Object tag) {
+		mDispatcher.cancelAll(tag);
+		mSingleFlight.cancelAll(tag);
+	}
+
     /**
      * Execute a GET request
      * @param url the url for execute
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void get(String url, AsyncHttpResponse response) {
-		get(url, null, response);
+	public Call get(String url, AsyncHttpResponse response) {
+		return get(url, null, response);
 	}
 
     /**
@@ -139,9 +533,10 @@ public class AsyncOkHttpClient {
      * @param url the url for execute
      * @param params the request parameters null parameters means no parameters
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void get(String url, RequestParams params, AsyncHttpResponse response) {
-		sendRequest(mClient, Util.getUrlWithQueryString(url, params), 
+	public Call get(String url, RequestParams params, AsyncHttpResponse response) {
+		return sendRequest(mClient, Util.getUrlWithQueryString(url, params), 
 				response, params, RequestMethod.GET);
 	}
 
@@ -149,9 +544,10 @@ public class AsyncOkHttpClient {
      * Execute a POST request
      * @param url the url for execute
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void post(String url, AsyncHttpResponse response) {
-		post(url, null, response);
+	public Call post(String url, AsyncHttpResponse response) {
+		return post(url, null, response);
 	}
 
     /**
@@ -159,9 +555,10 @@ public class AsyncOkHttpClient {
      * @param url the url for execute
      * @param params the request parameters null parameters means no parameters
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void post(String url, RequestParams params, AsyncHttpResponse response) {
-		sendRequest(mClient, url, response, params,
+	public Call post(String url, RequestParams params, AsyncHttpResponse response) {
+		return sendRequest(mClient, url, response, params,
 				RequestMethod.POST);
 	}
 
@@ -170,9 +567,10 @@ public class AsyncOkHttpClient {
      * @param url the url for execute
      * @param params the request parameters null parameters means no parameters
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void put(String url, RequestParams params, AsyncHttpResponse response) {
-		sendRequest(mClient, url, response, params,
+	public Call put(String url, RequestParams params, AsyncHttpResponse response) {
+		return sendRequest(mClient, url, response, params,
 				RequestMethod.PUT);
 	}
 
@@ -180,9 +578,10 @@ public class AsyncOkHttpClient {
      * Execute a PUT request
      * @param url the url for execute
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void put(String url, AsyncHttpResponse response) {
-		put(url, null, response);
+	public Call put(String url, AsyncHttpResponse response) {
+		return put(url, null, response);
 	}
 
     /**
@@ -190,9 +589,10 @@ public class AsyncOkHttpClient {
      * @param url the url for execute
      * @param params the request parameters null parameters means no parameters
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void delete(String url, RequestParams params, AsyncHttpResponse response) {
-		sendRequest(mClient, url, response, params,
+	public Call delete(String url, RequestParams params, AsyncHttpResponse response) {
+		return sendRequest(mClient, url, response, params,
 				RequestMethod.DELETE);
 	}
 
@@ -200,9 +600,10 @@ public class AsyncOkHttpClient {
      * Execute a DELETE request
      * @param url the url for execute
      * @param response the response handler to manage the results
+     * @return the handle of the request
      */
-	public void delete(String url, AsyncHttpResponse response) {
-		delete(url, null, response);
+	public Call delete(String url, AsyncHttpResponse response) {
+		return delete(url, null, response);
 	}
 	
 }
\ No newline at end of file
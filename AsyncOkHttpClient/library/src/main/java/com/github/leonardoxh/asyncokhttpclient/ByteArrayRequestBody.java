@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body backed by a byte array, the array is not copied
+ * so it must not be changed while the request is running
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class ByteArrayRequestBody extends RequestBody {
+
+    private final String mContentType;
+
+    private final byte[] mContent;
+
+    private final int mOffset;
+
+    private final int mCount;
+
+    /**
+     * Construct a new body with the whole array
+     * @param contentType the Content-Type of the body or null
+     * @param content the body content, can't be null
+     */
+    public ByteArrayRequestBody(String contentType, byte[] content) {
+        this(contentType, content, 0, content.length);
+    }
+
+    /**
+     * Construct a new body with a range of the array
+     * @param contentType the Content-Type of the body or null
+     * @param content the body content, can't be null
+     * @param offset the start of the body on the array
+     * @param count the number of bytes of the body
+     */
+    public ByteArrayRequestBody(String contentType, byte[] content, int offset, int count) {
+        if(offset < 0 || count < 0 || offset > content.length - count) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " count=" + count);
+        }
+        mContentType = contentType;
+        mContent = content;
+        mOffset = offset;
+        mCount = count;
+    }
+
+    @Override
+    public String getContentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mCount;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(mContent, mOffset, mCount);
+    }
+
+}
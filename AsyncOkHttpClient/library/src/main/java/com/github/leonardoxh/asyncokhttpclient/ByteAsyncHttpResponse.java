@@ -60,7 +60,7 @@ public class ByteAsyncHttpResponse extends AsyncHttpResponse {
 	 * @param responseBody the response body of the request or null
 	 */
 	protected void sendSuccessMessage(int statusCode, byte[] responseBody) {
-		sendMessage(obtainMessage(SUCCESS_BYTE_ARRAY, new Object[] {statusCode, responseBody}));
+		sendMessage(obtainMessage(SUCCESS_BYTE_ARRAY, new Object[] {statusCode(statusCode), responseBody}));
 	}
 	
 	/**
@@ -109,6 +109,11 @@ public class ByteAsyncHttpResponse extends AsyncHttpResponse {
 		}
 	}
 
+	@Override
+	int getCacheableMessage() {
+		return SUCCESS_BYTE_ARRAY;
+	}
+
 	@Override
 	void sendResponseMessage(HttpURLConnection connection) {
 		InputStream response = null;
@@ -116,13 +121,15 @@ public class ByteAsyncHttpResponse extends AsyncHttpResponse {
 		try {
 			int statusCode = connection.getResponseCode();
 			if(statusCode >= 300) {
-				response = connection.getErrorStream();
-				if(response != null) responseBody = Util.inputStreamToByteArray(response);
+				response = openResponseStream(connection, true);
+				if(response != null) responseBody = Util.inputStreamToByteArray(response,
+						getContentLength(connection));
 				sendFailMessage(new HttpRetryException(connection.getResponseMessage(), statusCode), 
 						responseBody);		
 			} else {
-				response = connection.getInputStream();
-				if(response != null) responseBody = Util.inputStreamToByteArray(response);
+				response = openResponseStream(connection, false);
+				if(response != null) responseBody = Util.inputStreamToByteArray(response,
+						getContentLength(connection));
 				sendSuccessMessage(statusCode, responseBody);
 			}
 		} catch(IOException e) {
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+/**
+ * Handle of a request submitted to the {@link AsyncOkHttpClient}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#cancelAll(Object)
+ */
+public interface Call {
+
+    /**
+     * Cancel this call, a queued call will never run and a running call
+     * has its connection closed, after this no more callbacks are delivered
+     */
+    void cancel();
+
+    /**
+     * @return true if {@link #cancel()} was called
+     */
+    boolean isCanceled();
+
+    /**
+     * @return true if this call has finished, with success, error or canceled
+     */
+    boolean isDone();
+
+    /**
+     * @return the immutable request of this call
+     */
+    Request getRequest();
+
+    /**
+     * @return the bytes of the response body read from the network,
+     * compressed if the response was compressed
+     */
+    long getReceivedBytes();
+
+    /**
+     * @return the bytes of the response body delivered to the response handler
+     * after the decompression, equal to {@link #getReceivedBytes()} for identity responses
+     */
+    long getDecodedBytes();
+
+}
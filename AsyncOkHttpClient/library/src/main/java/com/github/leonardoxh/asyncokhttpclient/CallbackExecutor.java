@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decide the thread where the callbacks of the responses are called, like onStart,
+ * onSuccess and onFinish. Without an executor the callbacks are called on the looper
+ * of the thread that constructed the response, or on the request thread when
+ * that thread has no looper. The callbacks of a request must be run in the
+ * order they are executed, so an executor must never run two callbacks at once
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setCallbackExecutor(CallbackExecutor)
+ * @see AsyncHttpResponse#setCallbackExecutor(CallbackExecutor)
+ */
+public abstract class CallbackExecutor {
+
+    private static final CallbackExecutor INLINE = new CallbackExecutor() {
+        @Override
+        public void execute(Runnable callback) {
+            callback.run();
+        }
+    };
+
+    private static CallbackExecutor sMainThread;
+
+    /**
+     * Run a callback
+     * @param callback the callback to run
+     */
+    public abstract void execute(Runnable callback);
+
+    /**
+     * @return the executor that call the callbacks on the main thread
+     */
+    public static synchronized CallbackExecutor mainThread() {
+        if(sMainThread == null) sMainThread = looper(Looper.getMainLooper());
+        return sMainThread;
+    }
+
+    /**
+     * @param looper the looper of the thread that must call the callbacks
+     * @return the executor that call the callbacks on the given looper
+     */
+    public static CallbackExecutor looper(Looper looper) {
+        if(looper == null) throw new NullPointerException("looper can't be null");
+        return new LooperExecutor(looper);
+    }
+
+    /**
+     * @return the executor that call the callbacks on the request thread,
+     * the callbacks never touch the main thread but they hold the request thread
+     */
+    public static CallbackExecutor inline() {
+        return INLINE;
+    }
+
+    /**
+     * @param executor the executor that must run the callbacks, the
+     * tasks must be run one at time on the order they were submitted,
+     * like {@link java.util.concurrent.Executors#newSingleThreadExecutor()}
+     * @return the executor that call the callbacks on the given executor
+     */
+    public static CallbackExecutor executor(final Executor executor) {
+        if(executor == null) throw new NullPointerException("executor can't be null");
+        return new CallbackExecutor() {
+            @Override
+            public void execute(Runnable callback) {
+                executor.execute(callback);
+            }
+        };
+    }
+
+    /**
+     * Batch the callbacks on the given executor, all the callbacks executed before the executor
+     * run the batch are called by a single task, so a burst of responses post one message on the
+     * main thread instead of one for every onStart, onSuccess and onFinish, and the result and the
+     * finish of a request always share the task. A batch longer than half a frame continue
+     * on the next task, so a burst doesn't hold the main thread for many frames
+     * @param executor the executor that must run the batches one at time, like {@link #mainThread()}
+     * @return the executor that batch the callbacks on the given executor
+     */
+    public static CallbackExecutor batched(CallbackExecutor executor) {
+        if(executor == null) throw new NullPointerException("executor can't be null");
+        return new BatchedExecutor(executor);
+    }
+
+    /** Post the callbacks on a looper */
+    private static final class LooperExecutor extends CallbackExecutor {
+
+        private final Handler mHandler;
+
+        LooperExecutor(Looper looper) {
+            mHandler = new Handler(looper);
+        }
+
+        @Override
+        public void execute(Runnable callback) {
+            mHandler.post(callback);
+        }
+
+    }
+
+    /**
+     * Queue the callbacks and run all of them on a single task of the executor,
+     * the two lists are swapped on every batch so a batch doesn't allocate
+     */
+    private static final class BatchedExecutor extends CallbackExecutor implements Runnable {
+
+        /** The max time of a batch before the rest is run by the next task, half a frame at 60fps */
+        private static final long MAX_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+        private final CallbackExecutor mExecutor;
+
+        /** The callbacks waiting the next batch */
+        private ArrayList<Runnable> mQueue = new ArrayList<Runnable>();
+
+        /** The callbacks of the running batch, used only by the executor thread */
+        private ArrayList<Runnable> mBatch = new ArrayList<Runnable>();
+
+        /** True while a batch is submitted to the executor and not yet started */
+        private boolean mScheduled;
+
+        BatchedExecutor(CallbackExecutor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public void execute(Runnable callback) {
+            synchronized(this) {
+                mQueue.add(callback);
+                if(mScheduled) return;
+                mScheduled = true;
+            }
+            mExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            ArrayList<Runnable> batch;
+            synchronized(this) {
+                batch = mQueue;
+                mQueue = mBatch;
+                mBatch = batch;
+                mScheduled = false;
+            }
+            long start = System.nanoTime();
+            int index = 0;
+            try {
+                while(index < batch.size()) {
+                    batch.get(index++).run();
+                    if(System.nanoTime() - start > MAX_BATCH_NANOS) break;
+                }
+            } finally {
+                if(index < batch.size()) requeue(batch, index);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Put the callbacks not run by the batch before the ones executed meanwhile and submit a new batch
+         * @param batch the callbacks of the batch
+         * @param index the first callback not run
+         */
+        private void requeue(ArrayList<Runnable> batch, int index) {
+            synchronized(this) {
+                mQueue.addAll(0, batch.subList(index, batch.size()));
+                if(mScheduled) return;
+                mScheduled = true;
+            }
+            mExecutor.execute(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.LatencyHistogram;
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Threads that decode the response bodies apart from the request threads, the request
+ * thread read the body from the network into memory and the pool parse it, so large
+ * parses never hold a connection and the parses never use more threads than the cores.
+ * The request threads stop to read when the bodies waiting the pool are over the max
+ * buffered bytes. Only the handlers with an expensive decode use the pool, like the
+ * {@link JsonAsyncHttpResponse} without streaming and the {@link TypedAsyncHttpResponse}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setDecodePool(DecodePool)
+ */
+public final class DecodePool {
+
+    /** The default max bytes of the bodies waiting the pool */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
+    /** The bytes read from the network between two checks of the buffered bytes */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /** The time between two checks of the cancel of a request waiting the pool */
+    private static final long WAIT_MILLIS = 100;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final long mMaxBufferedBytes;
+
+    /**
+     * Guard the buffered bytes, a lock instead of a monitor so a
+     * virtual thread waiting the pool doesn't pin its carrier thread
+     */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final Condition mReleased = mLock.newCondition();
+
+    /** The bytes of the bodies queued or being decoded */
+    private long mBufferedBytes;
+
+    /** The time the request threads waited the buffered bytes go under the max */
+    private final LatencyHistogram mBufferWait = new LatencyHistogram();
+
+    /** The time the bodies waited a thread of the pool */
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+
+    /** The time the pool spent to decode the bodies */
+    private final LatencyHistogram mDecodeTime = new LatencyHistogram();
+
+    /** Construct a pool with a thread per core and {@link #DEFAULT_MAX_BUFFERED_BYTES} */
+    public DecodePool() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    /**
+     * @param threads the number of decode threads
+     * @param maxBufferedBytes the max bytes of the bodies waiting the pool, the bodies
+     * being read are only counted when they are queued, so a larger body is still read
+     */
+    public DecodePool(int threads, long maxBufferedBytes) {
+        if(threads <= 0) throw new IllegalArgumentException("threads <= 0: " + threads);
+        if(maxBufferedBytes <= 0) throw new IllegalArgumentException("maxBufferedBytes <= 0: " + maxBufferedBytes);
+        mMaxBufferedBytes = maxBufferedBytes;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AsyncOkHttpClient Decoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the max bytes of the bodies waiting the pool
+     */
+    public long getMaxBufferedBytes() {
+        return mMaxBufferedBytes;
+    }
+
+    /**
+     * @return the bytes of the bodies queued or being decoded
+     */
+    public long getBufferedBytes() {
+        mLock.lock();
+        try {
+            return mBufferedBytes;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the time in microseconds the request threads waited to read
+     * the bodies because the pool was full, one value per body
+     */
+    public LatencyHistogram.Snapshot getBufferWait() {
+        return mBufferWait.snapshot();
+    }
+
+    /**
+     * @return the time in microseconds the bodies waited a decode thread
+     */
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return mQueueWait.snapshot();
+    }
+
+    /**
+     * @return the time in microseconds the decode threads spent on every body,
+     * including the result callbacks of the inline {@link CallbackExecutor}
+     */
+    public LatencyHistogram.Snapshot getDecodeTime() {
+        return mDecodeTime.snapshot();
+    }
+
+    /**
+     * Read the response body into memory on the request thread, the body is
+     * decompressed, counted and stored on the cache like a body read by the handler
+     * @param request the request of the response, running on the current thread
+     * @param response the handler of the response
+     * @param connection the connection with the response
+     * @return the replay of the decoded body
+     * @throws IOException if the body can't be read or the request was canceled while waiting
+     */
+    HttpURLConnection buffer(AsyncHttpRequest request, AsyncHttpResponse response,
+            HttpURLConnection connection) throws IOException {
+        int responseCode = connection.getResponseCode();
+        InputStream body = response.openResponseStream(connection, responseCode >= 300);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if(body != null) {
+            long waitNanos = 0;
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int count;
+                while((count = body.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                    waitNanos += awaitCapacity(request);
+                }
+            } finally {
+                Util.closeQuietly(body);
+                mBufferWait.record(waitNanos / 1000);
+            }
+        }
+        byte[] bytes = output.toByteArray();
+        return new ReplayHttpURLConnection(connection.getURL(), responseCode, connection.getResponseMessage(),
+                ReplayHttpURLConnection.readDecodedHeaders(connection, bytes.length),
+                new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Queue the decode of a buffered body
+     * @param request the request of the response
+     * @param replay the buffered body returned by {@link #buffer(AsyncHttpRequest, AsyncHttpResponse, HttpURLConnection)}
+     */
+    void decode(final AsyncHttpRequest request, final HttpURLConnection replay) {
+        final long bytes = replay.getContentLength();
+        final long queuedNanos = System.nanoTime();
+        mLock.lock();
+        try {
+            mBufferedBytes += bytes;
+        } finally {
+            mLock.unlock();
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                mQueueWait.record((startNanos - queuedNanos) / 1000);
+                try {
+                    request.decode(replay);
+                } finally {
+                    release(bytes);
+                    mDecodeTime.record((System.nanoTime() - startNanos) / 1000);
+                }
+            }
+        };
+        try {
+            mExecutor.execute(task);
+        } catch(RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Block the request thread while the bodies waiting the pool are over the max
+     * @param request the request reading its body
+     * @return the time waited in nanoseconds
+     * @throws InterruptedIOException if the request was canceled or the thread interrupted
+     */
+    private long awaitCapacity(AsyncHttpRequest request) throws InterruptedIOException {
+        mLock.lock();
+        try {
+            if(mBufferedBytes < mMaxBufferedBytes) return 0;
+            long startNanos = System.nanoTime();
+            while(mBufferedBytes >= mMaxBufferedBytes) {
+                if(request.isCanceled()) throw new InterruptedIOException("Canceled");
+                mReleased.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return System.nanoTime() - startNanos;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting the decode pool");
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        mLock.lock();
+        try {
+            mBufferedBytes -= bytes;
+            mReleased.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import android.os.Looper;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Control when the requests are executed, it caps the number of requests
+ * in flight globally and per host, the requests over the limits wait
+ * on a bounded queue and when the queue is full the {@link OverflowPolicy} decides
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class Dispatcher {
+
+    /** The default max number of requests in flight */
+    public static final int DEFAULT_MAX_REQUESTS = 16;
+
+    /** The default max number of requests in flight for the same host */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * The max number of requests in flight set when the virtual threads are enabled,
+     * a waiting request only holds a socket so the limit is the file limit of the process
+     * @see AsyncOkHttpClient#setVirtualThreadsEnabled(boolean)
+     */
+    public static final int DEFAULT_MAX_VIRTUAL_REQUESTS = 1024;
+
+    /** The max number of requests in flight for the same host set when the virtual threads are enabled */
+    public static final int DEFAULT_MAX_VIRTUAL_REQUESTS_PER_HOST = 256;
+
+    /** The default max number of requests waiting for execution */
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 256;
+
+    /** Time in seconds an idle thread of the default executor stays alive */
+    private static final long KEEP_ALIVE = 60;
+
+    private int mMaxRequests = DEFAULT_MAX_REQUESTS;
+
+    private int mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    private int mMaxQueuedRequests = DEFAULT_MAX_QUEUED_REQUESTS;
+
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.REJECT;
+
+    /** The executor that run the requests on a separated thread */
+    private ThreadPoolExecutor mExecutor;
+
+    /** True if the executor was created by this dispatcher */
+    private boolean mOwnsExecutor;
+
+    /** Create a thread per request instead of use the executor, or null */
+    private ThreadFactory mThreadFactory;
+
+    /** Wait the delay of the retried and hedged requests, created on the first use */
+    private ScheduledThreadPoolExecutor mTimer;
+
+    /** The thread of the timer, it never runs a request */
+    private volatile Thread mTimerThread;
+
+    /** Requests waiting for a free slot in the order they arrived */
+    private final Deque<AsyncHttpRequest> mReadyRequests = new ArrayDeque<AsyncHttpRequest>();
+
+    /** Requests that are running right now */
+    private final Set<AsyncHttpRequest> mRunningRequests = new LinkedHashSet<AsyncHttpRequest>();
+
+    /** The number of requests running per host */
+    private final Map<String, Integer> mRunningRequestsPerHost = new HashMap<String, Integer>();
+
+    /** Retried requests waiting their delay on the timer */
+    private final Set<AsyncHttpRequest> mDelayedRequests = new HashSet<AsyncHttpRequest>();
+
+    /** The failures of the requests the executor rejected, run after the lock is released */
+    private final List<Runnable> mRejectedRequests = new ArrayList<Runnable>();
+
+    /** Construct a new dispatcher with the default limits and a bounded executor */
+    public Dispatcher() {
+        mExecutor = newDefaultExecutor(mMaxRequests);
+        mOwnsExecutor = true;
+    }
+
+    /**
+     * Construct a new dispatcher that run the requests on the given executor,
+     * the executor doesn't need to be bounded the dispatcher limits still apply
+     * @param executor the executor to run the requests
+     */
+    public Dispatcher(ThreadPoolExecutor executor) {
+        mExecutor = executor;
+    }
+
+    private static ThreadPoolExecutor newDefaultExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Set the executor that run the requests
+     * @param executor the new executor, can't be null
+     */
+    public synchronized void setExecutor(ThreadPoolExecutor executor) {
+        if(executor == null) throw new NullPointerException("executor can't be null");
+        mExecutor = executor;
+        mOwnsExecutor = false;
+    }
+
+    /**
+     * @return the executor that run the requests
+     */
+    public synchronized ThreadPoolExecutor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Run every request on a new thread of the given factory instead of the executor,
+     * made for the virtual threads where a request blocked on the network doesn't hold
+     * a platform thread. The limits of requests in flight still bound the threads,
+     * the requests over the limits wait on the queue without a thread
+     * @param threadFactory the factory of the request threads or null to use the executor
+     * @see #newVirtualThreadFactory()
+     */
+    public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+        mThreadFactory = threadFactory;
+    }
+
+    /**
+     * @return the factory of the request threads or null if the requests run on the executor
+     */
+    public synchronized ThreadFactory getThreadFactory() {
+        return mThreadFactory;
+    }
+
+    /**
+     * @return true if the JVM has virtual threads, Java 21 or later
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            newVirtualThreadFactory();
+            return true;
+        } catch(UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a factory of virtual threads, it is found by reflection so
+     * the library still runs on Android and on the older JVMs
+     * @return the factory of virtual threads
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     * @see #setThreadFactory(ThreadFactory)
+     */
+    public static ThreadFactory newVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "AsyncOkHttpClient Request ", Long.valueOf(0));
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        } catch(Exception e) {
+            UnsupportedOperationException error = new UnsupportedOperationException(
+                    "Virtual threads need Java 21 or later");
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    /**
+     * Set the max number of requests in flight, if it's
+     * bigger than before the waiting requests are promoted immediately
+     * @param maxRequests the max number of requests, must be at least 1
+     */
+    public void setMaxRequests(int maxRequests) {
+        if(maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        synchronized(this) {
+            if(mOwnsExecutor) {
+                if(maxRequests > mMaxRequests) {
+                    mExecutor.setMaximumPoolSize(maxRequests);
+                    mExecutor.setCorePoolSize(maxRequests);
+                } else {
+                    mExecutor.setCorePoolSize(maxRequests);
+                    mExecutor.setMaximumPoolSize(maxRequests);
+                }
+            }
+            mMaxRequests = maxRequests;
+            promoteRequests();
+        }
+        failRejectedRequests();
+    }
+
+    /**
+     * @return the max number of requests in flight
+     */
+    public synchronized int getMaxRequests() {
+        return mMaxRequests;
+    }
+
+    /**
+     * Set the max number of requests in flight for the same host
+     * @param maxRequestsPerHost the max number of requests per host, must be at least 1
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if(maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        }
+        synchronized(this) {
+            mMaxRequestsPerHost = maxRequestsPerHost;
+            promoteRequests();
+        }
+        failRejectedRequests();
+    }
+
+    /**
+     * @return the max number of requests in flight for the same host
+     */
+    public synchronized int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    /**
+     * Set the max number of requests waiting for a free slot
+     * @param maxQueuedRequests the max size of the queue, 0 means no queue
+     */
+    public synchronized void setMaxQueuedRequests(int maxQueuedRequests) {
+        if(maxQueuedRequests < 0) {
+            throw new IllegalArgumentException("maxQueuedRequests < 0: " + maxQueuedRequests);
+        }
+        mMaxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * @return the max number of requests waiting for a free slot
+     */
+    public synchronized int getMaxQueuedRequests() {
+        return mMaxQueuedRequests;
+    }
+
+    /**
+     * Set what happens when the queue is full, {@link OverflowPolicy#REJECT} by default
+     * @param overflowPolicy the new policy, can't be null
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if(overflowPolicy == null) throw new NullPointerException("overflowPolicy can't be null");
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the policy used when the queue is full
+     */
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * @return the number of requests waiting for a free slot
+     */
+    public synchronized int getQueuedCount() {
+        return mReadyRequests.size();
+    }
+
+    /**
+     * @return the number of requests running right now
+     */
+    public synchronized int getRunningCount() {
+        return mRunningRequests.size();
+    }
+
+    /**
+     * Execute the request if there is a free slot, queue it otherwise
+     * and if the queue is full give it to the overflow policy
+     * @param request the request to execute
+     */
+    public void enqueue(AsyncHttpRequest request) {
+        OverflowPolicy overflowPolicy;
+        request.setDispatcher(this);
+        EventListener listener = request.getEventListener();
+        if(listener != null) listener.callEnqueued(request, System.nanoTime());
+        synchronized(this) {
+            if(mRunningRequests.size() < mMaxRequests
+                    && runningRequestsForHost(request) < mMaxRequestsPerHost) {
+                execute(request);
+                overflowPolicy = null;
+            } else if(mReadyRequests.size() < mMaxQueuedRequests) {
+                mReadyRequests.add(request);
+                return;
+            } else {
+                overflowPolicy = mOverflowPolicy;
+            }
+        }
+        if(overflowPolicy != null) {
+            overflowPolicy.onOverflow(request, this);
+        } else {
+            failRejectedRequests();
+        }
+    }
+
+    /**
+     * Queue the request removing the oldest queued request when the queue is full
+     * @param request the request to queue
+     * @return the request that was removed from the queue, the given one
+     * if the queue can't hold any request or null if nothing was removed
+     */
+    AsyncHttpRequest enqueueDroppingOldest(AsyncHttpRequest request) {
+        AsyncHttpRequest dropped = null;
+        synchronized(this) {
+            if(mReadyRequests.size() >= mMaxQueuedRequests) {
+                dropped = mReadyRequests.isEmpty() ? request : mReadyRequests.poll();
+            }
+            if(dropped != request) mReadyRequests.add(request);
+            promoteRequests();
+        }
+        failRejectedRequests();
+        return dropped;
+    }
+
+    /**
+     * Run the request on the current thread as a running request of this dispatcher,
+     * the looper threads, like the main thread, and the timer thread never run a request
+     * @param request the request over the limits
+     * @return false if the current thread can't run the request
+     * @see OverflowPolicy#CALLER_RUNS
+     */
+    boolean runOnCaller(AsyncHttpRequest request) {
+        if(Looper.myLooper() != null || Thread.currentThread() == mTimerThread) return false;
+        synchronized(this) {
+            addRunning(request);
+        }
+        try {
+            request.run();
+        } finally {
+            finished(request);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the request from the queue or the timer if it is still waiting
+     * @param request the request to remove
+     * @return true if the request was waiting and will never run
+     */
+    synchronized boolean remove(AsyncHttpRequest request) {
+        return mReadyRequests.remove(request) | mDelayedRequests.remove(request);
+    }
+
+    /**
+     * Cancel all the queued and running requests with the given tag
+     * @param tag the tag of the requests to cancel, can't be null
+     * @see com.github.leonardoxh.asyncokhttpclient.Request.Builder#tag(Object)
+     */
+    public void cancelAll(Object tag) {
+        List<AsyncHttpRequest> requests = new ArrayList<AsyncHttpRequest>();
+        synchronized(this) {
+            for(AsyncHttpRequest request : mReadyRequests) {
+                if(tag.equals(request.getRequest().getTag())) requests.add(request);
+            }
+            for(AsyncHttpRequest request : mRunningRequests) {
+                if(tag.equals(request.getRequest().getTag())) requests.add(request);
+            }
+            for(AsyncHttpRequest request : mDelayedRequests) {
+                if(tag.equals(request.getRequest().getTag())) requests.add(request);
+            }
+        }
+        for(AsyncHttpRequest request : requests) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Queue the request again after the given delay, the request
+     * doesn't hold a thread of the executor while it waits
+     * @param request the request to retry
+     * @param delayMillis the delay in milliseconds
+     * @return the pending retry, cancel it to drop the retry
+     */
+    Future<?> enqueueDelayed(final AsyncHttpRequest request, long delayMillis) {
+        synchronized(this) {
+            mDelayedRequests.add(request);
+        }
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(Dispatcher.this) {
+                    if(!mDelayedRequests.remove(request)) return;
+                }
+                enqueue(request);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Run the given task on the timer thread of this dispatcher after the delay,
+     * the task must be short and must not block
+     * @param task the task to run
+     * @param delayMillis the delay in milliseconds
+     * @return the pending task
+     */
+    Future<?> schedule(Runnable task, long delayMillis) {
+        ScheduledThreadPoolExecutor timer;
+        synchronized(this) {
+            if(mTimer == null) {
+                mTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AsyncOkHttpClient Timer");
+                        thread.setDaemon(true);
+                        mTimerThread = thread;
+                        return thread;
+                    }
+                });
+            }
+            timer = mTimer;
+        }
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mark the request as finished, run the next ones and queue the retry of the request
+     * @param request the finished request
+     */
+    void finished(AsyncHttpRequest request) {
+        synchronized(this) {
+            removeRunning(request);
+            promoteRequests();
+        }
+        failRejectedRequests();
+        request.scheduleRetry();
+    }
+
+    /**
+     * Fail the requests rejected by the executor, called without holding the
+     * lock because the callbacks of the requests can call this dispatcher
+     */
+    private void failRejectedRequests() {
+        Runnable[] failures;
+        synchronized(this) {
+            if(mRejectedRequests.isEmpty()) return;
+            failures = mRejectedRequests.toArray(new Runnable[mRejectedRequests.size()]);
+            mRejectedRequests.clear();
+        }
+        for(Runnable failure : failures) {
+            failure.run();
+        }
+    }
+
+    private void promoteRequests() {
+        for(Iterator<AsyncHttpRequest> it = mReadyRequests.iterator(); it.hasNext()
+                && mRunningRequests.size() < mMaxRequests; ) {
+            AsyncHttpRequest request = it.next();
+            if(runningRequestsForHost(request) < mMaxRequestsPerHost) {
+                it.remove();
+                execute(request);
+            }
+        }
+    }
+
+    private void execute(final AsyncHttpRequest request) {
+        addRunning(request);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    request.run();
+                } finally {
+                    finished(request);
+                }
+            }
+        };
+        try {
+            if(mThreadFactory == null) {
+                mExecutor.execute(task);
+            } else {
+                Thread thread = mThreadFactory.newThread(task);
+                if(thread == null) throw new RejectedExecutionException("The thread factory returned null");
+                thread.start();
+            }
+        } catch(final RejectedExecutionException e) {
+            removeRunning(request);
+            mRejectedRequests.add(new Runnable() {
+                @Override
+                public void run() {
+                    request.reject(e);
+                }
+            });
+        }
+    }
+
+    private void addRunning(AsyncHttpRequest request) {
+        if(!mRunningRequests.add(request)) return;
+        String host = request.getRequest().getUrl().getHost();
+        mRunningRequestsPerHost.put(host, Integer.valueOf(runningRequestsForHost(request) + 1));
+    }
+
+    private void removeRunning(AsyncHttpRequest request) {
+        if(!mRunningRequests.remove(request)) return;
+        String host = request.getRequest().getUrl().getHost();
+        int count = runningRequestsForHost(request) - 1;
+        if(count > 0) {
+            mRunningRequestsPerHost.put(host, Integer.valueOf(count));
+        } else {
+            mRunningRequestsPerHost.remove(host);
+        }
+    }
+
+    private int runningRequestsForHost(AsyncHttpRequest request) {
+        Integer count = mRunningRequestsPerHost.get(request.getRequest().getUrl().getHost());
+        return count == null ? 0 : count.intValue();
+    }
+
+}
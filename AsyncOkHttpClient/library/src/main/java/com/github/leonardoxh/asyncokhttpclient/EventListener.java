@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+/**
+ * Listen the phases of the requests to measure where the time is spent,
+ * every event receive the {@link System#nanoTime()} it happened.
+ * An attempt of a request starts with {@link #callStart(Call, long)} and ends with
+ * {@link #callEnd(Call, long)} or {@link #callFailed(Call, Throwable, long)}, retried requests
+ * have one attempt per retry. The events are called on the request threads, except the callback
+ * events that are called on the callback thread, so the listeners must be thread safe and fast.
+ * The responses delivered from the memory cache have only the call and callback events and
+ * the responses shared by coalesced requests have no connection events. All the methods do nothing by default
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setEventListener(EventListener)
+ */
+public abstract class EventListener {
+
+    /**
+     * The request was queued on the dispatcher
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void callEnqueued(Call call, long nanoTime) { }
+
+    /**
+     * A thread started to execute the request, the time since
+     * {@link #callEnqueued(Call, long)} is the time waiting on the queue
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void callStart(Call call, long nanoTime) { }
+
+    /**
+     * The host name resolution started, it is only measured when the client has no proxy
+     * @param call the request
+     * @param host the host to resolve
+     * @param nanoTime the time of the event
+     */
+    public void dnsStart(Call call, String host, long nanoTime) { }
+
+    /**
+     * The host name resolution finished
+     * @param call the request
+     * @param host the resolved host
+     * @param nanoTime the time of the event
+     */
+    public void dnsEnd(Call call, String host, long nanoTime) { }
+
+    /**
+     * The connection started, or a pooled connection is being reused
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void connectStart(Call call, long nanoTime) { }
+
+    /**
+     * The connection is ready to send the request
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void connectEnd(Call call, long nanoTime) { }
+
+    /**
+     * The request body started to be written
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void requestBodyStart(Call call, long nanoTime) { }
+
+    /**
+     * The request body was written
+     * @param call the request
+     * @param bytesSent the bytes of the request body
+     * @param nanoTime the time of the event
+     */
+    public void requestBodyEnd(Call call, long bytesSent, long nanoTime) { }
+
+    /**
+     * The request was sent and the response is being waited
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void responseHeadersStart(Call call, long nanoTime) { }
+
+    /**
+     * The response headers were received, the time since
+     * {@link #responseHeadersStart(Call, long)} is the time to the first byte
+     * @param call the request
+     * @param responseCode the response code
+     * @param nanoTime the time of the event
+     */
+    public void responseHeadersEnd(Call call, int responseCode, long nanoTime) { }
+
+    /**
+     * The handler started to read the response body
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void responseBodyStart(Call call, long nanoTime) { }
+
+    /**
+     * The response body was read until the end or closed
+     * @param call the request
+     * @param bytesReceived the bytes received from the network, before the decompression
+     * @param nanoTime the time of the event
+     */
+    public void responseBodyEnd(Call call, long bytesReceived, long nanoTime) { }
+
+    /**
+     * The handler decoded the result and posted it to the handler thread, the time since
+     * {@link #responseBodyEnd(Call, long, long)} is the time spent to parse the response
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void parseEnd(Call call, long nanoTime) { }
+
+    /**
+     * The result callback, like onSuccess or onError, started on the callback thread,
+     * the time since {@link #parseEnd(Call, long)} is the time waiting on the callback queue
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void callbackStart(Call call, long nanoTime) { }
+
+    /**
+     * The result callback returned
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void callbackEnd(Call call, long nanoTime) { }
+
+    /**
+     * The attempt finished, the response was delivered to the handler or the request is retried
+     * @param call the request
+     * @param nanoTime the time of the event
+     */
+    public void callEnd(Call call, long nanoTime) { }
+
+    /**
+     * The attempt failed before receive a response
+     * @param call the request
+     * @param error the failure
+     * @param nanoTime the time of the event
+     */
+    public void callFailed(Call call, Throwable error, long nanoTime) { }
+
+}
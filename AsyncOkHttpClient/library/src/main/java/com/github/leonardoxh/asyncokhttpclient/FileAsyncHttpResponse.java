@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import android.os.Message;
+
+/**
+ * Handle the HttpURLConnection response writing the body directly on a file,
+ * the body is transferred to a temporary file with a FileChannel
+ * and renamed to the final file only when the download is complete,
+ * so the final file is never seen half written
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see #onSuccess(int, java.io.File)
+ * @see #setResume(boolean)
+ */
+public class FileAsyncHttpResponse extends AsyncHttpResponse {
+
+	/** Indicate the response was written on the file */
+	protected static final int SUCCESS_FILE = 10;
+
+	/** The suffix of the temporary file */
+	private static final String TEMP_SUFFIX = ".part";
+
+	/** Max bytes transferred on each FileChannel call */
+	private static final long TRANSFER_SIZE = 1024 * 64;
+
+	/** The status code of a partial content response */
+	private static final int HTTP_PARTIAL = 206;
+
+	/** The final file */
+	private final File mFile;
+
+	/** The file that receive the body while it is downloaded */
+	private final File mTempFile;
+
+	/** Resume from the temporary file of a previous download */
+	private volatile boolean mResume;
+
+	/** The expected size of the file or -1 to use the response headers */
+	private volatile long mExpectedSize = -1;
+
+	/**
+	 * Construct a new instance of FileAsyncHttpResponse
+	 * @param file the file to write the response body, can't be null
+	 */
+	public FileAsyncHttpResponse(File file) {
+		if(file == null) throw new NullPointerException("file can't be null");
+		mFile = file;
+		mTempFile = new File(file.getPath() + TEMP_SUFFIX);
+	}
+
+	/**
+	 * @return the file that receive the response body
+	 */
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Resume a previous download, if the temporary file of a previous
+	 * download exists only the missing bytes are requested with a Range header.
+	 * When enabled the temporary file is kept on errors so it can be resumed later
+	 * @param resume true to resume the previous downloads
+	 */
+	public void setResume(boolean resume) {
+		mResume = resume;
+	}
+
+	/**
+	 * Set the expected size of the file, the download fails if the
+	 * size of the file doesn't match. By default the Content-Length
+	 * and Content-Range headers are used when present
+	 * @param expectedSize the size of the file in bytes or -1 to use the headers
+	 */
+	public void setExpectedSize(long expectedSize) {
+		mExpectedSize = expectedSize;
+	}
+
+	/**
+	 * Callback that indicate the response body was written on the file
+	 * @param statusCode the status code of this request
+	 * @param file the complete file
+	 */
+	public void onSuccess(int statusCode, File file) { }
+
+	/**
+	 * Handle the success message and call the callback
+	 * @param statusCode the status code of the request
+	 * @param file the complete file
+	 * @see #onSuccess(int, java.io.File)
+	 */
+	protected void handleSuccessFileMessage(int statusCode, File file) {
+		onSuccess(statusCode, file);
+	}
+
+	@Override
+	public boolean handleMessage(Message message) {
+		switch(message.what) {
+			case SUCCESS_FILE:
+				Object[] successResponse = (Object[])message.obj;
+				handleSuccessFileMessage(((Integer)successResponse[0]).intValue(), (File)successResponse[1]);
+				return true;
+			default:
+				return super.handleMessage(message);
+		}
+	}
+
+	@Override
+	int getCacheableMessage() {
+		return -1;
+	}
+
+	@Override
+	void prepareConnection(HttpURLConnection connection) {
+		connection.setRequestProperty("Accept-Encoding", "identity");
+		if(mResume && mTempFile.length() > 0) {
+			connection.setRequestProperty("Range", "bytes=" + mTempFile.length() + "-");
+		}
+	}
+
+	@Override
+	void sendResponseMessage(HttpURLConnection connection) {
+		InputStream response = null;
+		try {
+			int statusCode = connection.getResponseCode();
+			if(statusCode >= 300) {
+				super.sendResponseMessage(connection);
+				return;
+			}
+			long position = 0;
+			long expectedSize = mExpectedSize;
+			if(statusCode == HTTP_PARTIAL) {
+				String contentRange = connection.getHeaderField("Content-Range");
+				position = parseRangeStart(contentRange);
+				if(position != mTempFile.length()) {
+					throw new IOException("Unexpected Content-Range " + contentRange);
+				}
+				if(expectedSize < 0) expectedSize = parseRangeSize(contentRange);
+			} else if(expectedSize < 0) {
+				expectedSize = getContentLength(connection);
+			}
+			response = openResponseStream(connection, false);
+			transfer(response, position);
+			if(expectedSize >= 0 && mTempFile.length() != expectedSize) {
+				throw new IOException("Expected " + expectedSize + " bytes but received " + mTempFile.length());
+			}
+			if(!mTempFile.renameTo(mFile) && (!mFile.delete() || !mTempFile.renameTo(mFile))) {
+				throw new IOException("Can't rename " + mTempFile + " to " + mFile);
+			}
+			sendMessage(obtainMessage(SUCCESS_FILE, new Object[] {statusCode(statusCode), mFile}));
+		} catch(IOException e) {
+			if(!mResume) mTempFile.delete();
+			sendFailMessage(e, (String)null);
+		} finally {
+			if(response != null) Util.closeQuietly(response);
+		}
+	}
+
+	/**
+	 * Transfer the body to the temporary file starting at the given position,
+	 * everything after the position is discarded
+	 * @param body the response body
+	 * @param position the position on the file to start writing
+	 * @throws IOException if the body can't be read or the file can't be written
+	 */
+	private void transfer(InputStream body, long position) throws IOException {
+		RandomAccessFile output = new RandomAccessFile(mTempFile, "rw");
+		try {
+			FileChannel channel = output.getChannel();
+			channel.truncate(position);
+			ReadableByteChannel source = Channels.newChannel(body);
+			long transferred;
+			while((transferred = channel.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+				position += transferred;
+			}
+		} finally {
+			Util.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * @param contentRange a header like bytes 100-199/200
+	 * @return the first byte of the range
+	 * @throws IOException if the header is invalid
+	 */
+	private static long parseRangeStart(String contentRange) throws IOException {
+		if(contentRange != null) {
+			int start = contentRange.indexOf(' ') + 1;
+			int end = contentRange.indexOf('-', start);
+			if(end != -1) {
+				long result = parseLong(contentRange.substring(start, end));
+				if(result >= 0) return result;
+			}
+		}
+		throw new IOException("Invalid Content-Range " + contentRange);
+	}
+
+	/**
+	 * @param contentRange a header like bytes 100-199/200
+	 * @return the complete size of the resource or -1 if unknown
+	 */
+	private static long parseRangeSize(String contentRange) {
+		int slash = contentRange.indexOf('/');
+		return slash == -1 ? -1 : parseLong(contentRange.substring(slash + 1));
+	}
+
+	private static long parseLong(String value) {
+		if(value == null) return -1;
+		try {
+			return Long.parseLong(value.trim());
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
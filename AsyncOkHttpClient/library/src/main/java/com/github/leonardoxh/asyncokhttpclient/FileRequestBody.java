@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Request body that stream a file from the disk with a FileChannel,
+ * the file is never loaded on memory so any size can be uploaded
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class FileRequestBody extends RequestBody {
+
+    /** Max bytes transferred by each call to the channel */
+    private static final long TRANSFER_SIZE = 1024 * 64;
+
+    private final String mContentType;
+
+    private final File mFile;
+
+    /**
+     * Construct a new file body
+     * @param contentType the Content-Type of the body or null
+     * @param file the file to upload, can't be null
+     */
+    public FileRequestBody(String contentType, File file) {
+        if(file == null) throw new NullPointerException("file can't be null");
+        mContentType = contentType;
+        mFile = file;
+    }
+
+    /**
+     * @return the file of this body
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public String getContentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mFile.length();
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        FileInputStream input = new FileInputStream(mFile);
+        try {
+            FileChannel channel = input.getChannel();
+            WritableByteChannel target = Channels.newChannel(output);
+            long position = 0;
+            long size = channel.size();
+            while(position < size) {
+                long transferred = channel.transferTo(position, Math.min(TRANSFER_SIZE, size - position), target);
+                if(transferred <= 0) break;
+                position += transferred;
+            }
+            if(position != size) throw new IOException("File " + mFile + " changed while uploading");
+        } finally {
+            Util.closeQuietly(input);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The race between a request and its hedged request, the first
+ * attempt with a response wins and the other is canceled without callbacks.
+ * A failed attempt is silently dropped while the other attempt is running
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see HedgePolicy
+ */
+final class Hedge implements Runnable {
+
+    private final AsyncHttpRequest mPrimary;
+
+    private final HedgePolicy mPolicy;
+
+    private final Dispatcher mDispatcher;
+
+    private AsyncHttpRequest mSecondary;
+
+    private AsyncHttpRequest mWinner;
+
+    /** The attempts running, the hedged request is sent only while the primary is running */
+    private int mRunning = 1;
+
+    /** The pending hedged request */
+    private Future<?> mTimer;
+
+    /** The time the primary request started */
+    private final long mStartNanos = System.nanoTime();
+
+    /** True if the primary request failed, its latency is unknown */
+    private boolean mPrimaryFailed;
+
+    /**
+     * @param primary the request to hedge
+     * @param policy the policy that caps the hedged requests
+     * @param dispatcher the dispatcher that execute the requests
+     */
+    Hedge(AsyncHttpRequest primary, HedgePolicy policy, Dispatcher dispatcher) {
+        mPrimary = primary;
+        mPolicy = policy;
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Send the hedged request after the delay of the policy
+     * if the primary request has no response yet
+     */
+    void schedule() {
+        Future<?> timer = mDispatcher.schedule(this, mPolicy.onRequest());
+        synchronized(this) {
+            mTimer = timer;
+        }
+    }
+
+    /** Send the hedged request, called by the timer */
+    @Override
+    public void run() {
+        AsyncHttpRequest secondary;
+        synchronized(this) {
+            if(mWinner != null || mRunning == 0 || mPrimary.isCanceled() || !mPolicy.tryHedge()) return;
+            secondary = mPrimary.newHedgedRequest(this);
+            mSecondary = secondary;
+            mRunning++;
+        }
+        mDispatcher.enqueue(secondary);
+    }
+
+    /**
+     * Called by an attempt when it receive its response
+     * @param attempt the request with a response
+     * @param latencyMillis the time the attempt waited the response or -1 if it was not sent
+     * @return true if the attempt won and must deliver the response, false if it lost
+     */
+    boolean win(AsyncHttpRequest attempt, long latencyMillis) {
+        AsyncHttpRequest loser;
+        Future<?> timer;
+        boolean primaryCut;
+        synchronized(this) {
+            if(mWinner != null) return mWinner == attempt;
+            mWinner = attempt;
+            loser = attempt == mPrimary ? mSecondary : mPrimary;
+            timer = mTimer;
+            primaryCut = attempt != mPrimary && !mPrimaryFailed;
+        }
+        if(timer != null) timer.cancel(false);
+        if(loser != null) loser.lose();
+        if(latencyMillis >= 0) mPolicy.recordLatency(latencyMillis);
+        /*
+         * The slow primary never get its response, record the time it waited so far or
+         * the policy would only see the fast responses and hedge more and more requests
+         */
+        if(primaryCut) mPolicy.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos));
+        return true;
+    }
+
+    /**
+     * Called by an attempt when it failed
+     * @param attempt the failed request
+     * @return true if the failure must be delivered, false if the other attempt is still running
+     */
+    synchronized boolean fail(AsyncHttpRequest attempt) {
+        if(attempt == mPrimary) mPrimaryFailed = true;
+        mRunning--;
+        return mWinner != null || mRunning == 0;
+    }
+
+    /** Cancel the pending and the running hedged request */
+    void cancel() {
+        AsyncHttpRequest secondary;
+        Future<?> timer;
+        synchronized(this) {
+            secondary = mSecondary;
+            timer = mTimer;
+        }
+        if(timer != null) timer.cancel(false);
+        if(secondary != null) secondary.cancel();
+    }
+
+    /**
+     * @return the hedged request or null if it was not sent
+     */
+    synchronized AsyncHttpRequest getSecondary() {
+        return mSecondary;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decide when a slow request is sent again, the hedged request race with the
+ * original one, the first response wins and the other request is canceled.
+ * The delay is fixed or a percentile of the latency of the last responses, the
+ * number of hedged requests is capped to a ratio of the requests, 10% by default.
+ * Only the GET requests are hedged, subclasses can change the hedged requests
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setHedgePolicy(HedgePolicy)
+ */
+public class HedgePolicy {
+
+    /** The default max ratio of hedged requests */
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+    /** The number of latencies used for the percentile */
+    private static final int LATENCY_SAMPLES = 128;
+
+    /** The percentile delay is the max delay until this number of latencies */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /** The hedged requests that can be sent in a burst */
+    private static final double MAX_TOKENS = 10;
+
+    private final double mPercentile;
+
+    private final long mMinDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+
+    private int mLatencyCount;
+
+    /** The percentile of the latencies, -1 if it must be computed again */
+    private long mPercentileDelay = -1;
+
+    private double mMaxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+
+    private double mTokens = 1;
+
+    private long mRequestCount;
+
+    private long mHedgeCount;
+
+    /**
+     * Construct a policy that hedge the requests after a fixed delay
+     * @param delay the time without response before send the hedged request
+     * @param unit the unit of the delay
+     */
+    public HedgePolicy(long delay, TimeUnit unit) {
+        if(delay < 0) throw new IllegalArgumentException("delay < 0: " + delay);
+        mPercentile = -1;
+        mMinDelayMillis = unit.toMillis(delay);
+        mMaxDelayMillis = mMinDelayMillis;
+    }
+
+    /**
+     * Construct a policy that hedge the requests slower than
+     * the given percentile of the latency of the last responses
+     * @param percentile the percentile between 0 and 100, like 95
+     * @param minDelay the min time without response before send the hedged request
+     * @param maxDelay the max time without response before send the hedged request,
+     * used until there are enough latencies
+     * @param unit the unit of the delays
+     */
+    public HedgePolicy(double percentile, long minDelay, long maxDelay, TimeUnit unit) {
+        if(percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        if(minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("invalid delay: " + minDelay + ", " + maxDelay);
+        }
+        mPercentile = percentile;
+        mMinDelayMillis = unit.toMillis(minDelay);
+        mMaxDelayMillis = unit.toMillis(maxDelay);
+    }
+
+    /**
+     * Set the max ratio of hedged requests, every request give
+     * this ratio of a hedged request so the extra load is capped
+     * @param ratio the ratio between 0 and 1, 0 disable the hedged requests
+     */
+    public synchronized void setMaxHedgeRatio(double ratio) {
+        if(ratio < 0 || ratio > 1) throw new IllegalArgumentException("ratio must be between 0 and 1: " + ratio);
+        mMaxHedgeRatio = ratio;
+    }
+
+    /**
+     * @return the number of requests that could be hedged
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return the number of hedged requests sent
+     */
+    public synchronized long getHedgeCount() {
+        return mHedgeCount;
+    }
+
+    /**
+     * @param request the request to execute
+     * @return true if the request can be sent twice without side effects
+     */
+    protected boolean isHedgeable(Request request) {
+        return RequestMethod.GET.equals(request.getMethod());
+    }
+
+    /**
+     * Called when a hedgeable request is sent
+     * @return the delay in milliseconds before send the hedged request
+     */
+    synchronized long onRequest() {
+        mRequestCount++;
+        mTokens = Math.min(MAX_TOKENS, mTokens + mMaxHedgeRatio);
+        if(mPercentile < 0) return mMinDelayMillis;
+        if(mLatencyCount < MIN_LATENCY_SAMPLES) return mMaxDelayMillis;
+        if(mPercentileDelay < 0) {
+            int count = Math.min(mLatencyCount, LATENCY_SAMPLES);
+            long[] latencies = new long[count];
+            System.arraycopy(mLatencies, 0, latencies, 0, count);
+            Arrays.sort(latencies);
+            long latency = latencies[Math.max(0, (int)Math.ceil(mPercentile / 100 * count) - 1)];
+            mPercentileDelay = Math.max(mMinDelayMillis, Math.min(mMaxDelayMillis, latency));
+        }
+        return mPercentileDelay;
+    }
+
+    /**
+     * Take the permission to send a hedged request
+     * @return false if the hedged requests are over the max ratio
+     */
+    synchronized boolean tryHedge() {
+        if(mMaxHedgeRatio == 0 || mTokens < 1) return false;
+        mTokens--;
+        mHedgeCount++;
+        return true;
+    }
+
+    /**
+     * Record the time a request waited its response
+     * @param latencyMillis the time between send the request and receive the response
+     */
+    synchronized void recordLatency(long latencyMillis) {
+        if(mPercentile < 0) return;
+        mLatencies[mLatencyCount++ % LATENCY_SAMPLES] = latencyMillis;
+        if(mLatencyCount == 2 * LATENCY_SAMPLES) mLatencyCount = LATENCY_SAMPLES;
+        if(mLatencyCount % 16 == 0) mPercentileDelay = -1;
+    }
+
+}
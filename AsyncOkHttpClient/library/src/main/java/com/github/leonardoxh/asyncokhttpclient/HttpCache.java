@@ -0,0 +1,684 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.DiskLruCache;
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of the GET responses following the HTTP caching headers.
+ * Fresh responses are served without network, stale responses with
+ * ETag or Last-Modified are revalidated with a conditional request and a
+ * 304 Not Modified is delivered from the cache like a normal success.
+ * The entries are kept on a journaled {@link DiskLruCache} so a crash
+ * never leaves a partial response on the cache
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setCache(HttpCache)
+ */
+public final class HttpCache {
+
+    private static final int ENTRY_VERSION = 1;
+
+    /** Max bytes read to complete a response the handler didn't read until the end */
+    private static final int MAX_DRAIN_BYTES = 1024 * 64;
+
+    /** The part of the Last-Modified age used as freshness when the response has no expiration */
+    private static final int HEURISTIC_FRESHNESS_DIVISOR = 10;
+
+    private static final ThreadLocal<DateFormat> sDateFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private final DiskLruCache mCache;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final AtomicLong mRevalidationCount = new AtomicLong();
+
+    /**
+     * Open the cache on the given directory
+     * @param directory a directory used only by this cache
+     * @param maxSize the max bytes used by the cache
+     * @throws IOException if the directory can't be read or written
+     */
+    public HttpCache(File directory, long maxSize) throws IOException {
+        mCache = DiskLruCache.open(directory, maxSize);
+    }
+
+    /**
+     * @return the responses delivered from the cache, fresh or revalidated with a 304
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the GET responses delivered from the network
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return the conditional requests sent to revalidate a stale response
+     */
+    public long getRevalidationCount() {
+        return mRevalidationCount.get();
+    }
+
+    /**
+     * @return the bytes used by the cache
+     */
+    public long getSize() {
+        return mCache.size();
+    }
+
+    /**
+     * @return the max bytes used by the cache
+     */
+    public long getMaxSize() {
+        return mCache.getMaxSize();
+    }
+
+    /**
+     * Remove all the responses of the cache
+     * @throws IOException if the cache journal can't be written
+     */
+    public void evictAll() throws IOException {
+        mCache.evictAll();
+    }
+
+    /**
+     * Close the cache, it can't be used after this
+     * @throws IOException if the cache journal can't be closed
+     */
+    public void close() throws IOException {
+        mCache.close();
+    }
+
+    /**
+     * Find the cached response of the given request
+     * @param request the request to execute
+     * @return the cached response, it must be closed, or null if the request was not cached
+     */
+    Entry get(Request request) {
+        if(!RequestMethod.GET.equals(request.getMethod())) return null;
+        if(hasDirective(request.getHeader("Cache-Control"), "no-store")) return null;
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = mCache.get(key(request.getUrl()));
+            if(snapshot == null) return null;
+            Entry entry = Entry.read(snapshot);
+            if(entry != null && entry.matches(request)) return entry;
+        } catch(IOException ignored) {
+        } catch(IllegalStateException ignored) { }
+        if(snapshot != null) snapshot.close();
+        return null;
+    }
+
+    /**
+     * Open the cached response if it can be served without network
+     * @param entry the cached response
+     * @param request the request to execute
+     * @return the cached response or null if it must be revalidated
+     */
+    HttpURLConnection openIfFresh(Entry entry, Request request) {
+        if(!entry.isFresh(request, System.currentTimeMillis())) return null;
+        HttpURLConnection connection = entry.open(request.getUrl(), entry.mResponseHeaders);
+        if(connection != null) mHitCount.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Add the validators of the cached response to the request
+     * @param entry the stale cached response
+     * @param connection the connection not yet connected
+     */
+    void addConditions(Entry entry, HttpURLConnection connection) {
+        String etag = entry.getHeader("ETag");
+        String lastModified = entry.getHeader("Last-Modified");
+        if(etag == null && lastModified == null) return;
+        if(etag != null) connection.setRequestProperty("If-None-Match", etag);
+        if(lastModified != null) connection.setRequestProperty("If-Modified-Since", lastModified);
+        mRevalidationCount.incrementAndGet();
+    }
+
+    /**
+     * Update the cached response with the headers of a 304 Not Modified response
+     * @param entry the cached response
+     * @param request the request executed
+     * @param notModified the 304 response
+     * @param sentMillis the time the request was sent
+     * @return the cached response updated or null if it is not on the cache anymore
+     */
+    HttpURLConnection update(Entry entry, Request request, HttpURLConnection notModified, long sentMillis) {
+        String[] headers = mergeHeaders(entry.mResponseHeaders, notModified);
+        InputStream discarded = openQuietly(notModified);
+        if(discarded != null) Util.closeQuietly(discarded);
+        HttpURLConnection connection = entry.open(request.getUrl(), headers);
+        if(connection == null) return null;
+        mHitCount.incrementAndGet();
+        Entry updated = new Entry(entry.mUrl, entry.mVaryHeaders, entry.mResponseCode, entry.mResponseMessage,
+                headers, sentMillis, System.currentTimeMillis());
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = mCache.edit(key(request.getUrl()));
+            if(editor != null) {
+                updated.write(editor.getMetadataFile());
+                editor.commit();
+            }
+        } catch(IOException e) {
+            abortQuietly(editor);
+        }
+        return connection;
+    }
+
+    /**
+     * Start to store the response of the network if it can be cached
+     * @param request the request executed
+     * @param connection the network response
+     * @param sentMillis the time the request was sent
+     * @return the writer that store the body while it is read or null if the response is not cached
+     * @throws IOException if the response can't be read
+     */
+    BodyWriter put(Request request, HttpURLConnection connection, long sentMillis) throws IOException {
+        if(!RequestMethod.GET.equals(request.getMethod())) return null;
+        mMissCount.incrementAndGet();
+        String key = key(request.getUrl());
+        if(!isCacheable(request, connection)) {
+            try {
+                mCache.remove(key);
+            } catch(IOException ignored) { }
+            return null;
+        }
+        String[] responseHeaders = ReplayHttpURLConnection.readHeaders(connection);
+        Entry entry = new Entry(request.getUrl().toString(), varyHeaders(request, connection.getHeaderField("Vary")),
+                connection.getResponseCode(), connection.getResponseMessage(), responseHeaders,
+                sentMillis, System.currentTimeMillis());
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = mCache.edit(key);
+            if(editor == null) return null;
+            entry.write(editor.getMetadataFile());
+            return new BodyWriter(editor);
+        } catch(IOException e) {
+            abortQuietly(editor);
+            return null;
+        }
+    }
+
+    private static boolean isCacheable(Request request, HttpURLConnection connection) throws IOException {
+        if(connection.getResponseCode() != HttpURLConnection.HTTP_OK) return false;
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if(hasDirective(cacheControl, "no-store") || hasDirective(request.getHeader("Cache-Control"), "no-store")) {
+            return false;
+        }
+        if("*".equals(trim(connection.getHeaderField("Vary")))) return false;
+        if(request.getHeader("Authorization") != null && !hasDirective(cacheControl, "public")
+                && !hasDirective(cacheControl, "must-revalidate") && parseSeconds(cacheControl, "s-maxage") < 0) {
+            return false;
+        }
+        return connection.getHeaderField("ETag") != null || connection.getHeaderField("Last-Modified") != null
+                || parseSeconds(cacheControl, "max-age") >= 0 || connection.getHeaderField("Expires") != null;
+    }
+
+    /** The headers of the cached response with the end to end headers of the 304 replaced */
+    private static String[] mergeHeaders(String[] cached, HttpURLConnection notModified) {
+        String[] network = ReplayHttpURLConnection.readHeaders(notModified);
+        List<String> result = new ArrayList<String>();
+        for(int i = 0; i < cached.length; i += 2) {
+            if(isEndToEnd(cached[i]) && indexOf(network, cached[i]) != -1) continue;
+            result.add(cached[i]);
+            result.add(cached[i + 1]);
+        }
+        for(int i = 0; i < network.length; i += 2) {
+            if(!isEndToEnd(network[i])) continue;
+            result.add(network[i]);
+            result.add(network[i + 1]);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static boolean isEndToEnd(String name) {
+        return !"Connection".equalsIgnoreCase(name) && !"Keep-Alive".equalsIgnoreCase(name)
+                && !"Transfer-Encoding".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name)
+                && !"Content-Encoding".equalsIgnoreCase(name) && !"Upgrade".equalsIgnoreCase(name)
+                && !name.startsWith("X-Android-") && !name.startsWith("OkHttp-");
+    }
+
+    private static int indexOf(String[] headers, String name) {
+        for(int i = 0; i < headers.length; i += 2) {
+            if(name.equalsIgnoreCase(headers[i])) return i;
+        }
+        return -1;
+    }
+
+    /** The request headers named by the Vary header of the response as name/value pairs */
+    private static String[] varyHeaders(Request request, String vary) {
+        if(vary == null) return new String[0];
+        List<String> result = new ArrayList<String>();
+        for(String name : vary.split(",")) {
+            name = name.trim();
+            if(name.length() == 0) continue;
+            result.add(name);
+            String value = request.getHeader(name);
+            result.add(value == null ? "" : value);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static InputStream openQuietly(HttpURLConnection connection) {
+        try {
+            return connection.getInputStream();
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private static void abortQuietly(DiskLruCache.Editor editor) {
+        if(editor == null) return;
+        try {
+            editor.abort();
+        } catch(IOException ignored) { }
+    }
+
+    /** The key of an URL on the disk cache, the hex MD5 of the URL */
+    private static String key(URL url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.toString().getBytes(Util.DEFAULT_CHARSET));
+            char[] result = new char[digest.length * 2];
+            for(int i = 0; i < digest.length; i++) {
+                result[i * 2] = Character.forDigit((digest[i] >> 4) & 0x0f, 16);
+                result[i * 2 + 1] = Character.forDigit(digest[i] & 0x0f, 16);
+            }
+            return new String(result);
+        } catch(NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    /** Return true if the Cache-Control value has the given directive */
+    static boolean hasDirective(String cacheControl, String directive) {
+        if(cacheControl == null) return false;
+        for(String part : cacheControl.split(",")) {
+            String name = part.trim();
+            int equals = name.indexOf('=');
+            if(equals != -1) name = name.substring(0, equals).trim();
+            if(name.equalsIgnoreCase(directive)) return true;
+        }
+        return false;
+    }
+
+    /** Return the seconds of the given Cache-Control directive or -1 if it is not present */
+    static long parseSeconds(String cacheControl, String directive) {
+        if(cacheControl == null) return -1;
+        for(String part : cacheControl.split(",")) {
+            int equals = part.indexOf('=');
+            if(equals == -1 || !part.substring(0, equals).trim().equalsIgnoreCase(directive)) continue;
+            String value = part.substring(equals + 1).trim();
+            if(value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+                value = value.substring(1, value.length() - 1);
+            }
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch(NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Parse a HTTP date or return -1 if it is not a valid date */
+    static long parseDate(String value) {
+        if(value == null) return -1;
+        try {
+            return sDateFormat.get().parse(value.trim()).getTime();
+        } catch(ParseException e) {
+            return -1;
+        }
+    }
+
+    /** Store the body of a response while it is read by the response handler */
+    final class BodyWriter {
+
+        private final DiskLruCache.Editor mEditor;
+
+        BodyWriter(DiskLruCache.Editor editor) {
+            mEditor = editor;
+        }
+
+        /**
+         * Wrap the response body to write it on the cache,
+         * the response is committed when the body is read until the end
+         * @param body the raw response body
+         * @return the stream that must be read by the handler
+         */
+        InputStream wrap(InputStream body) {
+            try {
+                OutputStream output = new BufferedOutputStream(new FileOutputStream(mEditor.getDataFile()));
+                return new TeeInputStream(body, output);
+            } catch(FileNotFoundException e) {
+                abort();
+                return body;
+            }
+        }
+
+        /** Discard the response, used when the body was never read */
+        void abort() {
+            abortQuietly(mEditor);
+        }
+
+        /** Copy the body read by the handler to the cache file */
+        private final class TeeInputStream extends FilterInputStream {
+
+            private OutputStream mOutput;
+
+            TeeInputStream(InputStream source, OutputStream output) {
+                super(source);
+                mOutput = output;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int result = super.read();
+                if(result == -1) {
+                    complete(true);
+                } else if(mOutput != null) {
+                    try {
+                        mOutput.write(result);
+                    } catch(IOException e) {
+                        complete(false);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int result;
+                try {
+                    result = super.read(buffer, offset, count);
+                } catch(IOException e) {
+                    complete(false);
+                    throw e;
+                }
+                if(result == -1) {
+                    complete(true);
+                } else if(mOutput != null) {
+                    try {
+                        mOutput.write(buffer, offset, result);
+                    } catch(IOException e) {
+                        complete(false);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                byte[] buffer = new byte[(int)Math.min(count, 1024 * 4)];
+                int result = read(buffer, 0, buffer.length);
+                return result == -1 ? 0 : result;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(mOutput != null) drain();
+                complete(false);
+                super.close();
+            }
+
+            /** Read the rest of a body the handler didn't consume, if it is small */
+            private void drain() {
+                byte[] buffer = new byte[1024 * 4];
+                int drained = 0;
+                try {
+                    while(mOutput != null && drained < MAX_DRAIN_BYTES) {
+                        int result = read(buffer, 0, buffer.length);
+                        if(result == -1) return;
+                        drained += result;
+                    }
+                } catch(IOException ignored) { }
+            }
+
+            private void complete(boolean success) {
+                OutputStream output = mOutput;
+                if(output == null) return;
+                mOutput = null;
+                try {
+                    output.close();
+                } catch(IOException e) {
+                    success = false;
+                }
+                if(success) {
+                    try {
+                        mEditor.commit();
+                    } catch(IOException e) {
+                        abort();
+                    }
+                } else {
+                    abort();
+                }
+            }
+
+        }
+
+    }
+
+    /** The metadata of a cached response */
+    static final class Entry {
+
+        final String mUrl;
+
+        /** The request headers selected by the Vary header as name/value pairs */
+        final String[] mVaryHeaders;
+
+        final int mResponseCode;
+
+        final String mResponseMessage;
+
+        final String[] mResponseHeaders;
+
+        final long mSentMillis;
+
+        final long mReceivedMillis;
+
+        /** The opened body of a read entry, until it is replayed or closed */
+        private InputStream mBody;
+
+        Entry(String url, String[] varyHeaders, int responseCode, String responseMessage,
+                String[] responseHeaders, long sentMillis, long receivedMillis) {
+            mUrl = url;
+            mVaryHeaders = varyHeaders;
+            mResponseCode = responseCode;
+            mResponseMessage = responseMessage == null ? "" : responseMessage;
+            mResponseHeaders = responseHeaders;
+            mSentMillis = sentMillis;
+            mReceivedMillis = receivedMillis;
+        }
+
+        String getHeader(String name) {
+            for(int i = mResponseHeaders.length - 2; i >= 0; i -= 2) {
+                if(name.equalsIgnoreCase(mResponseHeaders[i])) return mResponseHeaders[i + 1];
+            }
+            return null;
+        }
+
+        boolean matches(Request request) {
+            if(!mUrl.equals(request.getUrl().toString())) return false;
+            for(int i = 0; i < mVaryHeaders.length; i += 2) {
+                String value = request.getHeader(mVaryHeaders[i]);
+                if(!mVaryHeaders[i + 1].equals(value == null ? "" : value)) return false;
+            }
+            return true;
+        }
+
+        /** The freshness of the response following the RFC 7234 */
+        boolean isFresh(Request request, long now) {
+            String cacheControl = getHeader("Cache-Control");
+            String requestCacheControl = request.getHeader("Cache-Control");
+            if(hasDirective(cacheControl, "no-cache") || hasDirective(requestCacheControl, "no-cache")) {
+                return false;
+            }
+            if("no-cache".equalsIgnoreCase(trim(getHeader("Pragma")))) return false;
+            long freshness = freshnessLifetime(cacheControl);
+            long requestMaxAge = parseSeconds(requestCacheControl, "max-age");
+            if(requestMaxAge >= 0) freshness = Math.min(freshness, requestMaxAge * 1000);
+            return age(now) < freshness;
+        }
+
+        private long freshnessLifetime(String cacheControl) {
+            long maxAge = parseSeconds(cacheControl, "max-age");
+            if(maxAge >= 0) return maxAge * 1000;
+            long served = parseDate(getHeader("Date"));
+            if(served == -1) served = mReceivedMillis;
+            long expires = parseDate(getHeader("Expires"));
+            if(expires != -1) return Math.max(0, expires - served);
+            long lastModified = parseDate(getHeader("Last-Modified"));
+            if(lastModified != -1 && mUrl.indexOf('?') == -1) {
+                return Math.max(0, (served - lastModified) / HEURISTIC_FRESHNESS_DIVISOR);
+            }
+            return 0;
+        }
+
+        private long age(long now) {
+            long served = parseDate(getHeader("Date"));
+            long apparentAge = served == -1 ? 0 : Math.max(0, mReceivedMillis - served);
+            long ageHeader = -1;
+            try {
+                String age = getHeader("Age");
+                if(age != null) ageHeader = Long.parseLong(age.trim()) * 1000;
+            } catch(NumberFormatException ignored) { }
+            long receivedAge = Math.max(apparentAge, ageHeader);
+            return receivedAge + (mReceivedMillis - mSentMillis) + (now - mReceivedMillis);
+        }
+
+        /**
+         * Replay the body with the given headers, the body can be replayed only once
+         * @return the cached response or null if the body was already replayed or closed
+         */
+        synchronized HttpURLConnection open(URL url, String[] headers) {
+            InputStream body = mBody;
+            if(body == null) return null;
+            mBody = null;
+            return new ReplayHttpURLConnection(url, mResponseCode, mResponseMessage, headers,
+                    new BufferedInputStream(body));
+        }
+
+        /** Release the body if it was not replayed */
+        void close() {
+            InputStream body;
+            synchronized(this) {
+                body = mBody;
+                mBody = null;
+            }
+            if(body != null) Util.closeQuietly(body);
+        }
+
+        void write(File file) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                output.writeInt(ENTRY_VERSION);
+                output.writeUTF(mUrl);
+                writeHeaders(output, mVaryHeaders);
+                output.writeInt(mResponseCode);
+                output.writeUTF(mResponseMessage);
+                writeHeaders(output, mResponseHeaders);
+                output.writeLong(mSentMillis);
+                output.writeLong(mReceivedMillis);
+            } finally {
+                output.close();
+            }
+        }
+
+        /**
+         * Read the metadata of the snapshot and close it, the entry keep the body to replay it.
+         * The snapshot must still be closed if this method fails or return null
+         */
+        static Entry read(DiskLruCache.Snapshot snapshot) throws IOException {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(snapshot.getMetadata()));
+            try {
+                if(input.readInt() != ENTRY_VERSION) return null;
+                Entry entry = new Entry(input.readUTF(), readHeaders(input), input.readInt(), input.readUTF(),
+                        readHeaders(input), input.readLong(), input.readLong());
+                entry.mBody = snapshot.getData();
+                return entry;
+            } finally {
+                Util.closeQuietly(input);
+            }
+        }
+
+        private static void writeHeaders(DataOutputStream output, String[] headers) throws IOException {
+            output.writeInt(headers.length);
+            for(String value : headers) {
+                output.writeUTF(value);
+            }
+        }
+
+        private static String[] readHeaders(DataInputStream input) throws IOException {
+            int length = input.readInt();
+            if(length < 0 || length % 2 != 0) throw new IOException("Corrupted cache entry");
+            String[] result = new String[length];
+            for(int i = 0; i < length; i++) {
+                result[i] = input.readUTF();
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Request body that copy an InputStream to the connection with a pooled buffer,
+ * the stream is closed after it was written so this body can be sent only once
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class InputStreamRequestBody extends RequestBody {
+
+    private final String mContentType;
+
+    private final InputStream mSource;
+
+    private final long mContentLength;
+
+    /**
+     * Construct a new body with unknown length, sent on chunked streaming mode
+     * @param contentType the Content-Type of the body or null
+     * @param source the stream to upload, can't be null
+     */
+    public InputStreamRequestBody(String contentType, InputStream source) {
+        this(contentType, source, -1);
+    }
+
+    /**
+     * Construct a new body with the given length
+     * @param contentType the Content-Type of the body or null
+     * @param source the stream to upload, can't be null
+     * @param contentLength the number of bytes of the stream or -1 if unknown
+     */
+    public InputStreamRequestBody(String contentType, InputStream source, long contentLength) {
+        if(source == null) throw new NullPointerException("source can't be null");
+        mContentType = contentType;
+        mSource = source;
+        mContentLength = contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    /** The source stream is consumed and closed by the first write */
+    @Override
+    public boolean isOneShot() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        try {
+            long written = Util.copy(mSource, output);
+            if(mContentLength >= 0 && written != mContentLength) {
+                throw new IOException("Expected " + mContentLength + " bytes but the stream had " + written);
+            }
+        } finally {
+            Util.closeQuietly(mSource);
+        }
+    }
+
+}
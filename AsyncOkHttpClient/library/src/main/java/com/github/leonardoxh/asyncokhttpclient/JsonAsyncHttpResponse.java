@@ -15,11 +15,18 @@
  */
 package com.github.leonardoxh.asyncokhttpclient;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import com.github.leonardoxh.asyncokhttpclient.utils.JsonStreamParser;
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
 import android.os.Message;
 
 /**
@@ -31,6 +38,7 @@ import android.os.Message;
  * @see #onError(java.lang.Throwable, org.json.JSONArray)
  * @see #onError(java.lang.Throwable, org.json.JSONObject)
  * @see #onError(java.lang.Throwable, java.lang.String)
+ * @see #setStreaming(boolean)
  */
 public class JsonAsyncHttpResponse extends AsyncHttpResponse {
 
@@ -40,6 +48,42 @@ public class JsonAsyncHttpResponse extends AsyncHttpResponse {
 	/** Indicate the response as a valid JSON and a fail message */
 	protected static final int FAIL_JSON = 6;
 
+	/** Indicate the response was a JSON array streamed with onItem */
+	protected static final int SUCCESS_JSON_STREAM = 11;
+
+	/** Parse the body directly from the stream and give the array elements on onItem */
+	private volatile boolean mStreaming;
+
+	/**
+	 * Enable the streaming mode, the body is parsed directly from the connection
+	 * without keep it on a String. When the body is a JSON array every element is
+	 * given to {@link #onItem(Object)} as soon as it is parsed and then
+	 * {@link #onSuccess(int, int)} is called, a JSON object is delivered on
+	 * {@link #onSuccess(int, org.json.JSONObject)} as usual.
+	 * Error responses are not streamed
+	 * @param streaming true to parse the response as a stream
+	 */
+	public void setStreaming(boolean streaming) {
+		mStreaming = streaming;
+	}
+
+	/**
+	 * Callback called on the request thread for every element of a JSON array
+	 * when the streaming mode is enabled, the element can be a JSONObject, JSONArray,
+	 * String, Number, Boolean or JSONObject.NULL
+	 * @param item the element parsed
+	 * @see #setStreaming(boolean)
+	 */
+	public void onItem(Object item) { }
+
+	/**
+	 * Callback that indicate the JSON array was fully streamed on onItem
+	 * @param statusCode the status code of the request normally 200
+	 * @param itemCount the number of elements of the array
+	 * @see #setStreaming(boolean)
+	 */
+	public void onSuccess(int statusCode, int itemCount) { }
+
     /**
      * Callback that indicate request has finished success
      * and its a JSONObject
@@ -84,7 +128,7 @@ public class JsonAsyncHttpResponse extends AsyncHttpResponse {
 				sendMessage(obtainMessage(FAIL_JSON, new Object[] {
 						new NullPointerException("Response body is null"), responseBody}));
 			} else {
-				sendMessage(obtainMessage(SUCCESS_JSON, new Object[] {statusCode, jsonResponse}));
+				sendMessage(obtainMessage(SUCCESS_JSON, new Object[] {statusCode(statusCode), jsonResponse}));
 			}
 		} catch(JSONException e) {
 			sendMessage(obtainMessage(FAIL_JSON, new Object[] {e, responseBody}));
@@ -113,13 +157,65 @@ public class JsonAsyncHttpResponse extends AsyncHttpResponse {
      */
 	private static Object parseResponse(String response) throws JSONException {
 		if(response == null) return null;
-		response = response.trim();
-		if(response.startsWith("{") || response.startsWith("[")) {
-            return new JSONTokener(response).nextValue();
-        }
+		for(int i = 0, length = response.length(); i < length; i++) {
+			char c = response.charAt(i);
+			if(c == '{' || c == '[') return new JSONTokener(response).nextValue();
+			if(!Character.isWhitespace(c)) return null;
+		}
 		return null;
 	}
 
+	@Override
+	int getCacheableMessage() {
+		return mStreaming ? -1 : SUCCESS_JSON;
+	}
+
+	@Override
+	boolean isDecodeOffloaded() {
+		return !mStreaming;
+	}
+
+	@Override
+	void sendResponseMessage(HttpURLConnection connection) {
+		if(!mStreaming) {
+			super.sendResponseMessage(connection);
+			return;
+		}
+		InputStream response = null;
+		try {
+			int statusCode = connection.getResponseCode();
+			if(statusCode >= 300) {
+				super.sendResponseMessage(connection);
+				return;
+			}
+			response = openResponseStream(connection, false);
+			JsonStreamParser parser = new JsonStreamParser(response,
+					Util.getCharset(connection.getContentType()));
+			int c = parser.peek();
+			if(c == '[') {
+				int itemCount = 0;
+				parser.beginArray();
+				while(parser.hasNext()) {
+					onItem(parser.nextValue());
+					itemCount++;
+				}
+				parser.endArray();
+				sendMessage(obtainMessage(SUCCESS_JSON_STREAM, new Object[] {statusCode(statusCode), itemCount}));
+			} else if(c == '{') {
+				sendMessage(obtainMessage(SUCCESS_JSON, new Object[] {statusCode(statusCode), parser.nextValue()}));
+			} else {
+				sendMessage(obtainMessage(FAIL_JSON, new Object[] {
+						new JSONException("Response is not a JSON object or array"), null}));
+			}
+		} catch(JSONException e) {
+			sendMessage(obtainMessage(FAIL_JSON, new Object[] {e, null}));
+		} catch(IOException e) {
+			sendFailMessage(e, (String)null);
+		} finally {
+			if(response != null) Util.closeQuietly(response);
+		}
+	}
+
 	@Override
 	public boolean handleMessage(Message message) {
 		switch(message.what) {
@@ -131,6 +227,10 @@ public class JsonAsyncHttpResponse extends AsyncHttpResponse {
 				Object[] failResponse = (Object[]) message.obj;
 				handleErrorJsonMessage((Throwable)failResponse[0], failResponse[1]);
 				return true;
+			case SUCCESS_JSON_STREAM:
+				Object[] streamResponse = (Object[]) message.obj;
+				onSuccess(((Integer)streamResponse[0]).intValue(), ((Integer)streamResponse[1]).intValue());
+				return true;
 			default:
 				return super.handleMessage(message);
 		}
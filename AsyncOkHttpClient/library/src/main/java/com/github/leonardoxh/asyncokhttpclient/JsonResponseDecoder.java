@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.JsonStreamParser;
+
+/**
+ * Default {@link ResponseDecoder} that bind a JSON body directly to a plain java object,
+ * the body is read as a stream and no intermediate JSON tree is created.
+ * The objects need a constructor without arguments and the JSON members are
+ * matched by the field names, unknown members are ignored. Supported field types
+ * are the primitives and their wrappers, String, enums, arrays, List, Collection,
+ * Map with String keys, nested objects and Object/JSONObject/JSONArray for raw values
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see TypedAsyncHttpResponse
+ */
+public class JsonResponseDecoder<T> implements ResponseDecoder<T> {
+
+    /** The fields by JSON name of every class already bound, shared by all the decoders */
+    private static final Map<Class<?>, Map<String, Field>> sFields =
+            new ConcurrentHashMap<Class<?>, Map<String, Field>>();
+
+    /** The type of the decoded objects */
+    private final Type mType;
+
+    /**
+     * Construct a new decoder for the given class
+     * @param type the class of the decoded objects
+     */
+    public JsonResponseDecoder(Class<T> type) {
+        this((Type)type);
+    }
+
+    /**
+     * Construct a new decoder for the given generic type, like a List of objects
+     * @param type the type of the decoded objects
+     */
+    public JsonResponseDecoder(Type type) {
+        if(type == null) throw new NullPointerException("type can't be null");
+        mType = type;
+    }
+
+    /**
+     * @return the type of the decoded objects
+     */
+    public Type getType() {
+        return mType;
+    }
+
+    /** Decoders of the same type are equal, so they share the results of the {@link ObjectCache} */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JsonResponseDecoder && mType.equals(((JsonResponseDecoder<?>)other).mType);
+    }
+
+    @Override
+    public int hashCode() {
+        return mType.hashCode();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(InputStream body, Charset charset) throws IOException {
+        try {
+            return (T)read(new JsonStreamParser(body, charset), mType);
+        } catch(JSONException e) {
+            throw new IOException("Invalid JSON for " + mType + ": " + e.getMessage(), e);
+        } catch(IllegalAccessException e) {
+            throw new IOException("Can't bind " + mType + ": " + e.getMessage(), e);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Can't bind " + mType + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Object read(JsonStreamParser parser, Type type)
+            throws IOException, JSONException, IllegalAccessException {
+        Class<?> rawType = getRawType(type);
+        if(parser.peek() == 'n') {
+            parser.nextValue();
+            return rawType.isPrimitive() ? convert(0, rawType) : null;
+        }
+        if(rawType.isArray()) {
+            Type componentType = type instanceof GenericArrayType
+                    ? ((GenericArrayType)type).getGenericComponentType() : rawType.getComponentType();
+            List<Object> values = readList(parser, componentType);
+            Object result = Array.newInstance(getRawType(componentType), values.size());
+            for(int i = 0, size = values.size(); i < size; i++) {
+                Array.set(result, i, values.get(i));
+            }
+            return result;
+        }
+        if(Collection.class.isAssignableFrom(rawType)) {
+            List<Object> values = readList(parser, getTypeArgument(type, 0));
+            if(rawType.isAssignableFrom(ArrayList.class)) return values;
+            if(rawType.isAssignableFrom(LinkedHashSet.class)) return new LinkedHashSet<Object>(values);
+            throw new JSONException("Unsupported collection " + rawType.getName());
+        }
+        if(Map.class.isAssignableFrom(rawType)) {
+            Type valueType = getTypeArgument(type, 1);
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            parser.beginObject();
+            while(parser.hasNext()) {
+                String name = parser.nextName();
+                result.put(name, read(parser, valueType));
+            }
+            parser.endObject();
+            return result;
+        }
+        if(rawType == Object.class || rawType.getName().startsWith("org.json.")) {
+            return parser.nextValue();
+        }
+        if(isScalar(rawType)) return convert(parser.nextValue(), rawType);
+        Map<String, Field> fields = getFields(rawType);
+        Object result = newInstance(rawType);
+        parser.beginObject();
+        while(parser.hasNext()) {
+            Field field = fields.get(parser.nextName());
+            if(field == null) {
+                parser.nextValue();
+            } else {
+                field.set(result, read(parser, field.getGenericType()));
+            }
+        }
+        parser.endObject();
+        return result;
+    }
+
+    private static List<Object> readList(JsonStreamParser parser, Type elementType)
+            throws IOException, JSONException, IllegalAccessException {
+        List<Object> result = new ArrayList<Object>();
+        parser.beginArray();
+        while(parser.hasNext()) {
+            result.add(read(parser, elementType));
+        }
+        parser.endArray();
+        return result;
+    }
+
+    private static boolean isScalar(Class<?> type) {
+        return type.isPrimitive() || type == String.class || type == Boolean.class
+                || type == Character.class || Number.class.isAssignableFrom(type) || type.isEnum();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convert(Object value, Class<?> type) throws JSONException {
+        if(value == JSONObject.NULL) value = null;
+        if(type == String.class) return value == null ? null : value.toString();
+        if(type.isEnum()) return value == null ? null : Enum.valueOf((Class<Enum>)type, value.toString());
+        if(value == null) {
+            if(!type.isPrimitive()) return null;
+            value = 0;
+        }
+        if(type == boolean.class || type == Boolean.class) {
+            if(value instanceof Boolean) return value;
+            if(value instanceof String) return Boolean.valueOf((String)value);
+            if(value instanceof Number) return ((Number)value).intValue() != 0;
+        } else if(type == char.class || type == Character.class) {
+            String text = value.toString();
+            if(text.length() == 1) return text.charAt(0);
+        } else {
+            Number number = null;
+            if(value instanceof Number) {
+                number = (Number)value;
+            } else if(value instanceof String) {
+                try {
+                    number = Double.valueOf((String)value);
+                } catch(NumberFormatException ignored) { }
+            }
+            if(number != null) {
+                if(type == int.class || type == Integer.class) return number.intValue();
+                if(type == long.class || type == Long.class) return number.longValue();
+                if(type == double.class || type == Double.class) return number.doubleValue();
+                if(type == float.class || type == Float.class) return number.floatValue();
+                if(type == short.class || type == Short.class) return number.shortValue();
+                if(type == byte.class || type == Byte.class) return number.byteValue();
+                if(type.isInstance(number)) return number;
+            }
+        }
+        throw new JSONException("Can't convert " + value + " to " + type.getName());
+    }
+
+    private static Object newInstance(Class<?> type) throws JSONException {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch(Exception e) {
+            throw new JSONException("Can't create " + type.getName() + ", a no arguments constructor is required");
+        }
+    }
+
+    /**
+     * Return the bindable fields of the class and its super classes,
+     * static and transient fields are ignored
+     */
+    private static Map<String, Field> getFields(Class<?> type) {
+        Map<String, Field> result = sFields.get(type);
+        if(result != null) return result;
+        result = new HashMap<String, Field>();
+        for(Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for(Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+                if(result.containsKey(field.getName())) continue;
+                field.setAccessible(true);
+                result.put(field.getName(), field);
+            }
+        }
+        sFields.put(type, result);
+        return result;
+    }
+
+    private static Class<?> getRawType(Type type) {
+        if(type instanceof Class) return (Class<?>)type;
+        if(type instanceof ParameterizedType) return getRawType(((ParameterizedType)type).getRawType());
+        if(type instanceof GenericArrayType) {
+            return Array.newInstance(getRawType(((GenericArrayType)type).getGenericComponentType()), 0).getClass();
+        }
+        if(type instanceof WildcardType) return getRawType(((WildcardType)type).getUpperBounds()[0]);
+        return Object.class;
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+        if(type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType)type).getActualTypeArguments();
+            if(index < arguments.length) return arguments[index];
+        }
+        return Object.class;
+    }
+
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.LatencyHistogram;
+import com.github.leonardoxh.asyncokhttpclient.utils.StripedCounters;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Counters and latency histograms of the requests executed by a client,
+ * grouped in total, per host and per route template. Every attempt sent to the
+ * network is recorded once, including the retries, with the time between it start
+ * to run and its end, the responses of the memory cache and the calls
+ * joined to a coalesced request are not recorded.
+ * Recording is lock free and doesn't allocate after the first request of a host or route,
+ * the hosts and routes are capped so the memory is fixed, the extra ones are grouped as {@link #OTHER}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setMetrics(Metrics)
+ * @see Request.Builder#route(String)
+ */
+public final class Metrics {
+
+    /** The request timed out */
+    public static final int FAILURE_TIMEOUT = 0;
+
+    /** The host name can't be resolved */
+    public static final int FAILURE_DNS = 1;
+
+    /** The connection was refused or the host is not reachable */
+    public static final int FAILURE_CONNECT = 2;
+
+    /** The TLS handshake failed */
+    public static final int FAILURE_SSL = 3;
+
+    /** Any other I/O failure */
+    public static final int FAILURE_OTHER = 4;
+
+    /** The name of the group of the hosts and routes over the limit */
+    public static final String OTHER = "(other)";
+
+    /** The default max number of hosts and of routes */
+    public static final int DEFAULT_MAX_GROUPS = 64;
+
+    private static final String[] FAILURE_NAMES = { "timeout", "dns", "connect", "ssl", "other" };
+
+    private static final int REQUESTS = 0;
+
+    private static final int BYTES_SENT = 1;
+
+    private static final int BYTES_RECEIVED = 2;
+
+    /** The first counter of the response codes 1xx to 5xx */
+    private static final int STATUS = 3;
+
+    /** The first counter of the failures */
+    private static final int FAILURES = STATUS + 5;
+
+    private static final int COUNTERS = FAILURES + FAILURE_NAMES.length;
+
+    private final Group mTotal = new Group();
+
+    private final ConcurrentHashMap<String, Group> mHosts = new ConcurrentHashMap<String, Group>();
+
+    private final ConcurrentHashMap<String, Group> mRoutes = new ConcurrentHashMap<String, Group>();
+
+    private final Group mOtherHosts = new Group();
+
+    private final Group mOtherRoutes = new Group();
+
+    private final int mMaxGroups;
+
+    /** Construct metrics with at most {@link #DEFAULT_MAX_GROUPS} hosts and routes */
+    public Metrics() {
+        this(DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param maxGroups the max number of hosts and of routes recorded separately
+     */
+    public Metrics(int maxGroups) {
+        if(maxGroups < 0) throw new IllegalArgumentException("maxGroups < 0: " + maxGroups);
+        mMaxGroups = maxGroups;
+    }
+
+    /**
+     * Record an attempt of a request
+     * @param request the request
+     * @param responseCode the response code or -1 if the attempt failed
+     * @param error the failure of the attempt or null
+     * @param latencyNanos the time the attempt took
+     * @param bytesSent the bytes of the request body
+     * @param bytesReceived the bytes of the response body read from the network
+     */
+    void record(Request request, int responseCode, IOException error,
+            long latencyNanos, long bytesSent, long bytesReceived) {
+        int status = responseCode >= 100 ? STATUS + Math.min(responseCode / 100, 5) - 1 : -1;
+        int failure = error != null ? FAILURES + failureOf(error) : -1;
+        long latencyMicros = latencyNanos / 1000;
+        mTotal.record(status, failure, latencyMicros, bytesSent, bytesReceived);
+        group(mHosts, request.getUrl().getHost(), mOtherHosts)
+                .record(status, failure, latencyMicros, bytesSent, bytesReceived);
+        String route = request.getRoute();
+        if(route != null) {
+            group(mRoutes, route, mOtherRoutes).record(status, failure, latencyMicros, bytesSent, bytesReceived);
+        }
+    }
+
+    private Group group(ConcurrentHashMap<String, Group> groups, String name, Group other) {
+        Group group = groups.get(name);
+        if(group != null) return group;
+        if(groups.size() >= mMaxGroups) return other;
+        group = new Group();
+        Group previous = groups.putIfAbsent(name, group);
+        return previous != null ? previous : group;
+    }
+
+    private static int failureOf(IOException error) {
+        if(error instanceof InterruptedIOException) return FAILURE_TIMEOUT;
+        if(error instanceof UnknownHostException) return FAILURE_DNS;
+        if(error instanceof ConnectException || error instanceof NoRouteToHostException) return FAILURE_CONNECT;
+        if(error instanceof SSLException) return FAILURE_SSL;
+        return FAILURE_OTHER;
+    }
+
+    /**
+     * @return a copy of the current metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(mTotal.snapshot("total"),
+                snapshot(mHosts, mOtherHosts), snapshot(mRoutes, mOtherRoutes));
+    }
+
+    private static Map<String, Stats> snapshot(Map<String, Group> groups, Group other) {
+        Map<String, Stats> stats = new TreeMap<String, Stats>();
+        for(Map.Entry<String, Group> entry : groups.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        Stats otherStats = other.snapshot(OTHER);
+        if(otherStats.getRequestCount() > 0) stats.put(OTHER, otherStats);
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * @return the current metrics as text, one line per group
+     */
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /** The counters and the latencies of a group of requests */
+    private static final class Group {
+
+        private final StripedCounters mCounters = new StripedCounters(COUNTERS);
+
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+
+        void record(int status, int failure, long latencyMicros, long bytesSent, long bytesReceived) {
+            mCounters.add(REQUESTS, 1);
+            if(bytesSent > 0) mCounters.add(BYTES_SENT, bytesSent);
+            if(bytesReceived > 0) mCounters.add(BYTES_RECEIVED, bytesReceived);
+            if(status >= 0) mCounters.add(status, 1);
+            if(failure >= 0) mCounters.add(failure, 1);
+            mLatency.record(latencyMicros);
+        }
+
+        Stats snapshot(String name) {
+            long[] counters = new long[COUNTERS];
+            for(int i = 0; i < COUNTERS; i++) {
+                counters[i] = mCounters.get(i);
+            }
+            return new Stats(name, counters, mLatency.snapshot());
+        }
+
+    }
+
+    /** The metrics of the client at a moment */
+    public static final class Snapshot {
+
+        private final Stats mTotal;
+
+        private final Map<String, Stats> mHosts;
+
+        private final Map<String, Stats> mRoutes;
+
+        Snapshot(Stats total, Map<String, Stats> hosts, Map<String, Stats> routes) {
+            mTotal = total;
+            mHosts = hosts;
+            mRoutes = routes;
+        }
+
+        /**
+         * @return the metrics of all the requests
+         */
+        public Stats getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * @return the metrics per host sorted by host
+         */
+        public Map<String, Stats> getHosts() {
+            return mHosts;
+        }
+
+        /**
+         * @return the metrics per route template sorted by route, only the requests with a route
+         */
+        public Map<String, Stats> getRoutes() {
+            return mRoutes;
+        }
+
+        /**
+         * @return the metrics as text, one line for the total, then one per host and one per route
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            mTotal.appendTo(builder, "");
+            for(Stats stats : mHosts.values()) {
+                stats.appendTo(builder, "host ");
+            }
+            for(Stats stats : mRoutes.values()) {
+                stats.appendTo(builder, "route ");
+            }
+            return builder.toString();
+        }
+
+    }
+
+    /** The metrics of a group of requests at a moment */
+    public static final class Stats {
+
+        private final String mName;
+
+        private final long[] mCounters;
+
+        private final LatencyHistogram.Snapshot mLatency;
+
+        Stats(String name, long[] counters, LatencyHistogram.Snapshot latency) {
+            mName = name;
+            mCounters = counters;
+            mLatency = latency;
+        }
+
+        /**
+         * @return the host, the route or total
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the number of attempts
+         */
+        public long getRequestCount() {
+            return mCounters[REQUESTS];
+        }
+
+        /**
+         * @return the number of failed attempts plus the responses 4xx and 5xx
+         */
+        public long getErrorCount() {
+            long errors = getStatusCount(4) + getStatusCount(5);
+            for(int i = FAILURES; i < COUNTERS; i++) {
+                errors += mCounters[i];
+            }
+            return errors;
+        }
+
+        /**
+         * @param statusClass the class of the response codes, from 1 for 1xx to 5 for 5xx
+         * @return the number of responses of the class
+         */
+        public long getStatusCount(int statusClass) {
+            if(statusClass < 1 || statusClass > 5) throw new IllegalArgumentException("invalid status class: " + statusClass);
+            return mCounters[STATUS + statusClass - 1];
+        }
+
+        /**
+         * @param failure the kind of failure like {@link Metrics#FAILURE_TIMEOUT}
+         * @return the number of attempts failed with that kind
+         */
+        public long getFailureCount(int failure) {
+            if(failure < 0 || failure >= FAILURE_NAMES.length) throw new IllegalArgumentException("invalid failure: " + failure);
+            return mCounters[FAILURES + failure];
+        }
+
+        /**
+         * @return the bytes of the request bodies sent
+         */
+        public long getBytesSent() {
+            return mCounters[BYTES_SENT];
+        }
+
+        /**
+         * @return the bytes of the response bodies read from the network
+         */
+        public long getBytesReceived() {
+            return mCounters[BYTES_RECEIVED];
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 100, like 99.9
+         * @return the latency in microseconds or 0 if nothing was recorded
+         */
+        public long getLatencyPercentile(double percentile) {
+            return mLatency.getPercentile(percentile);
+        }
+
+        /**
+         * @return the max latency in microseconds
+         */
+        public long getMaxLatency() {
+            return mLatency.getMax();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            appendTo(builder, "");
+            return builder.substring(0, builder.length() - 1);
+        }
+
+        void appendTo(StringBuilder builder, String prefix) {
+            builder.append(prefix).append(mName)
+                    .append(" requests=").append(getRequestCount())
+                    .append(" errors=").append(getErrorCount());
+            for(int i = 1; i <= 5; i++) {
+                builder.append(' ').append(i).append("xx=").append(getStatusCount(i));
+            }
+            for(int i = 0; i < FAILURE_NAMES.length; i++) {
+                builder.append(' ').append(FAILURE_NAMES[i]).append('=').append(mCounters[FAILURES + i]);
+            }
+            builder.append(" sent=").append(getBytesSent())
+                    .append(" received=").append(getBytesReceived())
+                    .append(" p50=").append(millis(getLatencyPercentile(50)))
+                    .append(" p90=").append(millis(getLatencyPercentile(90)))
+                    .append(" p99=").append(millis(getLatencyPercentile(99)))
+                    .append(" p999=").append(millis(getLatencyPercentile(99.9)))
+                    .append(" max=").append(millis(getMaxLatency()))
+                    .append('\n');
+        }
+
+        private static String millis(long micros) {
+            return String.format(Locale.US, "%.3fms", micros / 1000.0);
+        }
+
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Request parameters sent as multipart/form-data, text fields can be mixed
+ * with file and stream parts. The parts are written on the connection one
+ * after the other without being copied on memory and the total length is
+ * known before the upload when every part has a known length, so the
+ * body is sent on fixed length streaming mode. Like the {@link RequestParams}
+ * the put methods replace the parts with the same name, text, file or stream,
+ * and the add methods keep them
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class MultipartRequestParams extends RequestParams {
+
+    /** The Content-Type of the parts without an explicit one */
+    private static final String DEFAULT_PART_TYPE = "application/octet-stream";
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] DASH_DASH = {'-', '-'};
+
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private static final Random sRandom = new Random();
+
+    /** The boundary between the parts */
+    private final String mBoundary;
+
+    /** The parts of this body in the order they were added */
+    private final List<Part> mParts = new ArrayList<Part>();
+
+    /** Construct a new empty multipart params with a random boundary */
+    public MultipartRequestParams() {
+        char[] boundary = new char[30];
+        synchronized(sRandom) {
+            for(int i = 0; i < boundary.length; i++) {
+                boundary[i] = BOUNDARY_CHARS[sRandom.nextInt(BOUNDARY_CHARS.length)];
+            }
+        }
+        mBoundary = new String(boundary);
+    }
+
+    private MultipartRequestParams(String boundary) {
+        mBoundary = boundary;
+    }
+
+    /**
+     * @return the boundary used between the parts of this body
+     */
+    public String getBoundary() {
+        return mBoundary;
+    }
+
+    @Override
+    public synchronized void add(String key, String value) {
+        if(key == null || value == null) return;
+        super.add(key, value);
+        addPart(key, null, null, new ByteArrayRequestBody(null, value.getBytes(Util.DEFAULT_CHARSET)));
+    }
+
+    /**
+     * Remove all the parts with the given name, text, file and stream parts
+     * @param key the part name
+     */
+    @Override
+    public synchronized void remove(String key) {
+        super.remove(key);
+        for(int i = mParts.size() - 1; i >= 0; i--) {
+            if(mParts.get(i).mName.equals(key)) mParts.remove(i);
+        }
+    }
+
+    /**
+     * Put a file part replacing all the parts with the same name,
+     * the file name is sent as the part file name
+     * @param key the part name
+     * @param file the file to upload, read from the disk only while the request is sent
+     * @param contentType the Content-Type of the part or null for application/octet-stream
+     */
+    public synchronized void put(String key, File file, String contentType) {
+        checkNotFrozen();
+        if(key == null || file == null) return;
+        remove(key);
+        add(key, file, contentType);
+    }
+
+    /**
+     * Put a file part with the application/octet-stream Content-Type
+     * @param key the part name
+     * @param file the file to upload
+     * @see #put(String, java.io.File, String)
+     */
+    public void put(String key, File file) {
+        put(key, file, null);
+    }
+
+    /**
+     * Add a file part keeping the parts with the same name
+     * @param key the part name
+     * @param file the file to upload, read from the disk only while the request is sent
+     * @param contentType the Content-Type of the part or null for application/octet-stream
+     * @see #put(String, java.io.File, String)
+     */
+    public synchronized void add(String key, File file, String contentType) {
+        checkNotFrozen();
+        if(key == null || file == null) return;
+        addPart(key, file.getName(), contentType, new FileRequestBody(null, file));
+    }
+
+    /**
+     * Add a file part with the application/octet-stream Content-Type
+     * @param key the part name
+     * @param file the file to upload
+     * @see #add(String, java.io.File, String)
+     */
+    public void add(String key, File file) {
+        add(key, file, null);
+    }
+
+    /**
+     * Put a stream part replacing all the parts with the same name, the stream is closed
+     * after it was sent. If the length is unknown the whole body is sent on chunked streaming mode
+     * @param key the part name
+     * @param source the stream to upload
+     * @param fileName the part file name or null
+     * @param contentType the Content-Type of the part or null for application/octet-stream
+     * @param contentLength the number of bytes of the stream or -1 if unknown
+     */
+    public synchronized void put(String key, InputStream source, String fileName, String contentType,
+            long contentLength) {
+        checkNotFrozen();
+        if(key == null || source == null) return;
+        remove(key);
+        add(key, source, fileName, contentType, contentLength);
+    }
+
+    /**
+     * Add a stream part keeping the parts with the same name
+     * @param key the part name
+     * @param source the stream to upload
+     * @param fileName the part file name or null
+     * @param contentType the Content-Type of the part or null for application/octet-stream
+     * @param contentLength the number of bytes of the stream or -1 if unknown
+     * @see #put(String, java.io.InputStream, String, String, long)
+     */
+    public synchronized void add(String key, InputStream source, String fileName, String contentType,
+            long contentLength) {
+        checkNotFrozen();
+        if(key == null || source == null) return;
+        addPart(key, fileName, contentType, new InputStreamRequestBody(null, source, contentLength));
+    }
+
+    private void addPart(String name, String fileName, String contentType, RequestBody body) {
+        StringBuilder header = new StringBuilder();
+        header.append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+        if(fileName != null) {
+            header.append("; filename=\"").append(escape(fileName)).append('"');
+            header.append("\r\nContent-Type: ").append(contentType == null ? DEFAULT_PART_TYPE : contentType);
+        } else if(contentType != null) {
+            header.append("\r\nContent-Type: ").append(contentType);
+        }
+        header.append("\r\n\r\n");
+        mParts.add(new Part(name, header.toString().getBytes(Util.DEFAULT_CHARSET), body));
+    }
+
+    /** Escape the quotes and line breaks of the names like the browsers do */
+    private static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        mParts.clear();
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    @Override
+    public long getContentLength() {
+        Part[] parts = getParts();
+        long boundaryLength = mBoundary.length();
+        long result = DASH_DASH.length + boundaryLength + DASH_DASH.length + CRLF.length;
+        for(Part part : parts) {
+            long partLength = part.mBody.getContentLength();
+            if(partLength < 0) return -1;
+            result += DASH_DASH.length + boundaryLength + CRLF.length + part.mHeader.length
+                    + partLength + CRLF.length;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        for(Part part : getParts()) {
+            if(part.mBody.isOneShot()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        byte[] boundary = mBoundary.getBytes(Util.DEFAULT_CHARSET);
+        for(Part part : getParts()) {
+            output.write(DASH_DASH);
+            output.write(boundary);
+            output.write(CRLF);
+            output.write(part.mHeader);
+            part.mBody.writeTo(output);
+            output.write(CRLF);
+        }
+        output.write(DASH_DASH);
+        output.write(boundary);
+        output.write(DASH_DASH);
+        output.write(CRLF);
+    }
+
+    @Override
+    synchronized RequestBody snapshot() {
+        if(isFrozen()) return this;
+        MultipartRequestParams snapshot = new MultipartRequestParams(mBoundary);
+        copyTo(snapshot);
+        snapshot.mParts.addAll(mParts);
+        return snapshot;
+    }
+
+    private synchronized Part[] getParts() {
+        return mParts.toArray(new Part[mParts.size()]);
+    }
+
+    /** A single part with its encoded headers */
+    private static final class Part {
+
+        final String mName;
+
+        final byte[] mHeader;
+
+        final RequestBody mBody;
+
+        Part(String name, byte[] header, RequestBody body) {
+            mName = name;
+            mHeader = header;
+            mBody = body;
+        }
+
+    }
+
+}
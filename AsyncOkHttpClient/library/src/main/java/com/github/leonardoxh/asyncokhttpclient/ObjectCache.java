@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory cache of the decoded results of the GET requests, like the parsed
+ * JSON or the decoded objects of a {@link TypedAsyncHttpResponse}.
+ * A hit is delivered to the handler without using the thread pool and without
+ * parsing the response again. The results are cached per URL, kind of handler
+ * and the values of the vary headers of this cache, the size of a result is the
+ * size of its response body and the eldest results are evicted when the cache is full.
+ * Results older than the time to live are refreshed in background while the stale
+ * result is still delivered during the stale while revalidate window.
+ * The cached objects are shared between the handlers so they must not be changed
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setObjectCache(ObjectCache)
+ */
+public final class ObjectCache {
+
+    private final long mMaxSize;
+
+    private final long mTtlNanos;
+
+    private volatile long mStaleWhileRevalidateNanos;
+
+    private volatile String[] mVaryHeaders = new String[0];
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+    private long mSize;
+
+    private long mHitCount;
+
+    private long mStaleHitCount;
+
+    private long mMissCount;
+
+    /**
+     * Construct a new cache
+     * @param maxSize the max bytes of the cached responses
+     * @param ttl the time a result is fresh
+     * @param unit the unit of the time to live
+     */
+    public ObjectCache(long maxSize, long ttl, TimeUnit unit) {
+        if(maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        mMaxSize = maxSize;
+        mTtlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Set the time a result is still delivered after it expired, the first
+     * request on this window refresh the result in background. Disabled by default
+     * @param time the time after the time to live, 0 to disable
+     * @param unit the unit of the time
+     */
+    public void setStaleWhileRevalidate(long time, TimeUnit unit) {
+        mStaleWhileRevalidateNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Set the request headers that select different results for the same URL,
+     * like Accept-Language or Authorization
+     * @param names the header names
+     */
+    public void setVaryHeaders(String... names) {
+        mVaryHeaders = names.clone();
+    }
+
+    /**
+     * @return the requests delivered from this cache with a fresh result
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the requests delivered from this cache with a stale result
+     */
+    public synchronized long getStaleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /**
+     * @return the requests that were not on this cache
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the bytes of the cached results
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the max bytes of the cached results
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /** Remove all the results of this cache */
+    public synchronized void evictAll() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Remove the expired results, the results are also removed when they are requested
+     */
+    public synchronized void evictExpired() {
+        long now = System.nanoTime();
+        for(Iterator<Entry> i = mEntries.values().iterator(); i.hasNext();) {
+            Entry entry = i.next();
+            if(isExpired(entry, now)) {
+                mSize -= entry.mSize;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @param request the request to execute
+     * @param kind the kind of result of the handler
+     * @return the key of the result of the request
+     */
+    String key(Request request, String kind) {
+        StringBuilder key = new StringBuilder(kind).append(' ').append(request.getUrl());
+        for(String name : mVaryHeaders) {
+            String value = request.getHeader(name);
+            if(value != null) key.append('\n').append(name).append(": ").append(value);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Find the result of the given key
+     * @param key the key of the result
+     * @return the fresh or stale result or null
+     * @see #startRefresh(Entry)
+     */
+    synchronized Entry get(String key) {
+        Entry entry = mEntries.get(key);
+        if(entry == null) {
+            mMissCount++;
+            return null;
+        }
+        long now = System.nanoTime();
+        if(now - entry.mStoredNanos < mTtlNanos) {
+            mHitCount++;
+            return entry;
+        }
+        if(isExpired(entry, now)) {
+            mEntries.remove(key);
+            mSize -= entry.mSize;
+            mMissCount++;
+            return null;
+        }
+        mStaleHitCount++;
+        return entry;
+    }
+
+    /**
+     * Mark a stale result as being refreshed
+     * @param entry the result returned by {@link #get(String)}
+     * @return true if the caller must refresh the result, false if it is
+     * still fresh or it is already being refreshed
+     */
+    synchronized boolean startRefresh(Entry entry) {
+        if(entry.mRefreshing || System.nanoTime() - entry.mStoredNanos < mTtlNanos) return false;
+        entry.mRefreshing = true;
+        return true;
+    }
+
+    /**
+     * Clear the refresh of the result of the given key, called after the refresh
+     * finished with or without success
+     * @param key the key of the result
+     */
+    synchronized void finishRefresh(String key) {
+        Entry entry = mEntries.get(key);
+        if(entry != null) entry.mRefreshing = false;
+    }
+
+    /**
+     * Store a result
+     * @param key the key of the result
+     * @param what the message that deliver the result
+     * @param result the message object
+     * @param size the bytes of the response body
+     */
+    synchronized void put(String key, int what, Object result, long size) {
+        size = Math.max(1, size);
+        if(size > mMaxSize) return;
+        Entry previous = mEntries.put(key, new Entry(what, result, size, System.nanoTime()));
+        if(previous != null) mSize -= previous.mSize;
+        mSize += size;
+        for(Iterator<Entry> i = mEntries.values().iterator(); i.hasNext() && mSize > mMaxSize;) {
+            Entry eldest = i.next();
+            mSize -= eldest.mSize;
+            i.remove();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.mStoredNanos >= mTtlNanos + mStaleWhileRevalidateNanos;
+    }
+
+    /** A decoded result and the message used to deliver it */
+    static final class Entry {
+
+        final int mWhat;
+
+        final Object mResult;
+
+        final long mSize;
+
+        final long mStoredNanos;
+
+        /** True if a request is refreshing this result, guarded by the cache lock */
+        boolean mRefreshing;
+
+        Entry(int what, Object result, long size, long storedNanos) {
+            mWhat = what;
+            mResult = result;
+            mSize = size;
+            mStoredNanos = storedNanos;
+        }
+
+    }
+
+}
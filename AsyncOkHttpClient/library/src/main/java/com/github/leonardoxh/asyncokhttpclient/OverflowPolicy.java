@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decide what happens with a request when the pending queue
+ * of the {@link Dispatcher} is full
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see Dispatcher#setOverflowPolicy(OverflowPolicy)
+ */
+public interface OverflowPolicy {
+
+    /** Fail the incoming request, its onError receive a RejectedExecutionException */
+    OverflowPolicy REJECT = new OverflowPolicy() {
+        @Override
+        public void onOverflow(AsyncHttpRequest request, Dispatcher dispatcher) {
+            request.reject(new RejectedExecutionException("Dispatcher queue is full"));
+        }
+    };
+
+    /**
+     * Run the incoming request on the thread that is submitting it, the request is
+     * counted as running so it can be canceled by tag. The looper threads, like the main
+     * thread, and the timer of the retries and hedges never run a request, their
+     * incoming requests are rejected like {@link #REJECT}
+     */
+    OverflowPolicy CALLER_RUNS = new OverflowPolicy() {
+        @Override
+        public void onOverflow(AsyncHttpRequest request, Dispatcher dispatcher) {
+            if(!dispatcher.runOnCaller(request)) {
+                request.reject(new RejectedExecutionException("Dispatcher queue is full"));
+            }
+        }
+    };
+
+    /** Fail the oldest pending request and queue the incoming one in its place */
+    OverflowPolicy DROP_OLDEST = new OverflowPolicy() {
+        @Override
+        public void onOverflow(AsyncHttpRequest request, Dispatcher dispatcher) {
+            AsyncHttpRequest dropped = dispatcher.enqueueDroppingOldest(request);
+            if(dropped != null) {
+                dropped.reject(new RejectedExecutionException("Dropped from the dispatcher queue"));
+            }
+        }
+    };
+
+    /**
+     * Called on the submitting thread when the request can't be
+     * executed neither queued
+     * @param request the incoming request
+     * @param dispatcher the dispatcher that is full
+     */
+    void onOverflow(AsyncHttpRequest request, Dispatcher dispatcher);
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Count the bytes of one transfer and send the progress to the response,
+ * a progress message is sent only when both the time and the byte thresholds
+ * of the response have passed since the last one, so fast transfers can't flood
+ * the handler. The last progress of a transfer is always sent
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+final class ProgressTracker {
+
+    private final AsyncHttpResponse mResponse;
+
+    private final boolean mUpload;
+
+    private final long mTotal;
+
+    private final long mIntervalNanos;
+
+    private final long mThresholdBytes;
+
+    private long mCount;
+
+    private long mLastCount;
+
+    private long mLastTime;
+
+    private boolean mFinished;
+
+    /**
+     * @param response the response that receive the progress
+     * @param upload true for the request body, false for the response body
+     * @param total the total of bytes or -1 if unknown
+     */
+    ProgressTracker(AsyncHttpResponse response, boolean upload, long total) {
+        mResponse = response;
+        mUpload = upload;
+        mTotal = total;
+        mIntervalNanos = response.getProgressInterval() * 1000000L;
+        mThresholdBytes = response.getProgressThreshold();
+        mLastTime = System.nanoTime();
+    }
+
+    /** Count the transferred bytes and send the progress if the thresholds passed */
+    void update(int count) {
+        mCount += count;
+        if(mTotal >= 0 && mCount >= mTotal) {
+            finish();
+            return;
+        }
+        if(mCount - mLastCount < mThresholdBytes) return;
+        long now = System.nanoTime();
+        if(now - mLastTime < mIntervalNanos) return;
+        mLastTime = now;
+        send();
+    }
+
+    /**
+     * @return the bytes transferred until now
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    /** Send the last progress of the transfer if it was not sent yet */
+    void finish() {
+        if(mFinished) return;
+        mFinished = true;
+        if(mCount != mLastCount || mCount == 0) send();
+    }
+
+    private void send() {
+        mLastCount = mCount;
+        if(mUpload) {
+            mResponse.sendUploadProgressMessage(mCount, mTotal);
+        } else {
+            mResponse.sendDownloadProgressMessage(mCount, mTotal);
+        }
+    }
+
+    /** The response body reporting the bytes read, the end of stream finish the transfer */
+    static final class Input extends FilterInputStream {
+
+        private final ProgressTracker mTracker;
+
+        Input(InputStream source, ProgressTracker tracker) {
+            super(source);
+            mTracker = tracker;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if(result == -1) {
+                mTracker.finish();
+            } else {
+                mTracker.update(1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            if(result == -1) {
+                mTracker.finish();
+            } else {
+                mTracker.update(result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(count);
+            mTracker.update((int)result);
+            return result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    }
+
+    /** The request body reporting the bytes written, closing the stream finish the transfer */
+    static final class Output extends FilterOutputStream {
+
+        private final ProgressTracker mTracker;
+
+        Output(OutputStream target, ProgressTracker tracker) {
+            super(target);
+            mTracker = tracker;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mTracker.update(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+            mTracker.update(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            mTracker.finish();
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpURLConnection that replay a response already received, like a cached one,
+ * so the response handlers can read it with the same code used for the network.
+ * The headers are name/value pairs like the {@link Request} ones
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+final class ReplayHttpURLConnection extends HttpURLConnection {
+
+    private final String[] mHeaders;
+
+    private final InputStream mBody;
+
+    /**
+     * @param url the URL of the response
+     * @param responseCode the status code of the response
+     * @param responseMessage the status message of the response
+     * @param headers the response headers as name/value pairs
+     * @param body the response body, read only once
+     */
+    ReplayHttpURLConnection(URL url, int responseCode, String responseMessage, String[] headers,
+            InputStream body) {
+        super(url);
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+        mHeaders = headers;
+        mBody = body;
+        connected = true;
+    }
+
+    /**
+     * Read the response headers of a connection
+     * @param connection the connection with the response
+     * @return the headers as name/value pairs without the status line
+     */
+    static String[] readHeaders(HttpURLConnection connection) {
+        List<String> headers = new ArrayList<String>();
+        for(int i = 0; ; i++) {
+            String value = connection.getHeaderField(i);
+            if(value == null) break;
+            String name = connection.getHeaderFieldKey(i);
+            if(name == null) continue;
+            headers.add(name);
+            headers.add(value);
+        }
+        return headers.toArray(new String[headers.size()]);
+    }
+
+    /**
+     * Read the response headers of a connection for a replay of its decoded body,
+     * the Content-Encoding is removed and the Content-Length is the decoded one
+     * @param connection the connection with the response
+     * @param contentLength the length of the decoded body
+     * @return the headers as name/value pairs without the status line
+     */
+    static String[] readDecodedHeaders(HttpURLConnection connection, int contentLength) {
+        List<String> headers = new ArrayList<String>();
+        String[] network = readHeaders(connection);
+        for(int i = 0; i < network.length; i += 2) {
+            if("Content-Encoding".equalsIgnoreCase(network[i])
+                    || "Content-Length".equalsIgnoreCase(network[i])) continue;
+            headers.add(network[i]);
+            headers.add(network[i + 1]);
+        }
+        headers.add("Content-Length");
+        headers.add(String.valueOf(contentLength));
+        return headers.toArray(new String[headers.size()]);
+    }
+
+    @Override
+    public void connect() { }
+
+    @Override
+    public void disconnect() {
+        if(mBody != null) Util.closeQuietly(mBody);
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if(name == null) return getHeaderField(0);
+        for(int i = mHeaders.length - 2; i >= 0; i -= 2) {
+            if(name.equalsIgnoreCase(mHeaders[i])) return mHeaders[i + 1];
+        }
+        return null;
+    }
+
+    /** The index 0 is the status line without key like the network connections */
+    @Override
+    public String getHeaderFieldKey(int index) {
+        if(index <= 0 || index > mHeaders.length / 2) return null;
+        return mHeaders[(index - 1) * 2];
+    }
+
+    @Override
+    public String getHeaderField(int index) {
+        if(index == 0) return "HTTP/1.1 " + responseCode + " " + responseMessage;
+        if(index < 0 || index > mHeaders.length / 2) return null;
+        return mHeaders[(index - 1) * 2 + 1];
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+        for(int i = 0; i < mHeaders.length; i += 2) {
+            List<String> values = result.get(mHeaders[i]);
+            if(values == null) {
+                values = new ArrayList<String>();
+                result.put(mHeaders[i], values);
+            }
+            values.add(mHeaders[i + 1]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public InputStream getInputStream() throws FileNotFoundException {
+        if(responseCode >= HTTP_BAD_REQUEST) throw new FileNotFoundException(url.toString());
+        return mBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return responseCode >= HTTP_BAD_REQUEST ? mBody : null;
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable representation of a single request, this class holds
+ * the request method, URL, headers and parameters of one call.
+ * Instances are safe to share between threads, the {@link RequestParams} are copied
+ * when the request is built so changing them later doesn't change the request, the other
+ * bodies like byte arrays, files and streams are not copied and must not change while
+ * the request runs. Use {@link Builder} to create a new one or {@link #newBuilder()}
+ * to derive from an existing one
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class Request {
+
+    /** The request method, GET by default */
+    private final String mMethod;
+
+    /** The request URL */
+    private final URL mUrl;
+
+    /** The frozen headers of this request as name/value pairs */
+    private final String[] mHeaders;
+
+    /** The request body or null for no body */
+    private final RequestBody mBody;
+
+    /** The tag used to cancel this request or null */
+    private final Object mTag;
+
+    /** The retry policy of this request or null to use the client one */
+    private final RetryPolicy mRetryPolicy;
+
+    /** The route template of this request used by the metrics or null */
+    private final String mRoute;
+
+    private Request(Builder builder) {
+        mMethod = builder.mMethod;
+        mUrl = builder.mUrl;
+        mHeaders = builder.mHeaders.toArray(new String[builder.mHeaders.size()]);
+        mBody = builder.mBody != null ? builder.mBody.snapshot() : null;
+        mTag = builder.mTag;
+        mRetryPolicy = builder.mRetryPolicy;
+        mRoute = builder.mRoute;
+    }
+
+    /**
+     * @return The request method of this request
+     * @see com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return The URL of this request
+     */
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return The request parameters of this request or null if the request
+     * has no body or the body is not a RequestParams, the parameters are a copy
+     * that can't change taken when the request was built
+     */
+    public RequestParams getParams() {
+        return mBody instanceof RequestParams ? (RequestParams)mBody : null;
+    }
+
+    /**
+     * @return The request body of this request or null, GET requests never send the body
+     */
+    public RequestBody getBody() {
+        return mBody;
+    }
+
+    /**
+     * @return The tag of this request or null
+     * @see AsyncOkHttpClient#cancelAll(Object)
+     */
+    public Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * @return The retry policy of this request or null to use the client one
+     * @see AsyncOkHttpClient#setRetryPolicy(RetryPolicy)
+     */
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * @return The route template of this request, like /users/{id}, or null
+     * @see Metrics
+     */
+    public String getRoute() {
+        return mRoute;
+    }
+
+    /**
+     * @return The number of headers on this request
+     */
+    public int getHeaderCount() {
+        return mHeaders.length / 2;
+    }
+
+    /**
+     * @param index the header index, must be lower than {@link #getHeaderCount()}
+     * @return the header name at the given index
+     */
+    public String getHeaderName(int index) {
+        return mHeaders[index * 2];
+    }
+
+    /**
+     * @param index the header index, must be lower than {@link #getHeaderCount()}
+     * @return the header value at the given index
+     */
+    public String getHeaderValue(int index) {
+        return mHeaders[index * 2 + 1];
+    }
+
+    /**
+     * Return the last value of the given header
+     * @param name the header name, case insensitive
+     * @return the header value or null if this request doesn't have the header
+     */
+    public String getHeader(String name) {
+        for(int i = mHeaders.length - 2; i >= 0; i -= 2) {
+            if(name.equalsIgnoreCase(mHeaders[i])) return mHeaders[i + 1];
+        }
+        return null;
+    }
+
+    /**
+     * @return a new builder initialized with the values of this request
+     */
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Merge the given default headers on this request, the headers
+     * already present on this request always win
+     * @param defaults the defaults headers, can't be null
+     * @return this request if nothing was merged or a new request with the headers
+     */
+    Request withDefaultHeaders(Map<String, String> defaults) {
+        Builder builder = null;
+        for(Map.Entry<String, String> entry : defaults.entrySet()) {
+            if(getHeader(entry.getKey()) != null) continue;
+            if(builder == null) builder = newBuilder();
+            builder.addHeader(entry.getKey(), entry.getValue());
+        }
+        return builder == null ? this : builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return mMethod + " " + mUrl;
+    }
+
+    /**
+     * Builder of the {@link Request}, a builder is not thread safe
+     * but the requests built by it are
+     */
+    public static final class Builder {
+
+        private String mMethod = RequestMethod.GET;
+
+        private URL mUrl;
+
+        private final List<String> mHeaders;
+
+        private RequestBody mBody;
+
+        private Object mTag;
+
+        private RetryPolicy mRetryPolicy;
+
+        private String mRoute;
+
+        /** Construct a new GET builder without any headers */
+        public Builder() {
+            mHeaders = new ArrayList<String>();
+        }
+
+        private Builder(Request request) {
+            mMethod = request.mMethod;
+            mUrl = request.mUrl;
+            mBody = request.mBody;
+            mTag = request.mTag;
+            mRetryPolicy = request.mRetryPolicy;
+            mRoute = request.mRoute;
+            mHeaders = new ArrayList<String>(request.mHeaders.length);
+            for(String value : request.mHeaders) {
+                mHeaders.add(value);
+            }
+        }
+
+        /**
+         * Set the URL of the request
+         * @param url the url to use on the request, can't be null
+         * @return this builder
+         */
+        public Builder url(URL url) {
+            if(url == null) throw new NullPointerException("url can't be null");
+            mUrl = url;
+            return this;
+        }
+
+        /**
+         * Set the request method and the request body
+         * @param method the request method
+         * @param body the request body like a {@link RequestParams} or null for no body
+         * @return this builder
+         * @see com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod
+         */
+        public Builder method(String method, RequestBody body) {
+            if(method == null) throw new NullPointerException("method can't be null");
+            mMethod = method;
+            mBody = body;
+            return this;
+        }
+
+        /**
+         * Set the tag of the request, all the requests with
+         * the same tag can be canceled at once
+         * @param tag the tag of the request or null
+         * @return this builder
+         * @see AsyncOkHttpClient#cancelAll(Object)
+         */
+        public Builder tag(Object tag) {
+            mTag = tag;
+            return this;
+        }
+
+        /**
+         * Set the retry policy of the request, overriding the policy of the client
+         * @param retryPolicy the retry policy, {@link RetryPolicy#NONE} to never retry
+         * this request or null to use the policy of the client
+         * @return this builder
+         * @see AsyncOkHttpClient#setRetryPolicy(RetryPolicy)
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Set the route template of the request, the metrics group the requests
+         * by route so the template must not contain the variable parts of the path
+         * @param route the route template like /users/{id} or null
+         * @return this builder
+         * @see AsyncOkHttpClient#setMetrics(Metrics)
+         */
+        public Builder route(String route) {
+            mRoute = route;
+            return this;
+        }
+
+        /**
+         * Set a header replacing all the headers with the same name,
+         * please note a null header key or a null header value
+         * will quietly be ignored
+         * @param name the header name
+         * @param value the header value
+         * @return this builder
+         */
+        public Builder header(String name, String value) {
+            if(name != null && value != null) {
+                removeHeader(name);
+                addHeader(name, value);
+            }
+            return this;
+        }
+
+        /**
+         * Add a header keeping the headers with the same name,
+         * please note a null header key or a null header value
+         * will quietly be ignored
+         * @param name the header name
+         * @param value the header value
+         * @return this builder
+         */
+        public Builder addHeader(String name, String value) {
+            if(name != null && value != null) {
+                mHeaders.add(name);
+                mHeaders.add(value);
+            }
+            return this;
+        }
+
+        /**
+         * Add multiple headers replacing the headers with the same name
+         * @param headers a map that contain the headers, can't be null
+         * @return this builder
+         */
+        public Builder headers(Map<String, String> headers) {
+            for(Map.Entry<String, String> entry : headers.entrySet()) {
+                header(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Remove all the headers with the given name
+         * @param name the header name, case insensitive
+         * @return this builder
+         */
+        public Builder removeHeader(String name) {
+            for(int i = mHeaders.size() - 2; i >= 0; i -= 2) {
+                if(name.equalsIgnoreCase(mHeaders.get(i))) {
+                    mHeaders.remove(i + 1);
+                    mHeaders.remove(i);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return a new immutable request with the values of this builder
+         * @throws java.lang.IllegalStateException if the url was not set
+         */
+        public Request build() {
+            if(mUrl == null) throw new IllegalStateException("url == null");
+            return new Request(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a request, the body is written directly on the connection
+ * stream. Bodies with a known length are sent on fixed length streaming mode
+ * and the others on chunked streaming mode, so the body is never buffered whole
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see com.github.leonardoxh.asyncokhttpclient.ByteArrayRequestBody
+ * @see com.github.leonardoxh.asyncokhttpclient.FileRequestBody
+ * @see com.github.leonardoxh.asyncokhttpclient.InputStreamRequestBody
+ */
+public abstract class RequestBody {
+
+    /**
+     * @return the Content-Type of this body or null to not send the header
+     */
+    public abstract String getContentType();
+
+    /**
+     * @return the number of bytes written by {@link #writeTo(java.io.OutputStream)}
+     * or -1 if unknown
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Write this body on the given stream
+     * @param output the request stream, must not be closed by this method
+     * @throws IOException if the body can't be written
+     */
+    public abstract void writeTo(OutputStream output) throws IOException;
+
+    /**
+     * @return true if this body can be written only once, the requests
+     * with these bodies are never retried
+     * @see com.github.leonardoxh.asyncokhttpclient.RetryPolicy
+     */
+    public boolean isOneShot() {
+        return false;
+    }
+
+    /**
+     * Called when a {@link Request} is built with this body
+     * @return a copy of this body that never change or this body if it can't change
+     */
+    RequestBody snapshot() {
+        return this;
+    }
+
+}
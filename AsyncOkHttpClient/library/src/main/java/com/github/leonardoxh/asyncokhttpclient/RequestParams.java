@@ -17,18 +17,50 @@ package com.github.leonardoxh.asyncokhttpclient;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Representation class for request parameters
+ * Representation class for request parameters,
+ * sent as a form on the body of the requests that are not GET.
+ * The parameters keep the insertion order and the same name can be
+ * added more than once, the names and values are percent encoded as UTF-8
+ * following the RFC 3986 and the encoded form is cached until the parameters change
  * @author Leonardo Rossetto <leonardoxh@gmail.com>
  * @see com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod
  */
-public class RequestParams {
+public class RequestParams extends RequestBody {
 
-    /** This is the headers */
-	private final Map<String, String> mParams = new ConcurrentHashMap<String, String>();
+    /** The Content-Type of the encoded parameters */
+	private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7',
+			'8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    /** The parameters as name/value pairs on the insertion order */
+	private final List<String> mParams = new ArrayList<String>();
+
+    /** How many parameters have each name, so put don't search names that aren't there */
+	private final Map<String, Integer> mNames = new HashMap<String, Integer>();
+
+    /** The encoded parameters, reused between the encodings */
+	private byte[] mEncoded = new byte[64];
+
+	private int mEncodedLength;
+
+    /** The encoded parameters as String or null if not created yet */
+	private String mEncodedString;
+
+    /** True if the parameters changed after the last encoding */
+	private boolean mDirty = true;
+
+    /** True if this parameters are the copy of a built request and can't change */
+	private boolean mFrozen;
 
     /**
      * Put multiple parameters on this parameters
@@ -42,21 +74,60 @@ public class RequestParams {
 	}
 
     /**
-     * Put the parameter on this params
+     * Put the parameter on this params replacing the parameters with the same name
      * note if the parameter name is null or
      * parameter value is null it will be siently omited from this parameters
      * @param key the parameter name
      * @param value the parameter value
      */
-	public void put(String key, String value) {
+	public synchronized void put(String key, String value) {
 		if(key != null && value != null) {
-			mParams.put(key, value);
+			remove(key);
+			add(key, value);
+		}
+	}
+
+    /**
+     * Add the parameter on this params keeping the parameters with the same name
+     * note if the parameter name is null or
+     * parameter value is null it will be siently omited from this parameters
+     * @param key the parameter name
+     * @param value the parameter value
+     */
+	public synchronized void add(String key, String value) {
+		checkNotFrozen();
+		if(key != null && value != null) {
+			mParams.add(key);
+			mParams.add(value);
+			Integer count = mNames.get(key);
+			mNames.put(key, count == null ? 1 : count + 1);
+			mDirty = true;
+		}
+	}
+
+    /**
+     * Remove all the parameters with the given name
+     * @param key the parameter name
+     */
+	public synchronized void remove(String key) {
+		checkNotFrozen();
+		if(mNames.remove(key) == null) return;
+		for(int i = mParams.size() - 2; i >= 0; i -= 2) {
+			if(mParams.get(i).equals(key)) {
+				mParams.remove(i + 1);
+				mParams.remove(i);
+				mDirty = true;
+			}
 		}
 	}
 
     /** Clear the parameter map */
-	public void clear() {
+	public synchronized void clear() {
+		checkNotFrozen();
+		if(mParams.isEmpty()) return;
 		mParams.clear();
+		mNames.clear();
+		mDirty = true;
 	}
 
     /**
@@ -64,19 +135,145 @@ public class RequestParams {
      * ready for HttpURLConnection set on OutputStream
      * @return the parameters encoded
      */
-	public String getParams() {
-		StringBuilder result = new StringBuilder();
-		for(ConcurrentHashMap.Entry<String, String> entry : mParams.entrySet()) {
-			if(result.length() > 0) result.append("&");
-			result.append(entry.getKey());
-			result.append("=");
-			result.append(entry.getValue());
-		}
-		return result.toString();
+	public synchronized String getParams() {
+		encode();
+		if(mEncodedString == null) mEncodedString = new String(mEncoded, 0, mEncodedLength, US_ASCII);
+		return mEncodedString;
 	}
-	
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public synchronized long getContentLength() {
+		encode();
+		return mEncodedLength;
+	}
+
+    /**
+     * Write the encoded parameters, the parameters of a built request are encoded only once
+     * so they always match {@link #getContentLength()}, the other ones must not change
+     * while they are written
+     * @param output the request stream
+     * @throws IOException if the parameters can't be written
+     */
+	@Override
 	public void writeTo(OutputStream output) throws IOException {
-		output.write(getParams().getBytes());
+		byte[] encoded;
+		int length;
+		synchronized(this) {
+			encode();
+			encoded = mEncoded;
+			length = mEncodedLength;
+		}
+		output.write(encoded, 0, length);
+	}
+
+    /**
+     * Copy the parameters encoded once on an array of their own, so the
+     * length sent by the request always match the bytes written
+     * @return the parameters of a built request
+     */
+	@Override
+	synchronized RequestBody snapshot() {
+		if(mFrozen) return this;
+		RequestParams snapshot = new RequestParams();
+		copyTo(snapshot);
+		encode();
+		snapshot.mEncoded = new byte[mEncodedLength];
+		System.arraycopy(mEncoded, 0, snapshot.mEncoded, 0, mEncodedLength);
+		snapshot.mEncodedLength = mEncodedLength;
+		snapshot.mEncodedString = mEncodedString;
+		snapshot.mDirty = false;
+		return snapshot;
+	}
+
+    /**
+     * Copy the parameters on the given snapshot and freeze it
+     * @param snapshot the new parameters of a built request
+     */
+	void copyTo(RequestParams snapshot) {
+		snapshot.mParams.addAll(mParams);
+		snapshot.mNames.putAll(mNames);
+		snapshot.mFrozen = true;
+	}
+
+    /**
+     * @return true if this parameters are the copy of a built request and can't change
+     */
+	synchronized boolean isFrozen() {
+		return mFrozen;
+	}
+
+    /**
+     * @throws IllegalStateException if this parameters belong to a built request
+     */
+	void checkNotFrozen() {
+		if(mFrozen) throw new IllegalStateException("The parameters of a built request can't change");
+	}
+
+    /** Encode the parameters on the reusable buffer if they changed */
+	private void encode() {
+		if(!mDirty) return;
+		mEncodedLength = 0;
+		mEncodedString = null;
+		for(int i = 0, size = mParams.size(); i < size; i += 2) {
+			if(i > 0) append('&');
+			appendEncoded(mParams.get(i));
+			append('=');
+			appendEncoded(mParams.get(i + 1));
+		}
+		mDirty = false;
+	}
+
+    /** Append the UTF-8 bytes of the value, percent encoding all but the unreserved characters */
+	private void appendEncoded(String value) {
+		for(int i = 0, length = value.length(); i < length; i++) {
+			int c = value.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '-' || c == '.' || c == '_' || c == '~') {
+				append(c);
+				continue;
+			}
+			if(Character.isHighSurrogate((char)c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				c = Character.toCodePoint((char)c, value.charAt(++i));
+			} else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				c = '?';
+			}
+			if(c < 0x80) {
+				appendPercent(c);
+			} else if(c < 0x800) {
+				appendPercent(0xc0 | (c >> 6));
+				appendPercent(0x80 | (c & 0x3f));
+			} else if(c < 0x10000) {
+				appendPercent(0xe0 | (c >> 12));
+				appendPercent(0x80 | ((c >> 6) & 0x3f));
+				appendPercent(0x80 | (c & 0x3f));
+			} else {
+				appendPercent(0xf0 | (c >> 18));
+				appendPercent(0x80 | ((c >> 12) & 0x3f));
+				appendPercent(0x80 | ((c >> 6) & 0x3f));
+				appendPercent(0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private void appendPercent(int b) {
+		append('%');
+		append(HEX_DIGITS[(b >> 4) & 0x0f]);
+		append(HEX_DIGITS[b & 0x0f]);
+	}
+
+	private void append(int b) {
+		if(mEncodedLength == mEncoded.length) {
+			byte[] encoded = new byte[mEncoded.length * 2];
+			System.arraycopy(mEncoded, 0, encoded, 0, mEncodedLength);
+			mEncoded = encoded;
+		}
+		mEncoded[mEncodedLength++] = (byte)b;
 	}
 
     @Override
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Convert a response body into a typed object, the decoders are
+ * called on the request thread so the handler thread only receive the result.
+ * Implementations must be thread safe, one decoder can decode many responses at once.
+ * The {@link ObjectCache} share the results only between equal decoders, so decoders
+ * that override equals must be equal only when they produce the same results
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see TypedAsyncHttpResponse
+ * @see JsonResponseDecoder
+ */
+public interface ResponseDecoder<T> {
+
+    /**
+     * Decode the response body, the stream is closed by the caller
+     * @param body the response body
+     * @param charset the charset declared by the response or UTF-8
+     * @return the decoded object
+     * @throws IOException if the body can't be read or decoded
+     */
+    T decode(InputStream body, Charset charset) throws IOException;
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.security.cert.CertificateException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decide if a failed request is executed again and after how long.
+ * Only the idempotent requests are retried, by default GET, PUT and DELETE
+ * without a one shot body, after a network failure or a 408, 429, 502, 503 or 504 response.
+ * The delay is an exponential backoff with full jitter, a random time between zero
+ * and the initial backoff doubled on every retry, or the time of the Retry-After header.
+ * The retries wait on a timer, they don't hold a thread of the dispatcher
+ * and the handler receive a single start and finish for all the attempts.
+ * Subclasses can change the retried requests and the delays
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setRetryPolicy(RetryPolicy)
+ * @see Request.Builder#retryPolicy(RetryPolicy)
+ */
+public class RetryPolicy {
+
+    /** The default number of retries after the first attempt */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** The default backoff of the first retry in milliseconds */
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+
+    /** The default max backoff in milliseconds */
+    public static final long DEFAULT_MAX_BACKOFF = 30000;
+
+    /** Never retry the requests */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, TimeUnit.MILLISECONDS);
+
+    private final Random mRandom = new Random();
+
+    private final int mMaxRetries;
+
+    private final long mInitialBackoffMillis;
+
+    private final long mMaxBackoffMillis;
+
+    /** Construct a policy with the default retries and backoff */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Construct a new policy
+     * @param maxRetries the number of retries after the first attempt
+     * @param initialBackoff the max delay of the first retry
+     * @param maxBackoff the max delay of any retry, a longer Retry-After stop the retries
+     * @param unit the unit of the backoff
+     */
+    public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if(maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0: " + maxRetries);
+        if(initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("invalid backoff: " + initialBackoff + ", " + maxBackoff);
+        }
+        mMaxRetries = maxRetries;
+        mInitialBackoffMillis = unit.toMillis(initialBackoff);
+        mMaxBackoffMillis = unit.toMillis(maxBackoff);
+    }
+
+    /**
+     * @return the number of retries after the first attempt
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Called after every failed attempt of a request
+     * @param request the failed request
+     * @param retryCount the number of retries already done
+     * @param responseCode the response code or -1 if the request failed with an exception
+     * @param retryAfter the Retry-After header of the response or null
+     * @param error the failure of the request or null if the server answered
+     * @return the delay in milliseconds before the next attempt or -1 to not retry
+     */
+    public long getRetryDelay(Request request, int retryCount, int responseCode, String retryAfter,
+            IOException error) {
+        if(retryCount >= mMaxRetries || !isIdempotent(request)) return -1;
+        if(error != null ? !isRetryable(error) : !isRetryable(responseCode)) return -1;
+        long retryAfterMillis = parseRetryAfter(retryAfter);
+        if(retryAfterMillis >= 0) return retryAfterMillis <= mMaxBackoffMillis ? retryAfterMillis : -1;
+        long backoff = mInitialBackoffMillis << Math.min(retryCount, 30);
+        if(backoff < 0 || backoff > mMaxBackoffMillis) backoff = mMaxBackoffMillis;
+        return (long)(mRandom.nextDouble() * backoff);
+    }
+
+    /**
+     * @param request the failed request
+     * @return true if the request can be sent again without side effects
+     */
+    protected boolean isIdempotent(Request request) {
+        String method = request.getMethod();
+        if(!RequestMethod.GET.equals(method) && !RequestMethod.PUT.equals(method)
+                && !RequestMethod.DELETE.equals(method)) return false;
+        RequestBody body = request.getBody();
+        return body == null || RequestMethod.GET.equals(method) || !body.isOneShot();
+    }
+
+    /**
+     * @param responseCode the response code of the failed request
+     * @return true if the response is a transient failure
+     */
+    protected boolean isRetryable(int responseCode) {
+        switch(responseCode) {
+            case 408:
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param error the failure of the request
+     * @return true if the failure is transient, the protocol and certificate failures are not
+     */
+    protected boolean isRetryable(IOException error) {
+        if(error instanceof ProtocolException || error instanceof SSLPeerUnverifiedException) return false;
+        return !(error instanceof SSLHandshakeException && error.getCause() instanceof CertificateException);
+    }
+
+    /** The Retry-After delay in milliseconds, on seconds or on a HTTP date, or -1 if invalid */
+    private static long parseRetryAfter(String retryAfter) {
+        if(retryAfter == null) return -1;
+        retryAfter = retryAfter.trim();
+        try {
+            long seconds = Long.parseLong(retryAfter);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch(NumberFormatException e) {
+            long date = HttpCache.parseDate(retryAfter);
+            return date == -1 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+}
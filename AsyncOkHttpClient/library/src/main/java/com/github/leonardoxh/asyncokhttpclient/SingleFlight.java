@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Message;
+
+/**
+ * Coalesce the identical GET requests in flight on a single network request,
+ * the response body is read once and replayed to the handler of every call.
+ * The requests are identical when they have the same method, URL and headers.
+ * A canceled call leaves the shared request, the shared request is only
+ * canceled when all its calls were canceled
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see AsyncOkHttpClient#setCoalescingEnabled(boolean)
+ */
+final class SingleFlight {
+
+    private final Map<String, Flight> mFlights = new HashMap<String, Flight>();
+
+    /**
+     * Join the call to the identical request in flight or start a new shared request
+     * @param client the client to execute the shared request
+     * @param call the call that wait the response, never queued itself
+     * @return the new shared request to queue or null if the call joined a request in flight
+     */
+    synchronized AsyncHttpRequest join(OkHttpClient client, AsyncHttpRequest call) {
+        Request request = call.getRequest();
+        String key = key(request);
+        Flight flight = mFlights.get(key);
+        if(flight == null) {
+            flight = new Flight(key);
+            flight.mShared = new AsyncHttpRequest(client, flight, request.newBuilder().tag(null).build());
+            mFlights.put(key, flight);
+        }
+        flight.mCalls.add(call);
+        call.setFlight(flight);
+        return flight.mCalls.size() == 1 ? flight.mShared : null;
+    }
+
+    /**
+     * Cancel all the calls waiting a shared request with the given tag
+     * @param tag the tag of the calls to cancel
+     */
+    void cancelAll(Object tag) {
+        List<AsyncHttpRequest> calls = new ArrayList<AsyncHttpRequest>();
+        synchronized(this) {
+            for(Flight flight : mFlights.values()) {
+                for(AsyncHttpRequest call : flight.mCalls) {
+                    if(tag.equals(call.getRequest().getTag())) calls.add(call);
+                }
+            }
+        }
+        for(AsyncHttpRequest call : calls) {
+            call.cancel();
+        }
+    }
+
+    private static String key(Request request) {
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(request.getUrl());
+        for(int i = 0, size = request.getHeaderCount(); i < size; i++) {
+            key.append('\n').append(request.getHeaderName(i)).append(": ").append(request.getHeaderValue(i));
+        }
+        return key.toString();
+    }
+
+    /**
+     * The handler of a shared request, it buffer the decoded response body and
+     * deliver it to the calls, the messages of the shared request itself are dropped
+     */
+    final class Flight extends AsyncHttpResponse {
+
+        private final String mKey;
+
+        /** The calls waiting the response, guarded by the single flight lock */
+        private final List<AsyncHttpRequest> mCalls = new ArrayList<AsyncHttpRequest>();
+
+        private AsyncHttpRequest mShared;
+
+        Flight(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Remove a canceled call and cancel the shared request if it was the last call
+         * @param call the canceled call
+         * @return true if the call was still waiting the response
+         */
+        boolean leave(AsyncHttpRequest call) {
+            AsyncHttpRequest shared;
+            synchronized(SingleFlight.this) {
+                if(!mCalls.remove(call)) return false;
+                if(!mCalls.isEmpty()) return true;
+                if(mFlights.get(mKey) == this) mFlights.remove(mKey);
+                shared = mShared;
+            }
+            shared.cancel();
+            return true;
+        }
+
+        /** Stop new calls to join this request and return the calls waiting it */
+        private List<AsyncHttpRequest> close() {
+            synchronized(SingleFlight.this) {
+                if(mFlights.get(mKey) == this) mFlights.remove(mKey);
+                List<AsyncHttpRequest> calls = new ArrayList<AsyncHttpRequest>(mCalls);
+                mCalls.clear();
+                return calls;
+            }
+        }
+
+        @Override
+        protected void sendMessage(Message message) { }
+
+        @Override
+        protected void sendFailMessage(Throwable error, String content) {
+            for(AsyncHttpRequest call : close()) {
+                call.deliverShared(null, error);
+            }
+        }
+
+        /** Fail the calls still waiting if the shared request finished without a response */
+        @Override
+        protected void sendEndMessage() {
+            List<AsyncHttpRequest> calls = close();
+            if(calls.isEmpty()) return;
+            IOException error = new InterruptedIOException("shared request was not executed");
+            for(AsyncHttpRequest call : calls) {
+                call.deliverShared(null, error);
+            }
+        }
+
+        @Override
+        void sendResponseMessage(HttpURLConnection connection) {
+            InputStream response = null;
+            try {
+                int responseCode = connection.getResponseCode();
+                response = openResponseStream(connection, responseCode >= 300);
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                if(response != null) Util.copy(response, output);
+                byte[] body = output.toByteArray();
+                String[] headers = ReplayHttpURLConnection.readDecodedHeaders(connection, body.length);
+                for(AsyncHttpRequest call : close()) {
+                    call.deliverShared(new ReplayHttpURLConnection(connection.getURL(), responseCode,
+                            connection.getResponseMessage(), headers, new ByteArrayInputStream(body)), null);
+                }
+            } catch(IOException e) {
+                sendFailMessage(e, null);
+            } finally {
+                if(response != null) Util.closeQuietly(response);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.CountingInputStream;
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import android.os.Message;
+
+/**
+ * Handle the HttpURLConnection response without buffer the body,
+ * the body is handed over in chunks as it arrives so the memory used
+ * is the same for a body of 1KB or 1GB.
+ * Please note {@link #onStream(int, java.io.InputStream)} and {@link #onChunk(byte[], int)}
+ * are called on the request thread, all the others callbacks on the handler thread
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see #onChunk(byte[], int)
+ * @see #onSuccess(int, long)
+ */
+public class StreamingAsyncHttpResponse extends AsyncHttpResponse {
+
+	/** Indicate the response body was fully streamed */
+	protected static final int SUCCESS_STREAM = 9;
+
+	/** The size of the buffer given to onChunk */
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 8;
+
+	/**
+	 * Called on the request thread with the response body of a success response,
+	 * the default implementation read the body in chunks and give them to
+	 * {@link #onChunk(byte[], int)}, override it to consume the stream directly.
+	 * The stream is closed after this method returns
+	 * @param statusCode the status code of the request
+	 * @param body the response body
+	 * @throws IOException if the body can't be read, it is delivered on onError
+	 */
+	protected void onStream(int statusCode, InputStream body) throws IOException {
+		byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+		int count;
+		while((count = body.read(buffer)) != -1) {
+			onChunk(buffer, count);
+		}
+	}
+
+	/**
+	 * Called on the request thread for every chunk of the body,
+	 * the buffer is reused between the calls so copy what you need before return
+	 * @param buffer the buffer that holds the chunk
+	 * @param count the number of valid bytes on the buffer starting at 0
+	 * @throws IOException to abort the request, it is delivered on onError
+	 */
+	public void onChunk(byte[] buffer, int count) throws IOException { }
+
+	/**
+	 * Callback that indicate the response body was fully streamed
+	 * @param statusCode the status code of the request
+	 * @param contentLength the number of bytes streamed
+	 */
+	public void onSuccess(int statusCode, long contentLength) { }
+
+	/**
+	 * Handle the stream success message and call the callback
+	 * @param statusCode the status code of the request
+	 * @param contentLength the number of bytes streamed
+	 * @see #onSuccess(int, long)
+	 */
+	protected void handleSuccessStreamMessage(int statusCode, long contentLength) {
+		onSuccess(statusCode, contentLength);
+	}
+
+	@Override
+	public boolean handleMessage(Message message) {
+		switch(message.what) {
+			case SUCCESS_STREAM:
+				Object[] successResponse = (Object[])message.obj;
+				handleSuccessStreamMessage(((Integer)successResponse[0]).intValue(),
+						((Long)successResponse[1]).longValue());
+				return true;
+			default:
+				return super.handleMessage(message);
+		}
+	}
+
+	@Override
+	int getCacheableMessage() {
+		return -1;
+	}
+
+	@Override
+	void sendResponseMessage(HttpURLConnection connection) {
+		CountingInputStream response = null;
+		try {
+			int statusCode = connection.getResponseCode();
+			if(statusCode >= 300) {
+				super.sendResponseMessage(connection);
+				return;
+			}
+			InputStream body = openResponseStream(connection, false);
+			/* A response without body, like a 204, is streamed as an empty body */
+			response = new CountingInputStream(body != null ? body : new ByteArrayInputStream(new byte[0]));
+			onStream(statusCode, response);
+			sendMessage(obtainMessage(SUCCESS_STREAM, new Object[] {statusCode(statusCode), response.getCount()}));
+		} catch(IOException e) {
+			sendFailMessage(e, (String)null);
+		} finally {
+			if(response != null) Util.closeQuietly(response);
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import android.os.Message;
+
+/**
+ * Handle the HttpURLConnection response decoding it with a {@link ResponseDecoder},
+ * the body is decoded on the request thread directly from the connection
+ * and only the decoded object reach the handler thread
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ * @see #onSuccess(int, Object)
+ * @see JsonResponseDecoder
+ */
+public class TypedAsyncHttpResponse<T> extends AsyncHttpResponse {
+
+	/** Indicate the response was decoded with success */
+	protected static final int SUCCESS_TYPED = 12;
+
+	/** The kind of the results of every decoder in use, equal decoders have the same kind */
+	private static final Map<ResponseDecoder<?>, String> sKinds = new WeakHashMap<ResponseDecoder<?>, String>();
+
+	/** The number of kinds created, guarded by sKinds */
+	private static int sKindCount;
+
+	/** The decoder of the success responses */
+	private final ResponseDecoder<T> mDecoder;
+
+	/**
+	 * Construct a new instance of TypedAsyncHttpResponse
+	 * @param decoder the decoder of the success responses, can't be null
+	 */
+	public TypedAsyncHttpResponse(ResponseDecoder<T> decoder) {
+		if(decoder == null) throw new NullPointerException("decoder can't be null");
+		mDecoder = decoder;
+	}
+
+	/**
+	 * @return the decoder of the success responses
+	 */
+	public ResponseDecoder<T> getDecoder() {
+		return mDecoder;
+	}
+
+	/**
+	 * Callback that indicate the response was decoded with success
+	 * @param statusCode the status code of this request
+	 * @param result the decoded response
+	 */
+	public void onSuccess(int statusCode, T result) { }
+
+	/**
+	 * Handle the success message and call the callback
+	 * @param statusCode the status code of the request
+	 * @param result the decoded response
+	 * @see #onSuccess(int, Object)
+	 */
+	protected void handleSuccessTypedMessage(int statusCode, T result) {
+		onSuccess(statusCode, result);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean handleMessage(Message message) {
+		switch(message.what) {
+			case SUCCESS_TYPED:
+				Object[] successResponse = (Object[])message.obj;
+				handleSuccessTypedMessage(((Integer)successResponse[0]).intValue(), (T)successResponse[1]);
+				return true;
+			default:
+				return super.handleMessage(message);
+		}
+	}
+
+	@Override
+	int getCacheableMessage() {
+		return SUCCESS_TYPED;
+	}
+
+	@Override
+	boolean isDecodeOffloaded() {
+		return true;
+	}
+
+	@Override
+	String getObjectCacheKind() {
+		synchronized(sKinds) {
+			String kind = sKinds.get(mDecoder);
+			if(kind == null) {
+				kind = SUCCESS_TYPED + ":" + mDecoder.getClass().getName() + "#" + sKindCount++;
+				sKinds.put(mDecoder, kind);
+			}
+			return kind;
+		}
+	}
+
+	@Override
+	void sendResponseMessage(HttpURLConnection connection) {
+		InputStream response = null;
+		try {
+			int statusCode = connection.getResponseCode();
+			if(statusCode >= 300) {
+				super.sendResponseMessage(connection);
+				return;
+			}
+			response = openResponseStream(connection, false);
+			T result = mDecoder.decode(response, Util.getCharset(connection.getContentType()));
+			sendMessage(obtainMessage(SUCCESS_TYPED, new Object[] {statusCode(statusCode), result}));
+		} catch(IOException e) {
+			sendFailMessage(e, (String)null);
+		} finally {
+			if(response != null) Util.closeQuietly(response);
+		}
+	}
+
+}
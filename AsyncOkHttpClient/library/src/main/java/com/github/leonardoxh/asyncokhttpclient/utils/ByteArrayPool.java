@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+/**
+ * Thread safe pool of byte arrays with the same size, used to read
+ * the responses without allocate new buffers on every request.
+ * The pool never holds more than the given number of buffers,
+ * buffers returned when the pool is full are left to the GC
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class ByteArrayPool {
+
+    /** The size of every buffer of this pool */
+    private final int mBufferSize;
+
+    /** The buffers available, the valid ones are on 0 until mCount */
+    private final byte[][] mBuffers;
+
+    private int mCount;
+
+    /**
+     * Construct a new instance of ByteArrayPool
+     * @param bufferSize the size of every buffer
+     * @param maxBuffers the max number of buffers held by the pool
+     */
+    public ByteArrayPool(int bufferSize, int maxBuffers) {
+        mBufferSize = bufferSize;
+        mBuffers = new byte[maxBuffers][];
+    }
+
+    /**
+     * @return the size of the buffers of this pool
+     */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Take a buffer from the pool or allocate a new one if the pool is empty,
+     * the content of the buffer is undefined
+     * @return a buffer with {@link #getBufferSize()} bytes
+     */
+    public byte[] acquire() {
+        synchronized(this) {
+            if(mCount > 0) {
+                byte[] buffer = mBuffers[--mCount];
+                mBuffers[mCount] = null;
+                return buffer;
+            }
+        }
+        return new byte[mBufferSize];
+    }
+
+    /**
+     * Return a buffer to the pool, the buffer must not be used after this
+     * @param buffer a buffer taken from {@link #acquire()}, buffers with another size are ignored
+     */
+    public void release(byte[] buffer) {
+        if(buffer == null || buffer.length != mBufferSize) return;
+        synchronized(this) {
+            if(mCount < mBuffers.length) mBuffers[mCount++] = buffer;
+        }
+    }
+
+}
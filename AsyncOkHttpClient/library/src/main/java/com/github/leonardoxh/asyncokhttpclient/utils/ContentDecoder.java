@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Decode the gzip and deflate Content-Encoding of the responses as a stream,
+ * the Inflater instances are pooled and reused between the requests
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class ContentDecoder {
+
+    /** The value of the Accept-Encoding header for the supported encodings */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /** Max number of idle inflaters kept by each pool */
+    private static final int MAX_POOLED_INFLATERS = 8;
+
+    /** The size of the compressed input buffer */
+    private static final int BUFFER_SIZE = 1024 * 8;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    /** Inflaters for raw deflate data, used by gzip and raw deflate */
+    private static final Inflater[] sRawInflaters = new Inflater[MAX_POOLED_INFLATERS];
+
+    private static int sRawCount;
+
+    /** Inflaters for zlib wrapped data, the standard deflate encoding */
+    private static final Inflater[] sZlibInflaters = new Inflater[MAX_POOLED_INFLATERS];
+
+    private static int sZlibCount;
+
+    /** No instances */
+    private ContentDecoder() { }
+
+    /**
+     * @param contentEncoding the Content-Encoding header of a response or null
+     * @return true if the encoding is decoded by {@link #decode(java.io.InputStream, String)}
+     */
+    public static boolean isSupported(String contentEncoding) {
+        return "gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)
+                || "deflate".equalsIgnoreCase(contentEncoding);
+    }
+
+    /**
+     * Wrap the response body on a stream that decode the given encoding,
+     * closing the returned stream return the Inflater to the pool
+     * @param source the encoded body
+     * @param contentEncoding the Content-Encoding header of the response or null
+     * @return the decoded stream or the source itself if the encoding is not supported
+     * @throws IOException if the gzip header can't be read
+     */
+    public static InputStream decode(InputStream source, String contentEncoding) throws IOException {
+        if(!isSupported(contentEncoding)) return source;
+        if("deflate".equalsIgnoreCase(contentEncoding)) {
+            BufferedInputStream buffered = new BufferedInputStream(source, 2);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflatingInputStream(buffered, !zlib, false);
+        }
+        readGzipHeader(source);
+        return new InflatingInputStream(source, true, true);
+    }
+
+    private static void readGzipHeader(InputStream source) throws IOException {
+        if(readShort(source) != GZIP_MAGIC) throw new ZipException("Not in GZIP format");
+        if(readByte(source) != 8) throw new ZipException("Unsupported compression method");
+        int flags = readByte(source);
+        skip(source, 6);
+        if((flags & FEXTRA) != 0) skip(source, readShort(source));
+        if((flags & FNAME) != 0) {
+            while(readByte(source) != 0) { }
+        }
+        if((flags & FCOMMENT) != 0) {
+            while(readByte(source) != 0) { }
+        }
+        if((flags & FHCRC) != 0) skip(source, 2);
+    }
+
+    private static int readByte(InputStream source) throws IOException {
+        int result = source.read();
+        if(result == -1) throw new EOFException("Unexpected end of GZIP stream");
+        return result;
+    }
+
+    private static int readShort(InputStream source) throws IOException {
+        return readByte(source) | (readByte(source) << 8);
+    }
+
+    private static long readInt(InputStream source) throws IOException {
+        return (readShort(source) | ((long)readShort(source) << 16)) & 0xffffffffL;
+    }
+
+    private static void skip(InputStream source, int count) throws IOException {
+        for(int i = 0; i < count; i++) {
+            readByte(source);
+        }
+    }
+
+    private static synchronized Inflater obtainInflater(boolean nowrap) {
+        if(nowrap && sRawCount > 0) {
+            Inflater inflater = sRawInflaters[--sRawCount];
+            sRawInflaters[sRawCount] = null;
+            return inflater;
+        }
+        if(!nowrap && sZlibCount > 0) {
+            Inflater inflater = sZlibInflaters[--sZlibCount];
+            sZlibInflaters[sZlibCount] = null;
+            return inflater;
+        }
+        return new Inflater(nowrap);
+    }
+
+    private static void recycleInflater(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        synchronized(ContentDecoder.class) {
+            if(nowrap && sRawCount < MAX_POOLED_INFLATERS) {
+                sRawInflaters[sRawCount++] = inflater;
+                return;
+            }
+            if(!nowrap && sZlibCount < MAX_POOLED_INFLATERS) {
+                sZlibInflaters[sZlibCount++] = inflater;
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /** Inflate the body with a pooled Inflater and verify the gzip trailer if any */
+    private static final class InflatingInputStream extends InflaterInputStream {
+
+        private final boolean mNowrap;
+
+        /** Verify the CRC and size of the gzip trailer */
+        private final CRC32 mCrc;
+
+        private boolean mTrailerRead;
+
+        private boolean mClosed;
+
+        InflatingInputStream(InputStream source, boolean nowrap, boolean gzip) {
+            super(source, obtainInflater(nowrap), BUFFER_SIZE);
+            mNowrap = nowrap;
+            mCrc = gzip ? new CRC32() : null;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if(mClosed) throw new IOException("Stream closed");
+            int result = super.read(buffer, offset, count);
+            if(mCrc == null) return result;
+            if(result > 0) mCrc.update(buffer, offset, result);
+            if(result == -1 && !mTrailerRead) readTrailer();
+            return result;
+        }
+
+        /** Read the 8 bytes after the deflate data, part of them can be on the input buffer */
+        private void readTrailer() throws IOException {
+            mTrailerRead = true;
+            int remaining = inf.getRemaining();
+            InputStream trailer = in;
+            if(remaining > 0) {
+                trailer = new SequenceInputStream(new ByteArrayInputStream(buf, len - remaining, remaining), in);
+            }
+            if(readInt(trailer) != mCrc.getValue()) throw new ZipException("Corrupt GZIP trailer");
+            if(readInt(trailer) != (inf.getBytesWritten() & 0xffffffffL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(mClosed) return;
+            mClosed = true;
+            recycleInflater(inf, mNowrap);
+            super.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that count the bytes read from the wrapped stream
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    /** The number of bytes read so far, written by the reading thread and read by any thread */
+    private volatile long mCount;
+
+    /**
+     * Construct a new instance of CountingInputStream
+     * @param source the stream to count, can't be null
+     */
+    public CountingInputStream(InputStream source) {
+        super(source);
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if(result != -1) mCount++;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int result = super.read(buffer, offset, count);
+        if(result != -1) mCount += result;
+        return result;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long result = super.skip(count);
+        mCount += result;
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+}
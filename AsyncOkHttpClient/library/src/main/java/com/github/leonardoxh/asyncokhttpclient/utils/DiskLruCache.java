@@ -0,0 +1,574 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Size bounded LRU cache of files on a directory, every entry has a
+ * metadata file and a data file. The operations are recorded on a journal
+ * and the entry files are written on temporary files renamed only on commit,
+ * so after a crash the entries not committed are discarded when the cache is opened.
+ * The journal lines are:
+ * <pre>
+ * DIRTY key          an edit started
+ * CLEAN key size     an edit was committed, the entry is readable
+ * REMOVE key         the entry was removed or the edit of a new entry aborted
+ * READ key           the entry was read, used to keep the LRU order
+ * </pre>
+ * Keys must match [a-z0-9_-]{1,64}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class DiskLruCache {
+
+    private static final String JOURNAL = "journal";
+
+    private static final String JOURNAL_TMP = "journal.tmp";
+
+    private static final String MAGIC = "com.github.leonardoxh.asyncokhttpclient.DiskLruCache";
+
+    private static final String VERSION = "1";
+
+    private static final String DIRTY = "DIRTY";
+
+    private static final String CLEAN = "CLEAN";
+
+    private static final String REMOVE = "REMOVE";
+
+    private static final String READ = "READ";
+
+    /** Journal lines that don't represent an entry before the journal is rewritten */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+
+    private final long mMaxSize;
+
+    private long mSize;
+
+    /** The entries on access order, the eldest is the first evicted */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+    private Writer mJournal;
+
+    private int mRedundantOpCount;
+
+    private DiskLruCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Open the cache on the given directory, creating it if needed.
+     * A corrupted journal is discarded with all the entries of the directory
+     * @param directory the directory of the cache, used only by this cache
+     * @param maxSize the max bytes of the entries
+     * @return the opened cache
+     * @throws IOException if the directory can't be read or written
+     */
+    public static DiskLruCache open(File directory, long maxSize) throws IOException {
+        if(maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create the cache directory " + directory);
+        }
+        DiskLruCache cache = new DiskLruCache(directory, maxSize);
+        File journal = new File(directory, JOURNAL);
+        if(journal.exists()) {
+            try {
+                boolean truncated = cache.readJournal(journal);
+                cache.processJournal();
+                if(truncated) {
+                    cache.rebuildJournal();
+                } else {
+                    cache.mJournal = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(journal, true), Util.DEFAULT_CHARSET));
+                }
+                return cache;
+            } catch(IOException e) {
+                cache.mEntries.clear();
+                cache.mSize = 0;
+                deleteContents(directory);
+            }
+        }
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * Read the journal, the last line can be incomplete if the process died while writing it
+     * @return true if the last line was incomplete and the journal must be rebuilt
+     * before append to it
+     */
+    private boolean readJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), Util.DEFAULT_CHARSET));
+        try {
+            if(!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            int lineCount = 0;
+            String line = reader.readLine();
+            while(line != null) {
+                String next = reader.readLine();
+                try {
+                    readJournalLine(line);
+                } catch(IOException e) {
+                    if(next != null) throw e;
+                    return true;
+                }
+                lineCount++;
+                line = next;
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+            return !endsWithNewline(journal);
+        } finally {
+            Util.closeQuietly(reader);
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if(parts.length < 2) throw new IOException("Unexpected journal line " + line);
+        String key = parts[1];
+        if(REMOVE.equals(parts[0]) && parts.length == 2) {
+            mEntries.remove(key);
+            return;
+        }
+        Entry entry = mEntries.get(key);
+        if(entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+        if(CLEAN.equals(parts[0]) && parts.length == 3) {
+            try {
+                entry.mSize = Long.parseLong(parts[2]);
+            } catch(NumberFormatException e) {
+                throw new IOException("Unexpected journal line " + line);
+            }
+            entry.mReadable = true;
+            entry.mEditing = false;
+        } else if(DIRTY.equals(parts[0]) && parts.length == 2) {
+            entry.mEditing = true;
+        } else if(!READ.equals(parts[0]) || parts.length != 2) {
+            throw new IOException("Unexpected journal line " + line);
+        }
+    }
+
+    /** Compute the sizes and discard the entries that were being edited when the process died */
+    private void processJournal() {
+        deleteIfExists(new File(mDirectory, JOURNAL_TMP));
+        for(Iterator<Entry> i = mEntries.values().iterator(); i.hasNext();) {
+            Entry entry = i.next();
+            if(entry.mEditing || !entry.getMetadataFile().exists() || !entry.getDataFile().exists()) {
+                entry.deleteFiles();
+                i.remove();
+            } else {
+                entry.mSize = entry.getMetadataFile().length() + entry.getDataFile().length();
+                mSize += entry.mSize;
+            }
+        }
+        File[] files = mDirectory.listFiles();
+        if(files == null) return;
+        for(File file : files) {
+            if(file.getName().endsWith(".tmp")) deleteIfExists(file);
+        }
+    }
+
+    /** Write a new journal with only the current entries and replace the old one */
+    private synchronized void rebuildJournal() throws IOException {
+        if(mJournal != null) Util.closeQuietly(mJournal);
+        File tmp = new File(mDirectory, JOURNAL_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), Util.DEFAULT_CHARSET));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for(Entry entry : mEntries.values()) {
+                if(entry.mEditing) {
+                    writer.write(DIRTY + ' ' + entry.mKey + '\n');
+                } else {
+                    writer.write(CLEAN + ' ' + entry.mKey + ' ' + entry.mSize + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        File journal = new File(mDirectory, JOURNAL);
+        if(!tmp.renameTo(journal) && (!journal.delete() || !tmp.renameTo(journal))) {
+            throw new IOException("Can't replace the journal " + journal);
+        }
+        mJournal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), Util.DEFAULT_CHARSET));
+        mRedundantOpCount = 0;
+    }
+
+    /**
+     * Return the entry with the given key if it is readable. The files are opened out of
+     * the cache lock, so a virtual thread opening them doesn't pin its carrier thread, and
+     * opened again if an edit or eviction replaced them meanwhile, so both files are
+     * always of the same version
+     * @param key the entry key
+     * @return the entry, it must be closed, or null if it doesn't exist
+     * @throws IOException if the journal can't be written
+     */
+    public Snapshot get(String key) throws IOException {
+        while(true) {
+            Entry entry;
+            long sequenceNumber;
+            synchronized(this) {
+                checkNotClosed();
+                entry = mEntries.get(key);
+                if(entry == null || !entry.mReadable) return null;
+                sequenceNumber = entry.mSequenceNumber;
+            }
+            InputStream metadata = null;
+            InputStream data = null;
+            try {
+                metadata = new FileInputStream(entry.getMetadataFile());
+                data = new FileInputStream(entry.getDataFile());
+            } catch(FileNotFoundException ignored) { }
+            boolean changed;
+            synchronized(this) {
+                /* A closed cache is seen as a change, the next loop throw */
+                changed = mJournal == null || mEntries.get(key) != entry || entry.mSequenceNumber != sequenceNumber;
+                if(!changed && data != null) {
+                    mRedundantOpCount++;
+                    mJournal.write(READ + ' ' + key + '\n');
+                    return new Snapshot(metadata, data, entry.mSize);
+                }
+            }
+            if(metadata != null) Util.closeQuietly(metadata);
+            if(data != null) Util.closeQuietly(data);
+            /* The files were deleted by someone else */
+            if(!changed) return null;
+        }
+    }
+
+    /**
+     * Start an edit of the given entry
+     * @param key the entry key
+     * @return the editor or null if the entry is already being edited
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized Editor edit(String key) throws IOException {
+        checkNotClosed();
+        Entry entry = mEntries.get(key);
+        if(entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        } else if(entry.mEditing) {
+            return null;
+        }
+        entry.mEditing = true;
+        writeJournal(DIRTY + ' ' + key + '\n');
+        return new Editor(entry);
+    }
+
+    /**
+     * Remove the given entry, an entry being edited is not removed
+     * @param key the entry key
+     * @return true if the entry was removed
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        Entry entry = mEntries.get(key);
+        if(entry == null || entry.mEditing) return false;
+        entry.deleteFiles();
+        mSize -= entry.mSize;
+        mEntries.remove(key);
+        mRedundantOpCount++;
+        writeJournal(REMOVE + ' ' + key + '\n');
+        return true;
+    }
+
+    /**
+     * @return the bytes used by the readable entries
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return the max bytes of the entries
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Remove all the entries that are not being edited
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized void evictAll() throws IOException {
+        List<String> keys = new ArrayList<String>(mEntries.keySet());
+        for(String key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Close the journal, the cache can't be used after this
+     * @throws IOException if the journal can't be closed
+     */
+    public synchronized void close() throws IOException {
+        if(mJournal == null) return;
+        mJournal.close();
+        mJournal = null;
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.mEntry;
+        File metadata = entry.getMetadataFile();
+        File data = entry.getDataFile();
+        File metadataTmp = entry.getTmpFile(metadata);
+        File dataTmp = entry.getTmpFile(data);
+        entry.mEditing = false;
+        if(mJournal == null) success = false;
+        if(success && !metadataTmp.exists()) success = false;
+        if(success && !dataTmp.exists() && !data.exists()) success = false;
+        /* The files of the entry are only touched by a commit that reached the rename */
+        boolean replaced = success;
+        if(success) {
+            entry.mSequenceNumber++;
+            success = rename(metadataTmp, metadata) && (!dataTmp.exists() || rename(dataTmp, data));
+        }
+        deleteIfExists(metadataTmp);
+        deleteIfExists(dataTmp);
+        if(mJournal == null) return;
+        mRedundantOpCount++;
+        if(success) {
+            long size = metadata.length() + data.length();
+            mSize += size - entry.mSize;
+            entry.mSize = size;
+            entry.mReadable = true;
+            writeJournal(CLEAN + ' ' + entry.mKey + ' ' + size + '\n');
+        } else if(entry.mReadable && !replaced) {
+            /* An aborted edit keeps the previous version of the entry */
+            writeJournal(CLEAN + ' ' + entry.mKey + ' ' + entry.mSize + '\n');
+        } else {
+            if(entry.mReadable) mSize -= entry.mSize;
+            entry.deleteFiles();
+            mEntries.remove(entry.mKey);
+            writeJournal(REMOVE + ' ' + entry.mKey + '\n');
+        }
+        mJournal.flush();
+        trimToSize();
+        if(mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void trimToSize() throws IOException {
+        if(mSize <= mMaxSize) return;
+        List<String> eldest = new ArrayList<String>();
+        long size = mSize;
+        for(Entry entry : mEntries.values()) {
+            if(size <= mMaxSize) break;
+            if(entry.mEditing || !entry.mReadable) continue;
+            eldest.add(entry.mKey);
+            size -= entry.mSize;
+        }
+        for(String key : eldest) {
+            remove(key);
+        }
+    }
+
+    private void writeJournal(String line) throws IOException {
+        mJournal.write(line);
+        mJournal.flush();
+    }
+
+    private void checkNotClosed() {
+        if(mJournal == null) throw new IllegalStateException("cache is closed");
+    }
+
+    private static boolean rename(File from, File to) {
+        return from.renameTo(to) || (to.delete() && from.renameTo(to));
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if(input.length() == 0) return false;
+            input.seek(input.length() - 1);
+            return input.read() == '\n';
+        } finally {
+            Util.closeQuietly(input);
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if(file.exists()) file.delete();
+    }
+
+    private static void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if(files == null) return;
+        for(File file : files) {
+            if(file.isFile()) file.delete();
+        }
+    }
+
+    /** The state of an entry, guarded by the cache lock */
+    private final class Entry {
+
+        final String mKey;
+
+        long mSize;
+
+        /** True if the entry was committed at least once */
+        boolean mReadable;
+
+        boolean mEditing;
+
+        /** Incremented every time a commit replace the files */
+        long mSequenceNumber;
+
+        Entry(String key) {
+            mKey = key;
+        }
+
+        File getMetadataFile() {
+            return new File(mDirectory, mKey + ".0");
+        }
+
+        File getDataFile() {
+            return new File(mDirectory, mKey + ".1");
+        }
+
+        File getTmpFile(File file) {
+            return new File(mDirectory, file.getName() + ".tmp");
+        }
+
+        void deleteFiles() {
+            deleteIfExists(getMetadataFile());
+            deleteIfExists(getDataFile());
+        }
+
+    }
+
+    /** The opened files of a readable entry at the time it was read */
+    public static final class Snapshot implements Closeable {
+
+        private final InputStream mMetadata;
+
+        private final InputStream mData;
+
+        private final long mSize;
+
+        Snapshot(InputStream metadata, InputStream data, long size) {
+            mMetadata = metadata;
+            mData = data;
+            mSize = size;
+        }
+
+        /**
+         * @return the metadata stream, closed by {@link #close()}
+         */
+        public InputStream getMetadata() {
+            return mMetadata;
+        }
+
+        /**
+         * @return the data stream, closed by {@link #close()}
+         */
+        public InputStream getData() {
+            return mData;
+        }
+
+        /**
+         * @return the bytes of the entry
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * Close both streams of the entry
+         */
+        @Override
+        public void close() {
+            Util.closeQuietly(mMetadata);
+            Util.closeQuietly(mData);
+        }
+
+    }
+
+    /**
+     * Edit an entry writing its files on temporary files, an editor must
+     * always be completed with {@link #commit()} or {@link #abort()}
+     */
+    public final class Editor {
+
+        private final Entry mEntry;
+
+        private boolean mDone;
+
+        Editor(Entry entry) {
+            mEntry = entry;
+        }
+
+        /**
+         * @return the temporary metadata file, required on commit
+         */
+        public File getMetadataFile() {
+            return mEntry.getTmpFile(mEntry.getMetadataFile());
+        }
+
+        /**
+         * @return the temporary data file, if it is not written the current data is kept
+         */
+        public File getDataFile() {
+            return mEntry.getTmpFile(mEntry.getDataFile());
+        }
+
+        /**
+         * Publish the written files
+         * @throws IOException if the journal can't be written
+         */
+        public void commit() throws IOException {
+            if(mDone) return;
+            mDone = true;
+            completeEdit(this, true);
+        }
+
+        /**
+         * Discard the written files, a readable entry keeps its previous version
+         * @throws IOException if the journal can't be written
+         */
+        public void abort() throws IOException {
+            if(mDone) return;
+            mDone = true;
+            completeEdit(this, false);
+        }
+
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull parser that read JSON directly from a stream, the values are
+ * returned as the same types of the org.json JSONTokener (JSONObject, JSONArray,
+ * String, Integer, Long, Double, Boolean and JSONObject.NULL) but the
+ * stream is never buffered whole, arrays and objects can be consumed
+ * element by element with {@link #beginArray()}, {@link #beginObject()},
+ * {@link #hasNext()}, {@link #nextName()} and {@link #nextValue()}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class JsonStreamParser {
+
+    /** Mark the end of the stream */
+    private static final int EOF = -1;
+
+    /** Max nested objects and arrays, protects the stack from hostile bodies */
+    private static final int MAX_DEPTH = 512;
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[1024 * 4];
+
+    private int mPosition;
+
+    private int mLimit;
+
+    /** Reused to read the strings and numbers */
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    private int mDepth;
+
+    /**
+     * Construct a new parser that decode the stream with the given charset
+     * @param source the stream to parse
+     * @param charset the charset of the stream
+     */
+    public JsonStreamParser(InputStream source, Charset charset) {
+        this(new InputStreamReader(source, charset));
+    }
+
+    /**
+     * Construct a new parser that read the given reader
+     * @param reader the reader to parse
+     */
+    public JsonStreamParser(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Return the next meaningful character without consume it
+     * @return the next non whitespace character or -1 at the end of the stream
+     * @throws IOException if the stream can't be read
+     */
+    public int peek() throws IOException {
+        while(true) {
+            if(mPosition == mLimit && !fillBuffer()) return EOF;
+            char c = mBuffer[mPosition];
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r') return c;
+            mPosition++;
+        }
+    }
+
+    /**
+     * Consume the start of an array
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the next value is not an array
+     */
+    public void beginArray() throws IOException, JSONException {
+        expect('[');
+        enter();
+    }
+
+    /**
+     * Consume the start of an object
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the next value is not an object
+     */
+    public void beginObject() throws IOException, JSONException {
+        expect('{');
+        enter();
+    }
+
+    /**
+     * Return true if the current array or object has more elements, the separator
+     * between the elements is consumed by this method
+     * @return true if there is one more element to read with {@link #nextValue()}
+     * or {@link #nextName()} for objects
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the array or object is malformed
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        int c = peek();
+        if(c == ']' || c == '}') return false;
+        if(c == EOF) throw new JSONException("End of input");
+        if(c == ',') {
+            mPosition++;
+            c = peek();
+            if(c == ']' || c == '}') throw new JSONException("Unexpected " + describe(c) + " after ,");
+        }
+        return true;
+    }
+
+    /**
+     * Read the name of the next member of the current object
+     * @return the member name, its value must be read next
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the next token is not a name
+     */
+    public String nextName() throws IOException, JSONException {
+        if(peek() != '"') throw new JSONException("Expected a name at " + describeNext());
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consume the end of an object
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the object doesn't end here
+     */
+    public void endObject() throws IOException, JSONException {
+        expect('}');
+        mDepth--;
+    }
+
+    /**
+     * Consume the end of an array
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the array doesn't end here
+     */
+    public void endArray() throws IOException, JSONException {
+        expect(']');
+        mDepth--;
+    }
+
+    /**
+     * Read the next complete value
+     * @return the value read
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the value is malformed
+     */
+    public Object nextValue() throws IOException, JSONException {
+        int c = peek();
+        switch(c) {
+            case EOF:
+                throw new JSONException("End of input");
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            default:
+                return readLiteral();
+        }
+    }
+
+    private JSONObject readObject() throws IOException, JSONException {
+        expect('{');
+        enter();
+        JSONObject result = new JSONObject();
+        if(peek() == '}') {
+            mPosition++;
+            mDepth--;
+            return result;
+        }
+        while(true) {
+            String name = nextName();
+            result.put(name, nextValue());
+            int c = peek();
+            mPosition++;
+            if(c == '}') break;
+            if(c != ',') throw new JSONException("Expected , or } but was " + describe(c));
+        }
+        mDepth--;
+        return result;
+    }
+
+    private JSONArray readArray() throws IOException, JSONException {
+        expect('[');
+        enter();
+        JSONArray result = new JSONArray();
+        if(peek() == ']') {
+            mPosition++;
+            mDepth--;
+            return result;
+        }
+        while(true) {
+            result.put(nextValue());
+            int c = peek();
+            mPosition++;
+            if(c == ']') break;
+            if(c != ',') throw new JSONException("Expected , or ] but was " + describe(c));
+        }
+        mDepth--;
+        return result;
+    }
+
+    private String readString() throws IOException, JSONException {
+        expect('"');
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        while(true) {
+            int start = mPosition;
+            while(mPosition < mLimit) {
+                char c = mBuffer[mPosition];
+                if(c == '"' || c == '\\') break;
+                mPosition++;
+            }
+            builder.append(mBuffer, start, mPosition - start);
+            if(mPosition == mLimit) {
+                if(!fillBuffer()) throw new JSONException("Unterminated string");
+                continue;
+            }
+            char c = mBuffer[mPosition++];
+            if(c == '"') return builder.toString();
+            builder.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException, JSONException {
+        int c = read();
+        switch(c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int result = 0;
+                for(int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if(digit == -1) throw new JSONException("Invalid unicode escape");
+                    result = (result << 4) | digit;
+                }
+                return (char)result;
+            case '"':
+            case '\\':
+            case '/':
+                return (char)c;
+            default:
+                throw new JSONException("Invalid escape " + describe(c));
+        }
+    }
+
+    private Object readLiteral() throws IOException, JSONException {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        while(true) {
+            if(mPosition == mLimit && !fillBuffer()) break;
+            char c = mBuffer[mPosition];
+            if(c == ',' || c == ']' || c == '}' || c == ':' || c == ' '
+                    || c == '\t' || c == '\n' || c == '\r') break;
+            builder.append(c);
+            mPosition++;
+        }
+        if(builder.length() == 0) throw new JSONException("Expected a value at " + describeNext());
+        String literal = builder.toString();
+        if("true".equals(literal)) return Boolean.TRUE;
+        if("false".equals(literal)) return Boolean.FALSE;
+        if("null".equals(literal)) return JSONObject.NULL;
+        try {
+            if(literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+                long value = Long.parseLong(literal);
+                if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return Integer.valueOf((int)value);
+                return Long.valueOf(value);
+            }
+        } catch(NumberFormatException ignored) { }
+        try {
+            return Double.valueOf(literal);
+        } catch(NumberFormatException e) {
+            throw new JSONException("Invalid literal " + literal);
+        }
+    }
+
+    private void enter() throws JSONException {
+        if(++mDepth > MAX_DEPTH) throw new JSONException("Nesting too deep");
+    }
+
+    private void expect(char expected) throws IOException, JSONException {
+        int c = peek();
+        if(c != expected) throw new JSONException("Expected " + expected + " but was " + describe(c));
+        mPosition++;
+    }
+
+    private int read() throws IOException {
+        if(mPosition == mLimit && !fillBuffer()) return EOF;
+        return mBuffer[mPosition++];
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        mPosition = 0;
+        mLimit = count == EOF ? 0 : count;
+        return mLimit > 0;
+    }
+
+    private String describeNext() throws IOException {
+        return describe(peek());
+    }
+
+    private static String describe(int c) {
+        return c == EOF ? "end of input" : String.valueOf((char)c);
+    }
+
+}
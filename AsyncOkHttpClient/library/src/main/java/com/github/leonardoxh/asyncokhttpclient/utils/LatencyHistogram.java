@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with fixed memory, every power of two
+ * is split on 8 linear buckets so the percentiles have an error under 7%.
+ * Recording is lock free and doesn't allocate
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The latencies are capped to 2^40 microseconds, about 12 days */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+        if(micros < 0) micros = 0;
+        if(micros > MAX_VALUE) micros = MAX_VALUE;
+        mCounts.incrementAndGet(index(micros));
+        long max = mMax.get();
+        while(micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * @return a copy of the current counts
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, mMax.get());
+    }
+
+    private static int index(long value) {
+        if(value < SUB_BUCKETS) return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** The middle value of a bucket */
+    private static long value(int index) {
+        if(index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    /** The counts of a histogram at a moment */
+    public static final class Snapshot {
+
+        private final long[] mCounts;
+
+        private final long mTotal;
+
+        private final long mMax;
+
+        Snapshot(long[] counts, long total, long max) {
+            mCounts = counts;
+            mTotal = total;
+            mMax = max;
+        }
+
+        /**
+         * @return the number of recorded latencies
+         */
+        public long getCount() {
+            return mTotal;
+        }
+
+        /**
+         * @return the max recorded latency in microseconds
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 100, like 99.9
+         * @return the latency in microseconds or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if(mTotal == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(percentile / 100 * mTotal));
+            long seen = 0;
+            for(int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if(seen >= rank) return Math.min(value(i), mMax);
+            }
+            return mMax;
+        }
+
+    }
+
+}
@@ -17,9 +17,9 @@ package com.github.leonardoxh.asyncokhttpclient.utils;
 
 /**
  * Class that hold the supported request methods on this library
- * on the most use cases to be used with {@code com.opens.asyncokhttpclient.RequestModel}
+ * on the most use cases to be used with {@code com.github.leonardoxh.asyncokhttpclient.Request}
  * @author Leonardo Rossetto <leonardoxh@gmail.com>
- * @see com.github.leonardoxh.asyncokhttpclient.RequestModel
+ * @see com.github.leonardoxh.asyncokhttpclient.Request
  */
 public final class RequestMethod {
 
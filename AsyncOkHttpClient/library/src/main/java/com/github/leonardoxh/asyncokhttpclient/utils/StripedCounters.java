@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed group of counters updated without locks by many threads,
+ * every thread add to its own stripe of cells so the threads rarely share
+ * a cache line, the value of a counter is the sum of its stripes
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class StripedCounters {
+
+    /** The longs of a cache line */
+    private static final int CACHE_LINE_LONGS = 8;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray mCells;
+
+    private final int mCount;
+
+    /** The cells of a stripe, the counters rounded up to whole cache lines */
+    private final int mStride;
+
+    /**
+     * @param count the number of counters
+     */
+    public StripedCounters(int count) {
+        mCount = count;
+        mStride = (count + CACHE_LINE_LONGS - 1) / CACHE_LINE_LONGS * CACHE_LINE_LONGS;
+        mCells = new AtomicLongArray(STRIPES * mStride);
+    }
+
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while(stripes < processors * 2 && stripes < 64) stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * Add to a counter
+     * @param counter the index of the counter
+     * @param value the value to add
+     */
+    public void add(int counter, long value) {
+        mCells.getAndAdd(stripe() * mStride + counter, value);
+    }
+
+    /**
+     * @param counter the index of the counter
+     * @return the current value of the counter
+     */
+    public long get(int counter) {
+        long sum = 0;
+        for(int i = counter, size = mCells.length(); i < size; i += mStride) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of counters
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /** The stripe of the current thread */
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int)(id ^ (id >>> 32));
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+}
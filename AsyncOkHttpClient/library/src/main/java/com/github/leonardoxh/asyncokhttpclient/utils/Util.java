@@ -15,12 +15,18 @@
  */
 package com.github.leonardoxh.asyncokhttpclient.utils;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.github.leonardoxh.asyncokhttpclient.RequestParams;
 
@@ -35,25 +41,125 @@ public final class Util {
 	private static final int EOF = -1;
 	
 	/** The default buffer size for decodes */
-	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 16;
+
+	/** Max number of buffers kept by the shared pool, 1MB with the default size */
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	/** Biggest Content-Length trusted to allocate the response upfront */
+	private static final int MAX_PRESIZE = 1024 * 1024 * 8;
+
+	/** The charset used when the response doesn't declare one */
+	public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+	/** The buffers shared by all the requests */
+	private static final ByteArrayPool sBufferPool = new ByteArrayPool(DEFAULT_BUFFER_SIZE, MAX_POOLED_BUFFERS);
 
     /** No instances */
 	private Util() { }
 
     /**
-     * Convert the given InputStream to a String
+     * Convert the given InputStream to a UTF-8 String
      * @param source the InputStream to convert
      * @return the String converted based on given InputStream
      * @throws IOException If the given InputStream is null or can't be accessed
      */
 	public static String inputStreamToString(InputStream source) throws IOException {
-	    BufferedReader reader = new BufferedReader(new InputStreamReader(source));
-	    StringBuilder out = new StringBuilder();
-	    String line;
-	    while((line = reader.readLine()) != null) {
-	        out.append(line);
-	    }
-	    return out.toString();
+		return inputStreamToString(source, DEFAULT_CHARSET, -1);
+	}
+
+    /**
+     * Convert the given InputStream to a String in a single pass,
+     * the content is kept as is, line breaks included, and malformed
+     * input is replaced by the charset replacement character
+     * @param source the InputStream to convert
+     * @param charset the charset of the stream
+     * @param contentLength the length of the stream in bytes or -1 if unknown
+     * @return the String converted based on given InputStream
+     * @throws IOException If the given InputStream is null or can't be accessed
+     */
+	public static String inputStreamToString(InputStream source, Charset charset,
+			long contentLength) throws IOException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		/* The expected chars, a growing buffer stops on them instead of doubling past */
+		int expected = -1;
+		if(contentLength > 0) {
+			expected = (int)Math.min(Integer.MAX_VALUE - 1,
+					(long)Math.ceil(contentLength * decoder.averageCharsPerByte()) + 1);
+		}
+		int capacity = contentLength > 0 && contentLength <= MAX_PRESIZE ? expected : DEFAULT_BUFFER_SIZE;
+		byte[] bytes = sBufferPool.acquire();
+		try {
+			ByteBuffer input = ByteBuffer.wrap(bytes);
+			CharBuffer output = CharBuffer.allocate(capacity);
+			int n;
+			while((n = source.read(bytes, input.position(), input.remaining())) != EOF) {
+				input.position(input.position() + n);
+				input.flip();
+				output = decode(decoder, input, output, false, expected);
+				input.compact();
+			}
+			input.flip();
+			output = decode(decoder, input, output, true, expected);
+			while(decoder.flush(output).isOverflow()) {
+				output = grow(output, expected);
+			}
+			return new String(output.array(), 0, output.position());
+		} finally {
+			sBufferPool.release(bytes);
+		}
+	}
+
+    /**
+     * Decode the input growing the output as needed
+     * @return the output buffer, a new one if it was grown
+     */
+	private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer input,
+			CharBuffer output, boolean endOfInput, int expected) {
+		while(decoder.decode(input, output, endOfInput) == CoderResult.OVERFLOW) {
+			output = grow(output, expected);
+		}
+		return output;
+	}
+
+    /**
+     * Double the output, or grow it to the expected chars if they are in between
+     * @param expected the chars expected from the content length or -1 if unknown
+     */
+	private static CharBuffer grow(CharBuffer output, int expected) {
+		int capacity = output.capacity();
+		int grown = capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE - 1 : capacity * 2;
+		if(expected > capacity && expected < grown) grown = expected;
+		CharBuffer result = CharBuffer.allocate(grown);
+		output.flip();
+		result.put(output);
+		return result;
+	}
+
+    /**
+     * Return the charset declared on a Content-Type header
+     * @param contentType the Content-Type header or null
+     * @return the declared charset or UTF-8 if there is no charset or it is not supported
+     */
+	public static Charset getCharset(String contentType) {
+		if(contentType == null) return DEFAULT_CHARSET;
+		for(String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if(parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+				String name = parameter.substring(8).trim();
+				if(name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+					name = name.substring(1, name.length() - 1);
+				}
+				try {
+					return Charset.forName(name);
+				} catch(IllegalArgumentException e) {
+					return DEFAULT_CHARSET;
+				}
+			}
+		}
+		return DEFAULT_CHARSET;
 	}
 
     /**
@@ -86,13 +192,94 @@ public final class Util {
 	 * @throws IOException if the given InputStream can't be decoded
 	 */
 	public static byte[] inputStreamToByteArray(InputStream source) throws IOException {
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-		byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-		int n = 0;
-		while((n = source.read(buffer)) != EOF) {
-			output.write(buffer, 0, n);
+		return inputStreamToByteArray(source, -1);
+	}
+
+	/**
+	 * Convert the given InputStream into a byte array, if the length is known
+	 * the result is allocated upfront and filled without copies, otherwise
+	 * the stream is read on pooled buffers and copied once to the result
+	 * @param source the InputStream to consume
+	 * @param contentLength the expected length of the stream or -1 if unknown
+	 * @return the byte array decoded
+	 * @throws IOException if the given InputStream can't be decoded
+	 */
+	public static byte[] inputStreamToByteArray(InputStream source, long contentLength) throws IOException {
+		boolean presized = contentLength > 0 && contentLength <= MAX_PRESIZE;
+		byte[] first = presized ? new byte[(int)contentLength] : sBufferPool.acquire();
+		List<byte[]> segments = null;
+		try {
+			int firstCount = fill(source, first);
+			int lastCount = 0;
+			if(firstCount == first.length) {
+				segments = new ArrayList<byte[]>();
+				do {
+					byte[] segment = sBufferPool.acquire();
+					segments.add(segment);
+					lastCount = fill(source, segment);
+				} while(lastCount == DEFAULT_BUFFER_SIZE);
+			}
+			long total = firstCount;
+			if(segments != null) total += (long)(segments.size() - 1) * DEFAULT_BUFFER_SIZE + lastCount;
+			if(presized && total == first.length) return first;
+			if(total > Integer.MAX_VALUE) throw new IOException("Response too large: " + total);
+			byte[] result = new byte[(int)total];
+			System.arraycopy(first, 0, result, 0, firstCount);
+			if(segments != null) {
+				int offset = firstCount;
+				for(int i = 0, size = segments.size(); i < size; i++) {
+					int count = i == size - 1 ? lastCount : DEFAULT_BUFFER_SIZE;
+					System.arraycopy(segments.get(i), 0, result, offset, count);
+					offset += count;
+				}
+			}
+			return result;
+		} finally {
+			if(!presized) sBufferPool.release(first);
+			if(segments != null) {
+				for(byte[] segment : segments) {
+					sBufferPool.release(segment);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the stream to the output with a pooled buffer
+	 * @param source the stream to consume, not closed by this method
+	 * @param output the destination of the bytes
+	 * @return the number of bytes copied
+	 * @throws IOException if the stream can't be read or the output can't be written
+	 */
+	public static long copy(InputStream source, OutputStream output) throws IOException {
+		byte[] buffer = sBufferPool.acquire();
+		try {
+			long total = 0;
+			int n;
+			while((n = source.read(buffer)) != EOF) {
+				output.write(buffer, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			sBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Read the stream until the buffer is full or the stream ends
+	 * @param source the stream to read
+	 * @param buffer the buffer to fill
+	 * @return the number of bytes read, lower than the buffer length only at the end of the stream
+	 * @throws IOException if the stream can't be read
+	 */
+	private static int fill(InputStream source, byte[] buffer) throws IOException {
+		int offset = 0;
+		int n;
+		while(offset < buffer.length && (n = source.read(buffer, offset, buffer.length - offset)) != EOF) {
+			offset += n;
 		}
-		return output.toByteArray();
+		return offset;
 	}
 
     /**
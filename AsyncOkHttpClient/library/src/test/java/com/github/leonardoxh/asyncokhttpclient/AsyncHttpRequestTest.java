@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the callbacks of the requests whose handler or decoder fail with an unchecked exception
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class AsyncHttpRequestTest {
+
+    private TestServer mServer;
+
+    private AsyncOkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestServer.respond(exchange, 200, "{}");
+            }
+        });
+        mClient = new AsyncOkHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void failingHandlerReceivesErrorAndFinish() throws Exception {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        Call call = mClient.execute(new Request.Builder().url(mServer.url("/")).build(), new AsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, String content) {
+                events.add("success");
+                throw new IllegalStateException("broken handler");
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                events.add("error " + error.getMessage());
+            }
+
+            @Override
+            public void onFinish() {
+                events.add("finish");
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals("[success, error broken handler, finish]", events.toString());
+        awaitDone(call);
+    }
+
+    @Test
+    public void failingDecoderReceivesErrorAndFinish() throws Exception {
+        assertDecoderFailure();
+    }
+
+    @Test
+    public void failingDecoderOnDecodePoolReceivesErrorAndFinish() throws Exception {
+        mClient.setDecodePool(new DecodePool(1, DecodePool.DEFAULT_MAX_BUFFERED_BYTES));
+        assertDecoderFailure();
+    }
+
+    private void assertDecoderFailure() throws Exception {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        ResponseDecoder<Object> decoder = new ResponseDecoder<Object>() {
+            @Override
+            public Object decode(InputStream body, Charset charset) {
+                throw new IllegalArgumentException("broken decoder");
+            }
+        };
+        Call call = mClient.execute(new Request.Builder().url(mServer.url("/")).build(),
+                new TypedAsyncHttpResponse<Object>(decoder) {
+            @Override
+            public void onSuccess(int statusCode, Object result) {
+                events.add("success");
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                events.add("error " + error.getMessage());
+            }
+
+            @Override
+            public void onFinish() {
+                events.add("finish");
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals("[error broken decoder, finish]", events.toString());
+        awaitDone(call);
+    }
+
+    private static void awaitDone(Call call) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!call.isDone()) {
+            assertTrue("call not done", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+}
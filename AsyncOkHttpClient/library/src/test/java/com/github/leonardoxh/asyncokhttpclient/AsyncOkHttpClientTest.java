@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammer a single client from many threads and check every request reached
+ * the server with its own method, url, headers and body
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class AsyncOkHttpClientTest {
+
+    private static final int THREADS = 8;
+
+    private static final int CALLS_PER_THREAD = 250;
+
+    private final Map<String, String> mHits = new ConcurrentHashMap<String, String>();
+
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String id = exchange.getRequestHeaders().getFirst("X-Call");
+                String body = new String(TestServer.readBody(exchange), "UTF-8");
+                mHits.put(id, exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                        + " " + exchange.getRequestHeaders().getFirst("X-Thread") + " " + body);
+                TestServer.respond(exchange, 200, id);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void concurrentCallsNeverShareState() throws Exception {
+        final AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.getDispatcher().setMaxRequests(32);
+        client.getDispatcher().setMaxRequestsPerHost(32);
+        client.getDispatcher().setMaxQueuedRequests(THREADS * CALLS_PER_THREAD);
+        final int total = THREADS * CALLS_PER_THREAD;
+        final CountDownLatch done = new CountDownLatch(total);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final Map<String, String> expected = new ConcurrentHashMap<String, String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> submitters = new ArrayList<Thread>();
+        for(int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread submitter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = 0; i < CALLS_PER_THREAD; i++) {
+                            final String id = thread + "-" + i;
+                            boolean post = i % 2 == 1;
+                            String path = "/calls/" + id + "?q=" + i;
+                            RequestParams params = null;
+                            if(post) {
+                                params = new RequestParams();
+                                params.put("id", id);
+                            }
+                            client.addHeader("X-Thread", "shared");
+                            Request request = new Request.Builder()
+                                    .url(mServer.url(path))
+                                    .method(post ? RequestMethod.POST : RequestMethod.GET, params)
+                                    .header("X-Call", id)
+                                    .header("X-Thread", String.valueOf(thread))
+                                    .build();
+                            expected.put(id, (post ? "POST " : "GET ") + path + " " + thread
+                                    + " " + (post ? "id=" + id : ""));
+                            client.execute(request, new AsyncHttpResponse() {
+                                @Override
+                                public void onSuccess(int statusCode, String content) {
+                                    if(!id.equals(content)) failures.add(id + " got " + content);
+                                }
+
+                                @Override
+                                public void onError(Throwable error, String content) {
+                                    failures.add(id + " failed " + error);
+                                }
+
+                                @Override
+                                public void onFinish() {
+                                    done.countDown();
+                                }
+                            });
+                        }
+                    } catch(Exception e) {
+                        failures.add("submitter " + thread + " " + e);
+                    }
+                }
+            };
+            submitter.start();
+            submitters.add(submitter);
+        }
+        start.countDown();
+        for(Thread submitter : submitters) {
+            submitter.join();
+        }
+        assertTrue("calls didn't finish", done.await(60, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(total, mHits.size());
+        for(Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), mHits.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void virtualThreadsRaiseTheDefaultLimits() {
+        Assume.assumeTrue(Dispatcher.isVirtualThreadSupported());
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxRequestsPerHost(8);
+        client.setVirtualThreadsEnabled(true);
+        assertEquals(Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS, dispatcher.getMaxRequests());
+        assertEquals(8, dispatcher.getMaxRequestsPerHost());
+        client.setVirtualThreadsEnabled(false);
+        assertEquals(Dispatcher.DEFAULT_MAX_REQUESTS, dispatcher.getMaxRequests());
+        assertEquals(8, dispatcher.getMaxRequestsPerHost());
+        dispatcher.setMaxRequestsPerHost(Dispatcher.DEFAULT_MAX_REQUESTS_PER_HOST);
+        client.setVirtualThreadsEnabled(true);
+        assertEquals(Dispatcher.DEFAULT_MAX_VIRTUAL_REQUESTS_PER_HOST, dispatcher.getMaxRequestsPerHost());
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small harness for the benchmarks of the sources, not a unit test. Every case is warmed
+ * up and then run for a fixed time on the current thread, the report has the time and the
+ * bytes allocated per operation, read from the allocation counter of the HotSpot threads.
+ * Run them with {@code ./gradlew benchmark -Pbenchmark=Buffer}, the name is the class
+ * without the Benchmark suffix
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+abstract class Benchmark {
+
+    /** The time every case runs before it is measured */
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** The time every case is measured */
+    private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final com.sun.management.ThreadMXBean sThreads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /** Keep the results alive so the JIT can't drop the work */
+    static volatile Object sSink;
+
+    /**
+     * The operation measured
+     * @return the result of the operation, kept alive until the next operation
+     */
+    abstract Object run() throws Exception;
+
+    /** Print the header of the report */
+    static void header(String title) {
+        System.out.println(title + ", java " + System.getProperty("java.version") + ", "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+        System.out.println(String.format(Locale.US, "%-44s %14s %14s", "case", "us/op", "bytes/op"));
+    }
+
+    /**
+     * Warm up and measure the operation, then print its line of the report
+     * @param name the name of the case
+     * @param operation the operation to measure
+     */
+    static void report(String name, Benchmark operation) throws Exception {
+        loop(operation, WARMUP_NANOS);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long operations = loop(operation, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        print(name, elapsed, allocatedBytes() - allocated, operations);
+    }
+
+    /**
+     * Print a line of the report
+     * @param name the name of the case
+     * @param nanos the time of all the operations
+     * @param bytes the bytes allocated by all the operations
+     * @param operations the number of operations
+     */
+    static void print(String name, long nanos, long bytes, long operations) {
+        System.out.println(String.format(Locale.US, "%-44s %14.2f %14d", name,
+                nanos / 1000.0 / operations, bytes / operations));
+    }
+
+    /**
+     * @return the bytes allocated by the current thread since it started
+     */
+    static long allocatedBytes() {
+        return allocatedBytes(Thread.currentThread());
+    }
+
+    /**
+     * @param thread a live thread
+     * @return the bytes allocated by the thread since it started
+     */
+    static long allocatedBytes(Thread thread) {
+        return sThreads.getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * @param thread a live thread
+     * @return the cpu time of the thread since it started, in nanoseconds
+     */
+    static long cpuTime(Thread thread) {
+        return sThreads.getThreadCpuTime(thread.getId());
+    }
+
+    private static long loop(Benchmark operation, long nanos) throws Exception {
+        long deadline = System.nanoTime() + nanos;
+        long operations = 0;
+        do {
+            sSink = operation.run();
+            operations++;
+        } while(System.nanoTime() < deadline);
+        sSink = null;
+        return operations;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Compare the pooled reads of {@link Util} with the reads they replaced,
+ * for bodies of 1KB to 10MB with and without a known length
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class BufferBenchmark {
+
+    private static final int[] SIZES = {1024, 16 * 1024, 256 * 1024, 1024 * 1024, 10 * 1024 * 1024};
+
+    private BufferBenchmark() { }
+
+    public static void main(String[] args) throws Exception {
+        Benchmark.header("Body reads");
+        for(int size : SIZES) {
+            final byte[] body = new byte[size];
+            Arrays.fill(body, (byte)'a');
+            final int length = size;
+            String suffix = " " + (size >= 1024 * 1024 ? size / (1024 * 1024) + "MB" : size / 1024 + "KB");
+            Benchmark.report("bytes old" + suffix, new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    return oldInputStreamToByteArray(new ByteArrayInputStream(body));
+                }
+            });
+            Benchmark.report("bytes pooled, unknown length" + suffix, new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    return Util.inputStreamToByteArray(new ByteArrayInputStream(body), -1);
+                }
+            });
+            Benchmark.report("bytes pooled, content length" + suffix, new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    return Util.inputStreamToByteArray(new ByteArrayInputStream(body), length);
+                }
+            });
+            Benchmark.report("string old" + suffix, new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    return oldInputStreamToString(new ByteArrayInputStream(body));
+                }
+            });
+            Benchmark.report("string pooled, content length" + suffix, new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    return Util.inputStreamToString(new ByteArrayInputStream(body), Util.DEFAULT_CHARSET, length);
+                }
+            });
+        }
+    }
+
+    /** The read of the bytes before the buffer pool */
+    static byte[] oldInputStreamToByteArray(InputStream source) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4 * 1024];
+        int n;
+        while((n = source.read(buffer)) != -1) {
+            output.write(buffer, 0, n);
+        }
+        return output.toByteArray();
+    }
+
+    /** The read of the text before the buffer pool, it drops the line breaks */
+    static String oldInputStreamToString(InputStream source) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(source, "UTF-8"));
+        StringBuilder out = new StringBuilder();
+        String line;
+        while((line = reader.readLine()) != null) {
+            out.append(line);
+        }
+        return out.toString();
+    }
+
+}
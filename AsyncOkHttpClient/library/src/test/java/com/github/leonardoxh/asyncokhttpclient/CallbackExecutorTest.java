@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check the batched {@link CallbackExecutor} run every callback once, on the order
+ * they were executed, with a single task for all the callbacks of a batch
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class CallbackExecutorTest {
+
+    /** An executor that keep the tasks until the test run them */
+    private static final class ManualExecutor extends CallbackExecutor {
+
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runNext() {
+            mTasks.remove(0).run();
+        }
+
+    }
+
+    private static Runnable record(final List<String> calls, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                calls.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void callbacksOfABatchShareOneTask() {
+        ManualExecutor main = new ManualExecutor();
+        CallbackExecutor batched = CallbackExecutor.batched(main);
+        List<String> calls = new ArrayList<String>();
+        batched.execute(record(calls, "start"));
+        batched.execute(record(calls, "success"));
+        batched.execute(record(calls, "finish"));
+        assertEquals(1, main.mTasks.size());
+        main.runNext();
+        assertEquals(Collections.<Runnable>emptyList(), main.mTasks);
+        assertEquals("[start, success, finish]", calls.toString());
+        batched.execute(record(calls, "next"));
+        assertEquals(1, main.mTasks.size());
+        main.runNext();
+        assertEquals("[start, success, finish, next]", calls.toString());
+    }
+
+    @Test
+    public void failedCallbackKeepsTheRestOfTheBatch() {
+        ManualExecutor main = new ManualExecutor();
+        CallbackExecutor batched = CallbackExecutor.batched(main);
+        List<String> calls = new ArrayList<String>();
+        batched.execute(record(calls, "first"));
+        batched.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("callback failed");
+            }
+        });
+        batched.execute(record(calls, "last"));
+        try {
+            main.runNext();
+            fail("the failure of the callback must reach the executor");
+        } catch(IllegalStateException expected) {
+        }
+        assertEquals(1, main.mTasks.size());
+        main.runNext();
+        assertEquals("[first, last]", calls.toString());
+    }
+
+    @Test
+    public void batchedResponsesKeepTheOrderOfTheirCallbacks() throws Exception {
+        TestServer server = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestServer.respond(exchange, 200, "ok");
+            }
+        });
+        ExecutorService main = Executors.newSingleThreadExecutor();
+        try {
+            AsyncOkHttpClient client = new AsyncOkHttpClient();
+            client.setCallbackExecutor(CallbackExecutor.batched(CallbackExecutor.executor(main)));
+            int requests = 50;
+            final CountDownLatch done = new CountDownLatch(requests);
+            final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+            for(int i = 0; i < requests; i++) {
+                client.execute(new Request.Builder().url(server.url("/" + i)).build(), new AsyncHttpResponse() {
+                    private final StringBuilder mCalls = new StringBuilder();
+
+                    @Override
+                    public void onStart() {
+                        mCalls.append("start ");
+                    }
+
+                    @Override
+                    public void onSuccess(int statusCode, String content) {
+                        mCalls.append(statusCode).append(' ').append(content).append(' ');
+                    }
+
+                    @Override
+                    public void onError(Throwable error, String content) {
+                        errors.add(String.valueOf(error));
+                    }
+
+                    @Override
+                    public void onFinish() {
+                        mCalls.append("finish");
+                        if(!"start 200 ok finish".equals(mCalls.toString())) errors.add(mCalls.toString());
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(Collections.<String>emptyList(), errors);
+        } finally {
+            main.shutdown();
+            server.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.Util;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Compare the allocations of the single pass text decode of {@link Util} with the
+ * line based reader it replaced, on bodies with many lines and with multi-byte chars
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class DecodeBenchmark {
+
+    private DecodeBenchmark() { }
+
+    public static void main(String[] args) throws Exception {
+        Benchmark.header("Text decode");
+        run("ndjson 64KB", repeat("{\"id\":12345,\"name\":\"item\",\"tags\":[\"a\",\"b\"],\"price\":10.5}\n", 64 * 1024));
+        run("csv 1MB", repeat("12345,item,a;b,10.5,2014-06-01T10:00:00Z\r\n", 1024 * 1024));
+        run("utf-8 text 256KB", repeat("Olá, 世界! Ünïcödé text on one line. ", 256 * 1024));
+        run("ascii 10MB", repeat("a", 10 * 1024 * 1024));
+    }
+
+    private static void run(String name, String text) throws Exception {
+        final byte[] body = text.getBytes("UTF-8");
+        Benchmark.report(name + ", line reader", new Benchmark() {
+            @Override
+            Object run() throws Exception {
+                return BufferBenchmark.oldInputStreamToString(new ByteArrayInputStream(body));
+            }
+        });
+        Benchmark.report(name + ", single pass", new Benchmark() {
+            @Override
+            Object run() throws Exception {
+                return Util.inputStreamToString(new ByteArrayInputStream(body), Util.DEFAULT_CHARSET, -1);
+            }
+        });
+        Benchmark.report(name + ", single pass, length", new Benchmark() {
+            @Override
+            Object run() throws Exception {
+                return Util.inputStreamToString(new ByteArrayInputStream(body), Util.DEFAULT_CHARSET, body.length);
+            }
+        });
+    }
+
+    /** Repeat the line until the text has about the given bytes */
+    private static String repeat(String line, int bytes) throws Exception {
+        int count = Math.max(1, bytes / line.getBytes("UTF-8").length);
+        StringBuilder text = new StringBuilder(line.length() * count);
+        for(int i = 0; i < count; i++) {
+            text.append(line);
+        }
+        return text.toString();
+    }
+
+}
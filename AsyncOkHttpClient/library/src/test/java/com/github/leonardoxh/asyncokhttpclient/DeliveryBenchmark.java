@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import android.os.Looper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare the cost on the main thread of the callbacks of a burst of responses posted one
+ * by one on the looper and batched by {@link CallbackExecutor#batched(CallbackExecutor)}.
+ * The main thread is a looper thread of the JVM stub, every round execute 1000 requests
+ * on a local server and report the cpu time and the bytes allocated by the main thread
+ * and the looper posts, the callbacks themselves do nothing. The busy cases draw a frame
+ * of 6ms every 16ms on the main thread, the cpu time of the frames is not counted
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class DeliveryBenchmark {
+
+    private static final int COMPLETIONS = 1000;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 5;
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private static final long FRAME_WORK_NANOS = TimeUnit.MILLISECONDS.toNanos(6);
+
+    private static final ThreadMXBean sThreads = ManagementFactory.getThreadMXBean();
+
+    /** The cpu time of the frames drawn by the main thread */
+    private static final AtomicLong sFrameCpu = new AtomicLong();
+
+    private DeliveryBenchmark() { }
+
+    public static void main(String[] args) throws Exception {
+        TestServer server = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestServer.respond(exchange, 200, "{\"ok\":true}");
+            }
+        });
+        final Looper[] looperOfMain = new Looper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread main = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                looperOfMain[0] = Looper.myLooper();
+                prepared.countDown();
+                Looper.loop();
+            }
+        }, "main");
+        main.start();
+        prepared.await();
+        Looper looper = looperOfMain[0];
+        try {
+            System.out.println("Main thread per " + COMPLETIONS + " completions, java " + System.getProperty("java.version")
+                    + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+            System.out.println(String.format("%-24s %12s %12s %12s", "case", "cpu us", "bytes", "posts"));
+            run("looper, idle", server, main, looper, false);
+            run("batched, idle", server, main, looper, true);
+            ScheduledExecutorService frames = startFrames(looper);
+            try {
+                run("looper, busy", server, main, looper, false);
+                run("batched, busy", server, main, looper, true);
+            } finally {
+                frames.shutdownNow();
+            }
+        } finally {
+            looper.quit();
+            server.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, TestServer server, Thread main, Looper looper, boolean batched) throws Exception {
+        final AtomicInteger posts = new AtomicInteger();
+        final CallbackExecutor target = CallbackExecutor.looper(looper);
+        CallbackExecutor counting = new CallbackExecutor() {
+            @Override
+            public void execute(Runnable callback) {
+                posts.incrementAndGet();
+                target.execute(callback);
+            }
+        };
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.setCallbackExecutor(batched ? CallbackExecutor.batched(counting) : counting);
+        client.getDispatcher().setMaxQueuedRequests(COMPLETIONS);
+        for(int i = 0; i < WARMUP_ROUNDS; i++) round(client, server);
+        posts.set(0);
+        long frameCpu = sFrameCpu.get();
+        long cpu = Benchmark.cpuTime(main);
+        long bytes = Benchmark.allocatedBytes(main);
+        for(int i = 0; i < ROUNDS; i++) round(client, server);
+        cpu = Benchmark.cpuTime(main) - cpu - (sFrameCpu.get() - frameCpu);
+        bytes = Benchmark.allocatedBytes(main) - bytes;
+        System.out.println(String.format("%-24s %12d %12d %12d", name, cpu / 1000 / ROUNDS, bytes / ROUNDS,
+                posts.get() / ROUNDS));
+    }
+
+    /** Post a frame on the looper every 16ms, the frame keep the main thread busy for 6ms */
+    private static ScheduledExecutorService startFrames(Looper looper) {
+        final CallbackExecutor main = CallbackExecutor.looper(looper);
+        final Runnable frame = new Runnable() {
+            @Override
+            public void run() {
+                long cpu = sThreads.getCurrentThreadCpuTime();
+                long deadline = System.nanoTime() + FRAME_WORK_NANOS;
+                while(System.nanoTime() < deadline) {
+                    // draw
+                }
+                sFrameCpu.addAndGet(sThreads.getCurrentThreadCpuTime() - cpu);
+            }
+        };
+        ScheduledExecutorService vsync = Executors.newSingleThreadScheduledExecutor();
+        vsync.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                main.execute(frame);
+            }
+        }, 0, FRAME_NANOS, TimeUnit.NANOSECONDS);
+        return vsync;
+    }
+
+    private static void round(AsyncOkHttpClient client, TestServer server) throws Exception {
+        final CountDownLatch done = new CountDownLatch(COMPLETIONS);
+        for(int i = 0; i < COMPLETIONS; i++) {
+            client.execute(new Request.Builder().url(server.url("/" + i)).build(), new AsyncHttpResponse() {
+                @Override
+                public void onSuccess(int statusCode, String content) {
+                    Benchmark.sSink = content;
+                }
+
+                @Override
+                public void onFinish() {
+                    done.countDown();
+                }
+            });
+        }
+        if(!done.await(300, TimeUnit.SECONDS)) throw new IllegalStateException("responses didn't finish");
+    }
+
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the limits of the {@link Dispatcher} under load and the cancel of queued and running calls
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class DispatcherTest {
+
+    private static final String[] HOSTS = {"127.0.0.1", "localhost"};
+
+    private final AtomicInteger mRunning = new AtomicInteger();
+
+    private final AtomicInteger mMaxRunning = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> mRunningPerHost = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final Map<String, AtomicInteger> mMaxRunningPerHost = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private volatile long mDelayMillis = 20;
+
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        for(String host : HOSTS) {
+            mRunningPerHost.put(host, new AtomicInteger());
+            mMaxRunningPerHost.put(host, new AtomicInteger());
+        }
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String host = exchange.getRequestHeaders().getFirst("Host");
+                host = host.substring(0, host.indexOf(':'));
+                AtomicInteger running = mRunningPerHost.get(host);
+                max(mMaxRunning, mRunning.incrementAndGet());
+                max(mMaxRunningPerHost.get(host), running.incrementAndGet());
+                try {
+                    Thread.sleep(mDelayMillis);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mRunning.decrementAndGet();
+                running.decrementAndGet();
+                TestServer.respond(exchange, 200, "ok");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    private static void max(AtomicInteger max, int value) {
+        int current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    @Test
+    public void limitsAreNeverExceeded() throws Exception {
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxRequests(5);
+        dispatcher.setMaxRequestsPerHost(3);
+        dispatcher.setMaxQueuedRequests(1000);
+        final CountDownLatch done = new CountDownLatch(400);
+        final AtomicInteger successes = new AtomicInteger();
+        for(int i = 0; i < 400; i++) {
+            Request request = new Request.Builder().url(mServer.url(HOSTS[i % HOSTS.length], "/" + i)).build();
+            client.execute(request, new AsyncHttpResponse() {
+                @Override
+                public void onSuccess(int statusCode, String content) {
+                    successes.incrementAndGet();
+                }
+
+                @Override
+                public void onFinish() {
+                    done.countDown();
+                }
+            });
+            assertTrue(dispatcher.getRunningCount() <= 5);
+        }
+        assertTrue("calls didn't finish", done.await(60, TimeUnit.SECONDS));
+        assertEquals(400, successes.get());
+        assertTrue("max running " + mMaxRunning, mMaxRunning.get() <= 5);
+        for(String host : HOSTS) {
+            int maxRunning = mMaxRunningPerHost.get(host).get();
+            assertTrue(host + " max running " + maxRunning, maxRunning <= 3 && maxRunning > 0);
+        }
+        awaitIdle(dispatcher);
+    }
+
+    @Test
+    public void cancelAllStopsQueuedAndRunningCalls() throws Exception {
+        mDelayMillis = 200;
+        final AsyncOkHttpClient client = new AsyncOkHttpClient();
+        Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxRequests(8);
+        dispatcher.setMaxRequestsPerHost(8);
+        dispatcher.setMaxQueuedRequests(1000);
+        final AtomicInteger canceledCallbacks = new AtomicInteger();
+        final AtomicInteger keptSuccesses = new AtomicInteger();
+        final CountDownLatch kept = new CountDownLatch(50);
+        final List<Call> canceled = new ArrayList<Call>();
+        for(int i = 0; i < 500; i++) {
+            final boolean cancel = i % 10 != 0;
+            Request request = new Request.Builder().url(mServer.url("/" + i))
+                    .tag(cancel ? "screen" : "other").build();
+            Call call = client.execute(request, new AsyncHttpResponse() {
+                @Override
+                public void onSuccess(int statusCode, String content) {
+                    if(cancel) {
+                        canceledCallbacks.incrementAndGet();
+                    } else {
+                        keptSuccesses.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error, String content) {
+                    if(cancel) canceledCallbacks.incrementAndGet();
+                }
+
+                @Override
+                public void onFinish() {
+                    if(!cancel) kept.countDown();
+                }
+            });
+            if(cancel) canceled.add(call);
+        }
+        Thread.sleep(100);
+        final CountDownLatch cancelers = new CountDownLatch(4);
+        for(int i = 0; i < 4; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    client.cancelAll("screen");
+                    cancelers.countDown();
+                }
+            }.start();
+        }
+        assertTrue(cancelers.await(10, TimeUnit.SECONDS));
+        assertTrue("kept calls didn't finish", kept.await(60, TimeUnit.SECONDS));
+        assertEquals(50, keptSuccesses.get());
+        for(Call call : canceled) {
+            assertTrue(call.isCanceled());
+        }
+        awaitIdle(dispatcher);
+        for(Call call : canceled) {
+            assertTrue(call + " not done", call.isDone());
+        }
+        assertEquals(0, canceledCallbacks.get());
+    }
+
+    @Test
+    public void rejectedRequestsFailWithoutTheDispatcherLock() throws Exception {
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        final Dispatcher dispatcher = client.getDispatcher();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.shutdown();
+        dispatcher.setExecutor(executor);
+        final List<String> events = new ArrayList<String>();
+        client.execute(new Request.Builder().url(mServer.url("/")).build(), new AsyncHttpResponse() {
+            @Override
+            public void onError(Throwable error, String content) {
+                events.add(error.getClass().getSimpleName() + " locked=" + Thread.holdsLock(dispatcher));
+            }
+        });
+        assertEquals("[RejectedExecutionException locked=false]", events.toString());
+        assertEquals(0, dispatcher.getRunningCount());
+    }
+
+    @Test
+    public void callerRunsIsTrackedAndCancelable() throws Exception {
+        mDelayMillis = 2000;
+        final AsyncOkHttpClient client = new AsyncOkHttpClient();
+        final Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxRequests(1);
+        dispatcher.setMaxQueuedRequests(0);
+        dispatcher.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+        client.execute(new Request.Builder().url(mServer.url("/first")).build(), new AsyncHttpResponse());
+        final Request second = new Request.Builder().url(mServer.url("/second")).tag("caller").build();
+        final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+        final AtomicInteger callbacks = new AtomicInteger();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                client.execute(second, new AsyncHttpResponse() {
+                    @Override
+                    public void onStart() {
+                        runner.set(Thread.currentThread());
+                    }
+
+                    @Override
+                    public void onSuccess(int statusCode, String content) {
+                        callbacks.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onError(Throwable error, String content) {
+                        callbacks.incrementAndGet();
+                    }
+                });
+            }
+        };
+        caller.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(dispatcher.getRunningCount() < 2) {
+            assertTrue("caller request not running", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        client.cancelAll("caller");
+        caller.join(1000);
+        assertFalse("caller request not canceled", caller.isAlive());
+        assertEquals(caller, runner.get());
+        assertEquals(0, callbacks.get());
+    }
+
+    @Test
+    public void callerRunsRejectsOnLooperThreads() throws Exception {
+        mDelayMillis = 500;
+        final AsyncOkHttpClient client = new AsyncOkHttpClient();
+        Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxRequests(1);
+        dispatcher.setMaxQueuedRequests(0);
+        dispatcher.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+        client.execute(new Request.Builder().url(mServer.url("/first")).build(), new AsyncHttpResponse());
+        final Request second = new Request.Builder().url(mServer.url("/second")).build();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread looper = new Thread() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                client.execute(second, new AsyncHttpResponse() {
+                    @Override
+                    public void onError(Throwable e, String content) {
+                        error.set(e);
+                    }
+
+                    @Override
+                    public void onFinish() {
+                        Looper.myLooper().quit();
+                    }
+                });
+                Looper.loop();
+            }
+        };
+        looper.start();
+        looper.join(5000);
+        assertFalse(looper.isAlive());
+        assertTrue(String.valueOf(error.get()), error.get() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void retriesReleaseTheirHostSlot() throws Exception {
+        final ConcurrentHashMap<String, AtomicInteger> hits = new ConcurrentHashMap<String, AtomicInteger>();
+        TestServer server = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                AtomicInteger count = new AtomicInteger();
+                AtomicInteger previous = hits.putIfAbsent(path, count);
+                /* Every request fail twice before it succeed */
+                if((previous != null ? previous : count).incrementAndGet() % 3 != 0) {
+                    exchange.getResponseHeaders().add("Retry-After", "0");
+                    TestServer.respond(exchange, 503, "busy");
+                } else {
+                    TestServer.respond(exchange, 200, "ok");
+                }
+            }
+        });
+        try {
+            AsyncOkHttpClient client = new AsyncOkHttpClient();
+            client.setRetryPolicy(new RetryPolicy(2, 0, 1000, TimeUnit.MILLISECONDS));
+            Dispatcher dispatcher = client.getDispatcher();
+            dispatcher.setMaxRequestsPerHost(4);
+            final CountDownLatch finished = new CountDownLatch(200);
+            final AtomicInteger successes = new AtomicInteger();
+            for(int i = 0; i < 200; i++) {
+                client.execute(new Request.Builder().url(server.url("/" + i)).build(), new AsyncHttpResponse() {
+                    @Override
+                    public void onSuccess(int statusCode, String content) {
+                        successes.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFinish() {
+                        finished.countDown();
+                    }
+                });
+            }
+            assertTrue("requests didn't finish", finished.await(30, TimeUnit.SECONDS));
+            assertEquals(200, successes.get());
+            awaitIdle(dispatcher);
+            /* A leaked slot would keep the host over its limit forever */
+            for(int i = 0; i < 4; i++) {
+                assertEquals("200 ok", get(client, new Request.Builder().url(server.url("/after")).build()));
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelAllStopsDelayedRetries() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        TestServer server = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                hits.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                TestServer.respond(exchange, 503, "busy");
+            }
+        });
+        try {
+            AsyncOkHttpClient client = new AsyncOkHttpClient();
+            client.setRetryPolicy(new RetryPolicy(2, 0, 5000, TimeUnit.MILLISECONDS));
+            final AtomicInteger callbacks = new AtomicInteger();
+            Call call = client.execute(new Request.Builder().url(server.url("/")).tag("screen").build(),
+                    new AsyncHttpResponse() {
+                @Override
+                public void onError(Throwable error, String content) {
+                    callbacks.incrementAndGet();
+                }
+            });
+            Dispatcher dispatcher = client.getDispatcher();
+            long deadline = System.currentTimeMillis() + 10000;
+            while(hits.get() == 0 || dispatcher.getRunningCount() > 0) {
+                assertTrue("first attempt didn't end", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            client.cancelAll("screen");
+            assertTrue(call.isCanceled());
+            assertTrue(call.isDone());
+            Thread.sleep(1500);
+            assertEquals(1, hits.get());
+            assertEquals(0, callbacks.get());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static String get(AsyncOkHttpClient client, Request request) throws InterruptedException {
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        client.execute(request, new AsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, String content) {
+                result.set(statusCode + " " + content);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue("request didn't finish", finished.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static void awaitIdle(Dispatcher dispatcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(dispatcher.getRunningCount() + dispatcher.getQueuedCount() > 0) {
+            assertTrue("dispatcher not idle", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
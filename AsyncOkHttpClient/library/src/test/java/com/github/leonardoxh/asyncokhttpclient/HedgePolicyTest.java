@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the latencies the {@link HedgePolicy} learns from the hedged requests
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class HedgePolicyTest {
+
+    /** The paths already requested once, the first request of a path is slow */
+    private final Set<String> mSeen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if(mSeen.add(exchange.getRequestURI().getPath())) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                TestServer.respond(exchange, 200, "ok");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void slowPrimaryLatencyIsRecorded() throws Exception {
+        HedgePolicy policy = new HedgePolicy(90, 0, 100, TimeUnit.MILLISECONDS);
+        policy.setMaxHedgeRatio(1);
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.setHedgePolicy(policy);
+        for(int i = 0; i < 20; i++) {
+            assertEquals("200 ok", get(client, new Request.Builder().url(mServer.url("/" + i)).build()));
+        }
+        assertEquals(20, policy.getHedgeCount());
+        /* Only the hedged requests answered, the primaries waited at least the 100 ms delay */
+        long delay = policy.onRequest();
+        assertTrue("hedge delay " + delay, delay >= 100);
+    }
+
+    private static String get(AsyncOkHttpClient client, Request request) throws InterruptedException {
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        client.execute(request, new AsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, String content) {
+                result.set(statusCode + " " + content);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue("request didn't finish", finished.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+}
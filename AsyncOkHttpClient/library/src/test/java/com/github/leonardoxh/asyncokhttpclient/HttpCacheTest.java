@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the revalidation of the {@link HttpCache}, that partial requests never touch it
+ * and that the files of the entries are closed
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class HttpCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** The requests received by the server as "range conditional" lines */
+    private final List<String> mReceived = new CopyOnWriteArrayList<String>();
+
+    private TestServer mServer;
+
+    private HttpCache mCache;
+
+    private AsyncOkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+                mReceived.add(range + " " + etag);
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=0");
+                if(range != null) {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes 2-4/5");
+                    TestServer.respond(exchange, 206, "llo");
+                } else if("\"v1\"".equals(etag)) {
+                    TestServer.respond(exchange, 304, new byte[0]);
+                } else {
+                    TestServer.respond(exchange, 200, "hello");
+                }
+            }
+        });
+        mCache = new HttpCache(mFolder.newFolder("cache"), 1024 * 1024);
+        mClient = new AsyncOkHttpClient();
+        mClient.setCache(mCache);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        mCache.close();
+    }
+
+    @Test
+    public void staleResponseIsRevalidated() throws Exception {
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        assertEquals("[null null, null \"v1\"]", mReceived.toString());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void rangeRequestKeepsTheCachedResponse() throws Exception {
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        assertEquals("206 llo", get(new Request.Builder().url(mServer.url("/doc")).header("Range", "bytes=2-")));
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        assertEquals("[null null, bytes=2- null, null \"v1\"]", mReceived.toString());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void revalidatedResponsesCloseTheEntry() throws Exception {
+        File descriptors = new File("/proc/self/fd");
+        Assume.assumeTrue(descriptors.isDirectory());
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        int open = descriptors.list().length;
+        for(int i = 0; i < 100; i++) {
+            assertEquals("200 hello", get(new Request.Builder().url(mServer.url("/doc"))));
+        }
+        assertTrue("leaked " + (descriptors.list().length - open) + " files",
+                descriptors.list().length - open < 10);
+    }
+
+    private String get(Request.Builder builder) throws Exception {
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        mClient.execute(builder.build(), new AsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, String content) {
+                result.set(statusCode + " " + content);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue("request didn't finish", finished.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check the {@link JsonResponseDecoder} decode the JSON written by org.json back to the same values
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class JsonResponseDecoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    enum Kind { SMALL, LARGE }
+
+    static class Item {
+        String name;
+        int count;
+    }
+
+    static class Order {
+        long id;
+        double total;
+        boolean paid;
+        Boolean gift;
+        char grade;
+        String note;
+        Kind kind;
+        Item item;
+        List<Item> items;
+        Map<String, Integer> stock;
+        int[] codes;
+        Object raw;
+        transient String ignored;
+    }
+
+    static class Holder {
+        List<Item> items;
+    }
+
+    @Test
+    public void decodesTheValuesWrittenByOrgJson() throws Exception {
+        JSONObject item = new JSONObject().put("name", "ação \"€\"\n😀").put("count", 3);
+        JSONObject json = new JSONObject()
+                .put("id", 9007199254740993L)
+                .put("total", 12.5)
+                .put("paid", true)
+                .put("gift", JSONObject.NULL)
+                .put("grade", "A")
+                .put("kind", "LARGE")
+                .put("item", item)
+                .put("items", new JSONArray().put(item).put(new JSONObject().put("name", "b")))
+                .put("stock", new JSONObject().put("x", 1).put("y", 2))
+                .put("codes", new JSONArray().put(1).put(2).put(3))
+                .put("raw", new JSONObject().put("nested", new JSONArray().put(true)))
+                .put("ignored", "value")
+                .put("unknown", new JSONObject().put("deep", new JSONArray().put(1)));
+        Order order = decode(new JsonResponseDecoder<Order>(Order.class), json.toString());
+        assertEquals(9007199254740993L, order.id);
+        assertEquals(12.5, order.total, 0);
+        assertTrue(order.paid);
+        assertNull(order.gift);
+        assertEquals('A', order.grade);
+        assertNull(order.note);
+        assertEquals(Kind.LARGE, order.kind);
+        assertEquals("ação \"€\"\n😀", order.item.name);
+        assertEquals(3, order.item.count);
+        assertEquals(2, order.items.size());
+        assertEquals("b", order.items.get(1).name);
+        assertEquals(0, order.items.get(1).count);
+        assertEquals(Integer.valueOf(2), order.stock.get("y"));
+        assertEquals(Arrays.asList("x", "y"), Arrays.asList(order.stock.keySet().toArray()));
+        assertArrayEquals(new int[] {1, 2, 3}, order.codes);
+        assertTrue(String.valueOf(order.raw), order.raw instanceof JSONObject);
+        assertEquals(1, ((JSONObject)order.raw).getJSONArray("nested").length());
+        assertNull(order.ignored);
+    }
+
+    @Test
+    public void decodesGenericTypesAndOtherCharsets() throws Exception {
+        Type type = Holder.class.getDeclaredField("items").getGenericType();
+        String json = new JSONArray().put(new JSONObject().put("name", "à la carte").put("count", 1)).toString();
+        JsonResponseDecoder<List<Item>> decoder = new JsonResponseDecoder<List<Item>>(type);
+        List<Item> items = decoder.decode(new ByteArrayInputStream(json.getBytes("ISO-8859-1")),
+                Charset.forName("ISO-8859-1"));
+        assertEquals(1, items.size());
+        assertEquals("à la carte", items.get(0).name);
+    }
+
+    @Test
+    public void decodersAreEqualByType() throws Exception {
+        Type type = Holder.class.getDeclaredField("items").getGenericType();
+        assertEquals(new JsonResponseDecoder<Item>(Item.class), new JsonResponseDecoder<Item>(Item.class));
+        assertEquals(new JsonResponseDecoder<Object>(type).hashCode(), new JsonResponseDecoder<Object>(type).hashCode());
+        assertFalse(new JsonResponseDecoder<Item>(Item.class).equals(new JsonResponseDecoder<Order>(Order.class)));
+    }
+
+    @Test
+    public void invalidJsonFailsWithIOException() {
+        try {
+            decode(new JsonResponseDecoder<Item>(Item.class), "{\"name\": ");
+            fail();
+        } catch(IOException expected) { }
+        try {
+            decode(new JsonResponseDecoder<Item>(Item.class), "{\"count\": \"many\"}");
+            fail();
+        } catch(IOException expected) { }
+    }
+
+    private static <T> T decode(JsonResponseDecoder<T> decoder, String json) throws IOException {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(UTF_8)), UTF_8);
+    }
+
+}
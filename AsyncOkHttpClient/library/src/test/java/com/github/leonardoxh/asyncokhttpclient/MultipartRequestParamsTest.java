@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the put and add semantics of {@link MultipartRequestParams} on the parts written
+ * and that a large upload is streamed
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class MultipartRequestParamsTest {
+
+    /** The size of the file part of the large upload, the file is sparse */
+    private static final long LARGE_FILE = 256L * 1024 * 1024;
+
+    /** The size of the stream part of the large upload */
+    private static final long LARGE_STREAM = 128L * 1024 * 1024;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("multipart", ".txt");
+        FileOutputStream output = new FileOutputStream(mFile);
+        output.write("file content".getBytes("UTF-8"));
+        output.close();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void putReplacesThePartsWithTheSameName() throws Exception {
+        MultipartRequestParams params = new MultipartRequestParams();
+        params.put("avatar", mFile);
+        params.put("avatar", mFile, "text/plain");
+        params.put("log", new ByteArrayInputStream(new byte[] {1, 2, 3}), "log.bin", null, 3);
+        params.put("log", new ByteArrayInputStream(new byte[] {4, 5}), "log.bin", null, 2);
+        params.put("field", "first");
+        params.put("avatar", "replaced by text");
+        params.put("field", "second");
+        List<String> parts = parts(params);
+        assertEquals(3, parts.size());
+        assertEquals(part("log", "log.bin", "application/octet-stream", "\u0004\u0005"), parts.get(0));
+        assertEquals(part("avatar", null, null, "replaced by text"), parts.get(1));
+        assertEquals(part("field", null, null, "second"), parts.get(2));
+    }
+
+    @Test
+    public void addKeepsThePartsWithTheSameName() throws Exception {
+        MultipartRequestParams params = new MultipartRequestParams();
+        params.add("files", mFile);
+        params.add("files", mFile, "text/plain");
+        params.add("files", new ByteArrayInputStream(new byte[] {'x'}), null, "text/plain", 1);
+        params.add("files", "text");
+        List<String> parts = parts(params);
+        assertEquals(4, parts.size());
+        assertEquals(part("files", mFile.getName(), "application/octet-stream", "file content"), parts.get(0));
+        assertEquals(part("files", mFile.getName(), "text/plain", "file content"), parts.get(1));
+        assertEquals(part("files", null, "text/plain", "x"), parts.get(2));
+        assertEquals(part("files", null, null, "text"), parts.get(3));
+        params.remove("files");
+        assertEquals(0, parts(params).size());
+    }
+
+    @Test
+    public void uploadLargerThanTheHeapIsStreamed() throws Exception {
+        File large = File.createTempFile("multipart", ".bin");
+        RandomAccessFile sparse = new RandomAccessFile(large, "rw");
+        sparse.setLength(LARGE_FILE);
+        sparse.close();
+        TestServer server = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                byte[] delimiter = ("--" + contentType.substring(contentType.indexOf("boundary=") + 9))
+                        .getBytes("ISO-8859-1");
+                InputStream input = exchange.getRequestBody();
+                byte[] head = new byte[delimiter.length];
+                byte[] tail = new byte[delimiter.length + 4];
+                byte[] buffer = new byte[64 * 1024];
+                long received = 0;
+                int count;
+                while((count = input.read(buffer)) != -1) {
+                    for(int i = 0; i < count; i++, received++) {
+                        if(received < head.length) head[(int)received] = buffer[i];
+                        tail[(int)(received % tail.length)] = buffer[i];
+                    }
+                }
+                byte[] end = new byte[tail.length];
+                for(int i = 0; i < end.length; i++) {
+                    end[i] = tail[(int)((received + i) % tail.length)];
+                }
+                boolean framed = Arrays.equals(delimiter, head)
+                        && new String(end, "ISO-8859-1").equals(new String(delimiter, "ISO-8859-1") + "--\r\n");
+                TestServer.respond(exchange, 200, framed ? String.valueOf(received) : "not framed");
+            }
+        });
+        try {
+            String[] result = SmallHeap.run(MultipartRequestParamsTest.class, server.url("/upload").toString(),
+                    large.getPath()).split(" ");
+            assertEquals("200", result[0]);
+            assertEquals(result[2], result[1]);
+            assertTrue(Long.parseLong(result[1]) > LARGE_FILE + LARGE_STREAM);
+        } finally {
+            server.shutdown();
+            large.delete();
+        }
+    }
+
+    /**
+     * Upload the given file and a generated stream on the child JVM of {@link SmallHeap},
+     * print the status, the bytes received by the server and the content length
+     * @param args the url and the file
+     */
+    public static void main(String[] args) throws Exception {
+        final MultipartRequestParams params = new MultipartRequestParams();
+        params.put("file", new File(args[1]));
+        params.put("stream", zeros(LARGE_STREAM), "stream.bin", null, LARGE_STREAM);
+        params.put("field", "value");
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.setReadTieout(120, TimeUnit.SECONDS);
+        client.execute(new Request.Builder().url(new URL(args[0])).method(RequestMethod.POST, params).build(),
+                new AsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, String content) {
+                result.set(statusCode + " " + content + " " + params.getContentLength());
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        finished.await(120, TimeUnit.SECONDS);
+        System.out.println(result.get());
+        System.exit(0);
+    }
+
+    /** A stream of zeros that never hold the bytes in memory */
+    private static InputStream zeros(final long length) {
+        return new InputStream() {
+            private long mRemaining = length;
+
+            @Override
+            public int read() {
+                if(mRemaining == 0) return -1;
+                mRemaining--;
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if(mRemaining == 0) return -1;
+                count = (int)Math.min(count, mRemaining);
+                Arrays.fill(buffer, offset, offset + count, (byte)0);
+                mRemaining -= count;
+                return count;
+            }
+        };
+    }
+
+    private static String part(String name, String fileName, String contentType, String content) {
+        StringBuilder part = new StringBuilder("Content-Disposition: form-data; name=\"" + name + "\"");
+        if(fileName != null) part.append("; filename=\"").append(fileName).append('"');
+        if(contentType != null) part.append("\r\nContent-Type: ").append(contentType);
+        return part.append("\r\n\r\n").append(content).toString();
+    }
+
+    /** Write the params and split the body on the boundary, checking the length */
+    private static List<String> parts(MultipartRequestParams params) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        params.writeTo(output);
+        assertEquals(params.getContentLength(), output.size());
+        String body = new String(output.toByteArray(), "ISO-8859-1");
+        String delimiter = "--" + params.getBoundary();
+        assertEquals(true, body.endsWith(delimiter + "--\r\n"));
+        List<String> parts = new ArrayList<String>();
+        String[] chunks = body.substring(0, body.length() - 4).split(delimiter, -1);
+        for(int i = 1; i < chunks.length - 1; i++) {
+            parts.add(chunks[i].substring(2, chunks[i].length() - 2));
+        }
+        return parts;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the {@link ObjectCache} never share the results of decoders of different types
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class ObjectCacheTest {
+
+    static class Named {
+        String name;
+    }
+
+    static class Counted {
+        int count;
+    }
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private TestServer mServer;
+
+    private AsyncOkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                TestServer.respond(exchange, 200, "{\"name\":\"item\",\"count\":2}");
+            }
+        });
+        mClient = new AsyncOkHttpClient();
+        mClient.setObjectCache(new ObjectCache(1024 * 1024, 1, TimeUnit.MINUTES));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void decodersOfDifferentTypesDontShareResults() throws Exception {
+        Object named = get(new JsonResponseDecoder<Named>(Named.class));
+        assertTrue(String.valueOf(named), named instanceof Named);
+        assertEquals("item", ((Named)named).name);
+        Object counted = get(new JsonResponseDecoder<Counted>(Counted.class));
+        assertTrue(String.valueOf(counted), counted instanceof Counted);
+        assertEquals(2, ((Counted)counted).count);
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void decodersOfTheSameTypeShareResults() throws Exception {
+        Object first = get(new JsonResponseDecoder<Named>(Named.class));
+        Object second = get(new JsonResponseDecoder<Named>(Named.class));
+        assertTrue(String.valueOf(second), second instanceof Named);
+        assertEquals(first, second);
+        assertEquals(1, mRequestCount.get());
+    }
+
+    /** Execute a GET of the item and return the decoded result or the failure */
+    private <T> Object get(ResponseDecoder<T> decoder) throws Exception {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        mClient.execute(new Request.Builder().url(mServer.url("/item")).build(), new TypedAsyncHttpResponse<T>(decoder) {
+            @Override
+            public void onSuccess(int statusCode, T decoded) {
+                result.set(decoded);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(error);
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue("request didn't finish", finished.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+}
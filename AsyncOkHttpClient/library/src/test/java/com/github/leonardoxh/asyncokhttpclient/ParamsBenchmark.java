@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compare the cost of fill and send the parameters of a request, put, the length and the
+ * write, of {@link RequestParams} with the old concatenation, that didn't encode anything,
+ * and with the obvious encoding of every parameter with {@link URLEncoder} for every call.
+ * The values mix plain text, reserved characters and non ascii text
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class ParamsBenchmark {
+
+    private static final int[] PARAMS = {10, 100, 1000};
+
+    private ParamsBenchmark() { }
+
+    public static void main(String[] args) throws Exception {
+        Benchmark.header("Fill, measure and write the parameters");
+        for(int count : PARAMS) {
+            final String[] keys = new String[count];
+            final String[] values = new String[count];
+            for(int i = 0; i < count; i++) {
+                keys[i] = "field_" + i;
+                values[i] = i % 3 == 0 ? "value " + i + " & more=" + i : i % 3 == 1 ? "plain" + i : "café ação " + i;
+            }
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Benchmark.report(count + " params, old concatenation", new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    Map<String, String> params = new ConcurrentHashMap<String, String>();
+                    for(int i = 0; i < keys.length; i++) params.put(keys[i], values[i]);
+                    output.reset();
+                    long length = oldParams(params).getBytes().length;
+                    output.write(oldParams(params).getBytes());
+                    return length;
+                }
+            });
+            Benchmark.report(count + " params, url encoder", new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    Map<String, String> params = new ConcurrentHashMap<String, String>();
+                    for(int i = 0; i < keys.length; i++) params.put(keys[i], values[i]);
+                    output.reset();
+                    long length = urlEncoded(params).getBytes("US-ASCII").length;
+                    output.write(urlEncoded(params).getBytes("US-ASCII"));
+                    return length;
+                }
+            });
+            Benchmark.report(count + " params, request params", new Benchmark() {
+                @Override
+                Object run() throws Exception {
+                    RequestParams params = new RequestParams();
+                    for(int i = 0; i < keys.length; i++) params.put(keys[i], values[i]);
+                    RequestBody body = params.snapshot();
+                    output.reset();
+                    long length = body.getContentLength();
+                    body.writeTo(output);
+                    return length;
+                }
+            });
+        }
+    }
+
+    /** The getParams of the old RequestParams, called by both the length and the write */
+    static String oldParams(Map<String, String> params) {
+        StringBuilder result = new StringBuilder();
+        for(Map.Entry<String, String> entry : params.entrySet()) {
+            if(result.length() > 0) result.append("&");
+            result.append(entry.getKey());
+            result.append("=");
+            result.append(entry.getValue());
+        }
+        return result.toString();
+    }
+
+    static String urlEncoded(Map<String, String> params) throws Exception {
+        StringBuilder result = new StringBuilder();
+        for(Map.Entry<String, String> entry : params.entrySet()) {
+            if(result.length() > 0) result.append('&');
+            result.append(URLEncoder.encode(entry.getKey(), "UTF-8"));
+            result.append('=');
+            result.append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the form encoding of {@link RequestParams} decode back to the same parameters
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class RequestParamsTest {
+
+    private static final String[] VALUES = {
+            "plain", "with space", "a+b=c&d", "100%", "~-._", "ção", "日本語", "emoji 😀",
+            "line\r\nbreak", "/?#[]@!$'()*,;", ""
+    };
+
+    @Test
+    public void encodingRoundTrips() throws Exception {
+        RequestParams params = new RequestParams();
+        for(int i = 0; i < VALUES.length; i++) {
+            params.add("key " + VALUES[i], VALUES[i]);
+        }
+        params.add("repeated", "1");
+        params.add("repeated", "2");
+        String encoded = params.getParams();
+        for(int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            boolean unreserved = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~';
+            assertEquals(encoded, true, unreserved || c == '%' || c == '&' || c == '=');
+        }
+        List<String> decoded = decode(encoded);
+        List<String> expected = new ArrayList<String>();
+        for(String value : VALUES) {
+            expected.add("key " + value);
+            expected.add(value);
+        }
+        expected.add("repeated");
+        expected.add("1");
+        expected.add("repeated");
+        expected.add("2");
+        assertEquals(expected, decoded);
+        assertEquals(encoded, new String(write(params), "US-ASCII"));
+        assertEquals(encoded.length(), params.getContentLength());
+    }
+
+    @Test
+    public void putReplacesAndKeepsTheOrder() {
+        RequestParams params = new RequestParams();
+        params.put("a", "1");
+        params.put("b", "2");
+        params.add("a", "3");
+        params.put("a", "4");
+        assertEquals("b=2&a=4", params.getParams());
+        params.remove("b");
+        assertEquals("a=4", params.getParams());
+        params.clear();
+        params.add("a", "5");
+        params.add("a", "6");
+        params.put("a", "7");
+        assertEquals("a=7", params.getParams());
+    }
+
+    @Test
+    public void builtRequestKeepsTheBytesEncodedOnSubmission() throws Exception {
+        RequestParams params = new RequestParams();
+        params.put("name", "short");
+        Request request = new Request.Builder().url(new URL("http://example.com/"))
+                .method(RequestMethod.POST, params).build();
+        for(int i = 0; i < 100; i++) {
+            params.add("name" + i, "a much longer value that grows the reused buffer " + i);
+        }
+        params.getParams();
+        RequestBody body = request.getBody();
+        byte[] written = write(body);
+        assertEquals(body.getContentLength(), written.length);
+        assertEquals("name=short", new String(written, "US-ASCII"));
+    }
+
+    private static List<String> decode(String encoded) throws Exception {
+        List<String> result = new ArrayList<String>();
+        for(String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            result.add(URLDecoder.decode(pair.substring(0, separator), "UTF-8"));
+            result.add(URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+        }
+        return result;
+    }
+
+    private static byte[] write(RequestBody body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.writeTo(output);
+        return output.toByteArray();
+    }
+
+}
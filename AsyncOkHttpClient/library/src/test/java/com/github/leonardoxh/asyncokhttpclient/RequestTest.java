@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.github.leonardoxh.asyncokhttpclient.utils.RequestMethod;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check a built {@link Request} never change when its builder or its parameters change
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class RequestTest {
+
+    @Test
+    public void paramsAreCopiedWhenBuilt() throws Exception {
+        RequestParams params = new RequestParams();
+        params.put("name", "first");
+        Request.Builder builder = new Request.Builder()
+                .url(new URL("http://example.com/"))
+                .method(RequestMethod.POST, params)
+                .header("X-Test", "1");
+        Request request = builder.build();
+        params.put("name", "second");
+        params.add("other", "value");
+        builder.header("X-Test", "2");
+        assertNotSame(params, request.getBody());
+        assertEquals("name=first", request.getParams().getParams());
+        assertEquals("name=first", new String(write(request.getBody()), "US-ASCII"));
+        assertEquals(10, request.getBody().getContentLength());
+        assertEquals("1", request.getHeader("X-Test"));
+        assertSame(request.getBody(), request.newBuilder().build().getBody());
+    }
+
+    @Test
+    public void paramsOfABuiltRequestCantChange() throws Exception {
+        RequestParams params = new RequestParams();
+        params.put("name", "value");
+        Request request = new Request.Builder().url(new URL("http://example.com/"))
+                .method(RequestMethod.POST, params).build();
+        try {
+            request.getParams().put("name", "other");
+            fail();
+        } catch(IllegalStateException expected) {
+        }
+        params.clear();
+        assertEquals("name=value", request.getParams().getParams());
+    }
+
+    @Test
+    public void multipartPartsAreCopiedWhenBuilt() throws Exception {
+        MultipartRequestParams params = new MultipartRequestParams();
+        params.put("field", "first");
+        Request request = new Request.Builder().url(new URL("http://example.com/"))
+                .method(RequestMethod.POST, params).build();
+        long length = request.getBody().getContentLength();
+        params.put("field", "a much longer value than before");
+        params.add("extra", "value");
+        RequestBody body = request.getBody();
+        assertTrue(body instanceof MultipartRequestParams);
+        assertEquals(params.getContentType(), body.getContentType());
+        assertEquals(length, body.getContentLength());
+        String written = new String(write(body), "UTF-8");
+        assertEquals(length, written.length());
+        assertTrue(written.contains("first"));
+        assertTrue(!written.contains("extra"));
+    }
+
+    private static byte[] write(RequestBody body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.writeTo(output);
+        return output.toByteArray();
+    }
+
+}
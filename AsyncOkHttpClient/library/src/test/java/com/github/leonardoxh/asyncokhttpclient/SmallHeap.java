@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run a main class of the tests on a child JVM with a small heap, so a test can
+ * prove that a body many times larger than the heap is streamed and never held in memory
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+final class SmallHeap {
+
+    /** The max heap of the child JVM */
+    static final String MAX_HEAP = "-Xmx32m";
+
+    private SmallHeap() { }
+
+    /**
+     * @param main the class with the main method
+     * @param args the arguments of the main method
+     * @return the last line the child printed
+     * @throws AssertionError if the child exited with an error, like an OutOfMemoryError
+     */
+    static String run(Class<?> main, String... args) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add(MAX_HEAP);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        Collections.addAll(command, args);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        String output = read(process.getInputStream()).trim();
+        int exit = process.waitFor();
+        if(exit != 0) throw new AssertionError("child exited with " + exit + ": " + output);
+        return output.substring(output.lastIndexOf('\n') + 1);
+    }
+
+    private static String read(InputStream input) throws Exception {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the {@link StreamingAsyncHttpResponse} stream the bodies of any size
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class StreamingAsyncHttpResponseTest {
+
+    /** The size of the large body, 16 times the heap of the child JVM */
+    private static final long LARGE_BODY = 512L * 1024 * 1024;
+
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if("/empty".equals(exchange.getRequestURI().getPath()) || "HEAD".equals(exchange.getRequestMethod())) {
+                    TestServer.respond(exchange, 204, new byte[0]);
+                } else if("/large".equals(exchange.getRequestURI().getPath())) {
+                    exchange.sendResponseHeaders(200, LARGE_BODY);
+                    OutputStream output = exchange.getResponseBody();
+                    byte[] chunk = new byte[64 * 1024];
+                    for(long sent = 0; sent < LARGE_BODY; sent += chunk.length) {
+                        output.write(chunk);
+                    }
+                    output.close();
+                } else {
+                    TestServer.respond(exchange, 200, "streamed");
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void bodyIsStreamed() throws Exception {
+        assertEquals("200 8", stream(new Request.Builder().url(mServer.url("/body")).build()));
+    }
+
+    @Test
+    public void responseWithoutBodyIsAnEmptyStream() throws Exception {
+        assertEquals("204 0", stream(new Request.Builder().url(mServer.url("/empty")).build()));
+        assertEquals("204 0", stream(new Request.Builder().url(mServer.url("/body")).method("HEAD", null).build()));
+    }
+
+    @Test
+    public void bodyLargerThanTheHeapIsStreamed() throws Exception {
+        assertEquals("200 " + LARGE_BODY, SmallHeap.run(StreamingAsyncHttpResponseTest.class,
+                mServer.url("/large").toString()));
+    }
+
+    @Test
+    public void connectionWithoutInputStreamIsAnEmptyStream() throws Exception {
+        final AtomicReference<String> result = new AtomicReference<String>();
+        StreamingAsyncHttpResponse response = new StreamingAsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, long contentLength) {
+                result.set(statusCode + " " + contentLength);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+        };
+        response.sendResponseMessage(new HttpURLConnection(mServer.url("/")) {
+            @Override
+            public int getResponseCode() {
+                return HTTP_NO_CONTENT;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return null;
+            }
+
+            @Override
+            public void connect() { }
+
+            @Override
+            public void disconnect() { }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+        });
+        assertEquals("204 0", result.get());
+    }
+
+    /**
+     * Stream the given url on the child JVM of {@link SmallHeap}
+     * @param args the url
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println(stream(new Request.Builder().url(new URL(args[0])).build(), 120));
+        System.exit(0);
+    }
+
+    private static String stream(Request request) throws Exception {
+        return stream(request, 10);
+    }
+
+    private static String stream(Request request, long timeoutSeconds) throws Exception {
+        final AtomicReference<String> result = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        new AsyncOkHttpClient().execute(request, new StreamingAsyncHttpResponse() {
+            @Override
+            public void onSuccess(int statusCode, long contentLength) {
+                result.set(statusCode + " " + contentLength);
+            }
+
+            @Override
+            public void onError(Throwable error, String content) {
+                result.set(String.valueOf(error));
+            }
+
+            @Override
+            public void onFinish() {
+                finished.countDown();
+            }
+        });
+        assertTrue("request didn't finish", finished.await(timeoutSeconds, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+}
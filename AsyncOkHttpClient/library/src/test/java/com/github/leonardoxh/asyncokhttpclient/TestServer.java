@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A local HTTP server for the tests, every request is given to the handler on its own thread
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+final class TestServer {
+
+    private final HttpServer mServer;
+
+    private final ExecutorService mExecutor;
+
+    TestServer(HttpHandler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TestServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", handler);
+        mServer.start();
+    }
+
+    /**
+     * @param path the path with the query, starting with /
+     * @return the url of the path on this server
+     */
+    URL url(String path) throws IOException {
+        return url("127.0.0.1", path);
+    }
+
+    /**
+     * @param host the host name, like localhost, resolving to the loopback
+     * @param path the path with the query, starting with /
+     * @return the url of the path on this server with the given host
+     */
+    URL url(String host, String path) throws IOException {
+        return new URL("http://" + host + ":" + mServer.getAddress().getPort() + path);
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream input = exchange.getRequestBody();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        respond(exchange, code, body.getBytes("UTF-8"));
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the time and the allocations on the callback thread, the main thread of an app,
+ * of a {@link TypedAsyncHttpResponse} that receives the model already decoded and of a
+ * {@link JsonAsyncHttpResponse} whose callback walks the JSON tree to build the same model.
+ * The callbacks run on a single thread that measure every callback, the lifecycle
+ * callbacks included
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class TypedBenchmark {
+
+    /** The items of every response */
+    private static final int[] ITEMS = {10, 100, 1000};
+
+    private static final int WARMUP_RESPONSES = 500;
+
+    private static final int RESPONSES = 2000;
+
+    /** The responses in flight at once */
+    private static final int CONCURRENCY = 8;
+
+    static class Item {
+        long id;
+        String name;
+        double price;
+        boolean available;
+    }
+
+    static class Catalog {
+        String title;
+        List<Item> items;
+    }
+
+    private TypedBenchmark() { }
+
+    public static void main(String[] args) throws Exception {
+        Benchmark.header("Callback thread per response");
+        for(int items : ITEMS) {
+            final String body = catalog(items).toString();
+            TestServer server = new TestServer(new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+                    TestServer.respond(exchange, 200, body);
+                }
+            });
+            try {
+                run(items + " items, json tree", server, false);
+                run(items + " items, typed", server, true);
+            } finally {
+                server.shutdown();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, TestServer server, boolean typed) throws Exception {
+        MainThread main = new MainThread();
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.setCallbackExecutor(CallbackExecutor.executor(main));
+        client.getDispatcher().setMaxQueuedRequests(RESPONSES);
+        execute(client, server, typed, WARMUP_RESPONSES);
+        main.reset();
+        execute(client, server, typed, RESPONSES);
+        Benchmark.print(name, main.mNanos, main.mBytes, RESPONSES);
+        main.mThread.shutdown();
+    }
+
+    private static void execute(AsyncOkHttpClient client, TestServer server, boolean typed, int responses)
+            throws Exception {
+        final CountDownLatch done = new CountDownLatch(responses);
+        final Semaphore inFlight = new Semaphore(CONCURRENCY);
+        for(int i = 0; i < responses; i++) {
+            inFlight.acquire();
+            Request request = new Request.Builder().url(server.url("/catalog")).build();
+            if(typed) {
+                client.execute(request, new TypedAsyncHttpResponse<Catalog>(
+                        new JsonResponseDecoder<Catalog>(Catalog.class)) {
+                    @Override
+                    public void onSuccess(int statusCode, Catalog catalog) {
+                        Benchmark.sSink = catalog;
+                    }
+
+                    @Override
+                    public void onFinish() {
+                        inFlight.release();
+                        done.countDown();
+                    }
+                });
+            } else {
+                client.execute(request, new JsonAsyncHttpResponse() {
+                    @Override
+                    public void onSuccess(int statusCode, JSONObject response) {
+                        Benchmark.sSink = toCatalog(response);
+                    }
+
+                    @Override
+                    public void onFinish() {
+                        inFlight.release();
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        if(!done.await(300, TimeUnit.SECONDS)) throw new IllegalStateException("responses didn't finish");
+    }
+
+    /** The work an app does on the main thread with the JSON tree */
+    static Catalog toCatalog(JSONObject json) {
+        Catalog catalog = new Catalog();
+        catalog.title = json.optString("title");
+        JSONArray array = json.optJSONArray("items");
+        catalog.items = new ArrayList<Item>(array.length());
+        for(int i = 0; i < array.length(); i++) {
+            JSONObject object = array.optJSONObject(i);
+            Item item = new Item();
+            item.id = object.optLong("id");
+            item.name = object.optString("name");
+            item.price = object.optDouble("price");
+            item.available = object.optBoolean("available");
+            catalog.items.add(item);
+        }
+        return catalog;
+    }
+
+    private static JSONObject catalog(int items) throws Exception {
+        JSONArray array = new JSONArray();
+        for(int i = 0; i < items; i++) {
+            array.put(new JSONObject().put("id", 100000L + i).put("name", "Item number " + i)
+                    .put("price", 9.99 + i).put("available", i % 2 == 0));
+        }
+        return new JSONObject().put("title", "Catalog").put("items", array);
+    }
+
+    /** A single callback thread that sum the time and the allocations of every callback */
+    private static final class MainThread implements Executor {
+
+        final ExecutorService mThread = Executors.newSingleThreadExecutor();
+
+        /** Written only by the callback thread, read after the responses finished */
+        volatile long mNanos;
+
+        volatile long mBytes;
+
+        @Override
+        public void execute(final Runnable callback) {
+            mThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long bytes = Benchmark.allocatedBytes();
+                    long start = System.nanoTime();
+                    callback.run();
+                    mNanos += System.nanoTime() - start;
+                    mBytes += Benchmark.allocatedBytes() - bytes;
+                }
+            });
+        }
+
+        void reset() throws Exception {
+            mThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mNanos = 0;
+                    mBytes = 0;
+                }
+            }).get();
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load harness of the request threads, not a unit test. It starts a server that answer
+ * every request after a delay on a child process, so the sockets of both sides don't
+ * share the file limit, then execute all the requests at once and report how many were
+ * running on the client, how many were waiting on the server at the same time, the real
+ * concurrency, and how many platform threads the JVM needed.
+ * Run it with {@code ./gradlew loadTest -Pmode=virtual -Prequests=10000}, the virtual
+ * mode needs Java 21 and a file limit above the requests, like {@code ulimit -n 20000}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class VirtualThreadLoad {
+
+    /** The path that answer the max requests waiting at once on the server */
+    private static final String PEAK = "/peak";
+
+    private VirtualThreadLoad() { }
+
+    /**
+     * @param args the mode, virtual, platform or pool, the requests, the server delay in
+     * milliseconds and the timeout in seconds, or server and the delay to run the server
+     */
+    public static void main(String[] args) throws Exception {
+        if("server".equals(args[0])) {
+            serve(Long.parseLong(args[1]));
+            return;
+        }
+        String mode = args[0];
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        long timeout = args.length > 3 ? Long.parseLong(args[3]) : 300;
+        Process server = startServer(delay);
+        try {
+            int port = Integer.parseInt(new BufferedReader(new InputStreamReader(server.getInputStream())).readLine());
+            run(mode, requests, port, timeout);
+        } finally {
+            server.destroy();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Execute the requests on the given mode, virtual runs every request on a virtual
+     * thread and platform on a new platform thread, both without limits of requests.
+     * The pool mode keep the default executor and limits of the dispatcher
+     */
+    private static void run(String mode, int requests, int port, long timeout) throws Exception {
+        AsyncOkHttpClient client = new AsyncOkHttpClient();
+        client.setConnectionTimeut(60, TimeUnit.SECONDS);
+        client.setReadTieout(60, TimeUnit.SECONDS);
+        Dispatcher dispatcher = client.getDispatcher();
+        dispatcher.setMaxQueuedRequests(requests);
+        if("virtual".equals(mode)) client.setVirtualThreadsEnabled(true);
+        if("platform".equals(mode)) dispatcher.setThreadFactory(Executors.defaultThreadFactory());
+        if(!"pool".equals(mode)) {
+            dispatcher.setMaxRequests(requests);
+            dispatcher.setMaxRequestsPerHost(requests);
+        }
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(requests);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for(int i = 0; i < requests; i++) {
+            Request request = new Request.Builder().url(new URL("http://127.0.0.1:" + port + "/" + i)).build();
+            client.execute(request, new AsyncHttpResponse() {
+                @Override
+                public void onStart() {
+                    int current = inFlight.incrementAndGet();
+                    int max;
+                    while(current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+                        // retry
+                    }
+                }
+
+                @Override
+                public void onSuccess(int statusCode, String content) {
+                    successes.incrementAndGet();
+                }
+
+                @Override
+                public void onError(Throwable error, String content) {
+                    failures.incrementAndGet();
+                }
+
+                @Override
+                public void onFinish() {
+                    inFlight.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        boolean finished = done.await(timeout, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("java " + System.getProperty("java.version") + ", mode " + mode
+                + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+        System.out.println("requests " + requests + ", finished " + finished + ", successes " + successes
+                + ", failures " + failures + ", " + elapsed + " ms");
+        System.out.println("max running " + maxInFlight + ", max waiting on the server " + serverPeak(port)
+                + ", peak platform threads " + threads.getPeakThreadCount());
+    }
+
+    private static String serverPeak(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" + port + PEAK).openConnection();
+        try {
+            return new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8")).readLine();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Process startServer(long delay) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                VirtualThreadLoad.class.getName(), "server", String.valueOf(delay));
+        builder.redirectErrorStream(true);
+        return builder.start();
+    }
+
+    /** Answer every request after the delay without hold a thread while it waits */
+    private static void serve(final long delay) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 20000);
+        final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicInteger maxWaiting = new AtomicInteger();
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                if(PEAK.equals(exchange.getRequestURI().getPath())) {
+                    TestServer.respond(exchange, 200, maxWaiting.toString());
+                    return;
+                }
+                int current = waiting.incrementAndGet();
+                int max;
+                while(current > (max = maxWaiting.get()) && !maxWaiting.compareAndSet(max, current)) {
+                    // retry
+                }
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        waiting.decrementAndGet();
+                        try {
+                            TestServer.respond(exchange, 200, "ok");
+                        } catch(IOException ignored) {
+                        } finally {
+                            exchange.close();
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        System.out.println(server.getAddress().getPort());
+        System.out.flush();
+    }
+
+}
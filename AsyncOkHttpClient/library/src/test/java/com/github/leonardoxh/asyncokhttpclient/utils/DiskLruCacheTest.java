@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the edits of the {@link DiskLruCache} and the recovery of the journal after a crash
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class DiskLruCacheTest {
+
+    private static final String MAGIC = "com.github.leonardoxh.asyncokhttpclient.DiskLruCache\n1\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    private DiskLruCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("cache");
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mCache.close();
+    }
+
+    @Test
+    public void committedEntrySurvivesReopen() throws IOException {
+        put("a", "meta", "body");
+        reopen();
+        assertEntry("a", "meta", "body");
+        assertEquals(8, mCache.size());
+    }
+
+    @Test
+    public void abortKeepsTheReadableEntry() throws IOException {
+        put("a", "meta", "body");
+        DiskLruCache.Editor editor = mCache.edit("a");
+        write(editor.getMetadataFile(), "other");
+        write(editor.getDataFile(), "other body");
+        editor.abort();
+        assertEntry("a", "meta", "body");
+        assertFalse(editor.getMetadataFile().exists());
+        assertFalse(editor.getDataFile().exists());
+        reopen();
+        assertEntry("a", "meta", "body");
+        assertNotNull(mCache.edit("a"));
+    }
+
+    @Test
+    public void abortRemovesANewEntry() throws IOException {
+        DiskLruCache.Editor editor = mCache.edit("a");
+        write(editor.getMetadataFile(), "meta");
+        editor.abort();
+        assertNull(mCache.get("a"));
+        reopen();
+        assertNull(mCache.get("a"));
+    }
+
+    @Test
+    public void snapshotKeepsTheVersionItOpened() throws IOException {
+        put("a", "meta", "body");
+        DiskLruCache.Snapshot snapshot = mCache.get("a");
+        put("a", "new meta", "new body");
+        mCache.remove("a");
+        assertEquals("meta", read(snapshot.getMetadata()));
+        assertEquals("body", read(snapshot.getData()));
+        snapshot.close();
+        assertNull(mCache.get("a"));
+    }
+
+    @Test
+    public void concurrentReadsSeeOneVersion() throws Exception {
+        put("a", "0", "0");
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for(int i = 1; i <= 2000; i++) {
+                        put("a", String.valueOf(i), String.valueOf(i));
+                    }
+                } catch(Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        writer.start();
+        while(writer.isAlive()) {
+            DiskLruCache.Snapshot snapshot = mCache.get("a");
+            try {
+                assertEquals(read(snapshot.getMetadata()), read(snapshot.getData()));
+            } finally {
+                snapshot.close();
+            }
+        }
+        writer.join();
+        assertNull(failure.get());
+        assertEntry("a", "2000", "2000");
+    }
+
+    @Test
+    public void truncatedLastLineIsIgnored() throws IOException {
+        put("a", "meta", "body");
+        mCache.close();
+        append("CLEAN b 1");
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+        assertEntry("a", "meta", "body");
+        assertNull(mCache.get("b"));
+        put("c", "meta", "body");
+        reopen();
+        assertEntry("a", "meta", "body");
+        assertEntry("c", "meta", "body");
+    }
+
+    @Test
+    public void dirtyEntryWithoutCleanIsDiscarded() throws IOException {
+        put("a", "meta", "body");
+        mCache.close();
+        write(new File(mDirectory, "b.0"), "meta");
+        write(new File(mDirectory, "b.1"), "body");
+        write(new File(mDirectory, "a.0.tmp"), "partial");
+        append("DIRTY b\n");
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+        assertNull(mCache.get("b"));
+        assertFalse(new File(mDirectory, "b.0").exists());
+        assertFalse(new File(mDirectory, "b.1").exists());
+        assertFalse(new File(mDirectory, "a.0.tmp").exists());
+        assertEntry("a", "meta", "body");
+    }
+
+    @Test
+    public void entryWithMissingFilesIsDiscarded() throws IOException {
+        put("a", "meta", "body");
+        put("b", "meta", "body");
+        mCache.close();
+        assertTrue(new File(mDirectory, "b.1").delete());
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+        assertEntry("a", "meta", "body");
+        assertNull(mCache.get("b"));
+        assertEquals(8, mCache.size());
+    }
+
+    @Test
+    public void corruptedHeaderDiscardsTheCache() throws IOException {
+        put("a", "meta", "body");
+        mCache.close();
+        write(new File(mDirectory, "journal"), "something else\n1\nCLEAN a 8\n");
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+        assertNull(mCache.get("a"));
+        assertFalse(new File(mDirectory, "a.0").exists());
+        assertEquals(0, mCache.size());
+        put("b", "meta", "body");
+        reopen();
+        assertEntry("b", "meta", "body");
+    }
+
+    @Test
+    public void corruptedLineBeforeTheEndDiscardsTheCache() throws IOException {
+        put("a", "meta", "body");
+        mCache.close();
+        append("BROKEN a\nREAD a\n");
+        mCache = DiskLruCache.open(mDirectory, Long.MAX_VALUE);
+        assertNull(mCache.get("a"));
+    }
+
+    @Test
+    public void eldestEntriesAreEvicted() throws IOException {
+        mCache.close();
+        mCache = DiskLruCache.open(mDirectory, 20);
+        put("a", "meta", "body");
+        put("b", "meta", "body");
+        mCache.get("a").close();
+        put("c", "meta", "body");
+        assertEquals(16, mCache.size());
+        assertNull(mCache.get("b"));
+        assertEntry("a", "meta", "body");
+        assertEntry("c", "meta", "body");
+    }
+
+    private void reopen() throws IOException {
+        mCache.close();
+        mCache = DiskLruCache.open(mDirectory, mCache.getMaxSize());
+    }
+
+    private void put(String key, String metadata, String data) throws IOException {
+        DiskLruCache.Editor editor = mCache.edit(key);
+        write(editor.getMetadataFile(), metadata);
+        write(editor.getDataFile(), data);
+        editor.commit();
+    }
+
+    private void assertEntry(String key, String metadata, String data) throws IOException {
+        DiskLruCache.Snapshot snapshot = mCache.get(key);
+        assertNotNull(key + " not found", snapshot);
+        try {
+            assertEquals(metadata, read(snapshot.getMetadata()));
+            assertEquals(data, read(snapshot.getData()));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private void append(String lines) throws IOException {
+        OutputStream output = new FileOutputStream(new File(mDirectory, "journal"), true);
+        try {
+            output.write(lines.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("UTF-8");
+    }
+
+}
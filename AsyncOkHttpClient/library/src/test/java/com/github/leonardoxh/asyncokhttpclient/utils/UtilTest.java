@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.leonardoxh.asyncokhttpclient.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the charset decoding of the text responses
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class UtilTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+
+    /** Multi byte characters, surrogate pairs and line breaks */
+    private static final String TEXT = "ação €10\r\n日本😀\n";
+
+    @Test
+    public void decodesSplitCharactersOfLargeBodies() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        while(builder.length() < 64 * 1024) {
+            builder.append(TEXT);
+        }
+        String text = builder.toString();
+        byte[] bytes = text.getBytes(UTF_8);
+        assertEquals(text, Util.inputStreamToString(new TrickleInputStream(bytes), UTF_8, -1));
+        assertEquals(text, Util.inputStreamToString(new TrickleInputStream(bytes), UTF_8, bytes.length));
+        assertEquals(text, Util.inputStreamToString(new TrickleInputStream(bytes), UTF_8, 10));
+        assertEquals(text, Util.inputStreamToString(new TrickleInputStream(bytes), UTF_8, bytes.length * 4L));
+    }
+
+    @Test
+    public void decodesTheGivenCharset() throws IOException {
+        String latin = "ação à la carte\r\n";
+        assertEquals(latin, Util.inputStreamToString(new ByteArrayInputStream(latin.getBytes(ISO_8859_1)),
+                ISO_8859_1, -1));
+        assertEquals(TEXT, Util.inputStreamToString(new TrickleInputStream(TEXT.getBytes(UTF_16)), UTF_16, -1));
+    }
+
+    @Test
+    public void replacesMalformedInput() throws IOException {
+        byte[] bytes = {'a', (byte)0xc3, 'b', (byte)0xe2, (byte)0x82};
+        assertEquals("a�b�", Util.inputStreamToString(new ByteArrayInputStream(bytes), UTF_8, -1));
+    }
+
+    @Test
+    public void readsTheCharsetOfTheContentType() {
+        assertEquals(UTF_8, Util.getCharset(null));
+        assertEquals(UTF_8, Util.getCharset("text/plain"));
+        assertEquals(ISO_8859_1, Util.getCharset("text/plain; charset=ISO-8859-1"));
+        assertEquals(ISO_8859_1, Util.getCharset("text/plain;CHARSET=\"iso-8859-1\""));
+        assertEquals(UTF_8, Util.getCharset("text/plain; charset=unknown-charset"));
+        assertEquals(UTF_8, Util.getCharset("text/plain; charset="));
+    }
+
+    /** Return at most 3 bytes per read, so the characters are split between the reads */
+    private static final class TrickleInputStream extends InputStream {
+
+        private final byte[] mBytes;
+
+        private int mPosition;
+
+        TrickleInputStream(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if(mPosition == mBytes.length) return -1;
+            int result = Math.min(Math.min(count, 1 + mPosition % 3), mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, buffer, offset, result);
+            mPosition += result;
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stub of the Android handler, the messages and tasks are
+ * queued on the looper of the handler without any delay
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public class Handler {
+
+    public interface Callback {
+
+        boolean handleMessage(Message message);
+
+    }
+
+    private final Looper mLooper;
+
+    private final Callback mCallback;
+
+    public Handler() {
+        this(null, null);
+    }
+
+    public Handler(Callback callback) {
+        this(null, callback);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        mLooper = looper != null ? looper : Looper.myLooper();
+        if(mLooper == null) throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+        mCallback = callback;
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        Message message = Message.obtain();
+        message.what = what;
+        message.obj = obj;
+        message.target = this;
+        return message;
+    }
+
+    public final boolean sendMessage(final Message message) {
+        message.target = this;
+        return post(new Runnable() {
+            @Override
+            public void run() {
+                dispatchMessage(message);
+            }
+        });
+    }
+
+    public final boolean post(Runnable task) {
+        return mLooper.mQueue.add(task);
+    }
+
+    public void dispatchMessage(Message message) {
+        if(mCallback != null && mCallback.handleMessage(message)) return;
+        handleMessage(message);
+    }
+
+    public void handleMessage(Message message) {
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * JVM stub of the Android looper, a thread that called {@link #prepare()}
+ * run the posted tasks one at time on {@link #loop()} until {@link #quit()}
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sLoopers = new ThreadLocal<Looper>();
+
+    private static Looper sMainLooper;
+
+    private static final Runnable QUIT = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    final BlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<Runnable>();
+
+    private final Thread mThread;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if(sLoopers.get() != null) throw new RuntimeException("Only one Looper may be created per thread");
+        sLoopers.set(new Looper());
+    }
+
+    public static void prepareMainLooper() {
+        prepare();
+        synchronized(Looper.class) {
+            sMainLooper = myLooper();
+        }
+    }
+
+    public static synchronized Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sLoopers.get();
+    }
+
+    public static void loop() {
+        Looper looper = myLooper();
+        if(looper == null) throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        try {
+            while(true) {
+                Runnable task = looper.mQueue.take();
+                if(task == QUIT) return;
+                task.run();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void quit() {
+        mQueue.add(QUIT);
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+}
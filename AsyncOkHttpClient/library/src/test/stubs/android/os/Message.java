@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Leonardo Rossetto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stub of the Android message, only the fields used by the library
+ * @author Leonardo Rossetto <leonardoxh@gmail.com>
+ */
+public final class Message {
+
+    public int what;
+
+    public int arg1;
+
+    public int arg2;
+
+    public Object obj;
+
+    Handler target;
+
+    public static Message obtain() {
+        return new Message();
+    }
+
+    public void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        target = null;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+}